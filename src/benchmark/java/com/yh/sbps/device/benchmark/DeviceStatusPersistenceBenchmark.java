@@ -0,0 +1,146 @@
+package com.yh.sbps.device.benchmark;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.yh.sbps.device.entity.DeviceStatus;
+import com.yh.sbps.device.repository.DeviceStatusPatch;
+import com.yh.sbps.device.repository.DeviceStatusRepository;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.LongStream;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Write and read throughput of {@code device_status} with realistic Shelly status and event JSON.
+ * Writes go through the batched column-wise upsert used by the write-behind flush; reads load the
+ * entities by id, as the status endpoints and startup do.
+ *
+ * <p>Runs against in-memory H2 by default. To compare column types on PostgreSQL, point it at a
+ * database migrated to the schema under test with {@code -Dbenchmark.datasource.url=...
+ * -Dbenchmark.datasource.username=... -Dbenchmark.datasource.password=...}; tune with {@code
+ * -Dbenchmark.devices=1000 -Dbenchmark.rounds=20 -Dbenchmark.batch=200}.
+ */
+@SpringBootTest(
+    properties = {
+      "jwt.secret=01234567890123456789012345678901",
+      "spring.liquibase.enabled=false",
+      "logging.level.com.yh.sbps=WARN"
+    })
+@DisplayName("device_status persistence benchmark")
+class DeviceStatusPersistenceBenchmark {
+
+  private static final int DEVICES = Integer.getInteger("benchmark.devices", 1000);
+  private static final int ROUNDS = Integer.getInteger("benchmark.rounds", 20);
+  private static final int BATCH = Integer.getInteger("benchmark.batch", 200);
+  private static final long FIRST_ID = 1_000_000L;
+
+  @MockitoBean private com.yh.sbps.device.config.security.JwtAuthFilter jwtAuthFilter;
+
+  @MockitoBean
+  private com.yh.sbps.device.config.security.DeviceUserDetailsService deviceUserDetailsService;
+
+  @MockitoBean private com.yh.sbps.device.config.security.JwtService jwtService;
+
+  @Autowired private DeviceStatusRepository repository;
+  @Autowired private TransactionTemplate transactionTemplate;
+
+  @DynamicPropertySource
+  static void datasourceProperties(DynamicPropertyRegistry registry) {
+    String url = System.getProperty("benchmark.datasource.url");
+    if (url != null) {
+      registry.add("spring.datasource.url", () -> url);
+      registry.add("spring.datasource.driver-class-name", () -> "org.postgresql.Driver");
+      registry.add(
+          "spring.datasource.username", () -> System.getProperty("benchmark.datasource.username"));
+      registry.add(
+          "spring.datasource.password", () -> System.getProperty("benchmark.datasource.password"));
+      registry.add("spring.jpa.hibernate.ddl-auto", () -> "none");
+    }
+  }
+
+  @Test
+  void measureWriteAndReadThroughput() {
+    List<Long> ids = LongStream.range(FIRST_ID, FIRST_ID + DEVICES).boxed().toList();
+    try {
+      long writeNanos = 0;
+      for (int round = 0; round < ROUNDS; round++) {
+        List<DeviceStatusPatch> patches = new ArrayList<>(DEVICES);
+        for (Long id : ids) {
+          patches.add(
+              new DeviceStatusPatch(
+                  id,
+                  "bench/plug" + id,
+                  statusJson(id, round),
+                  true,
+                  eventJson(round),
+                  null,
+                  null));
+        }
+        long start = System.nanoTime();
+        for (int from = 0; from < patches.size(); from += BATCH) {
+          List<DeviceStatusPatch> batch = patches.subList(from, Math.min(from + BATCH, DEVICES));
+          transactionTemplate.executeWithoutResult(tx -> repository.upsertAll(batch));
+        }
+        writeNanos += System.nanoTime() - start;
+      }
+
+      long readNanos = 0;
+      int rowsRead = 0;
+      for (int round = 0; round < ROUNDS; round++) {
+        long start = System.nanoTime();
+        for (int from = 0; from < ids.size(); from += BATCH) {
+          List<DeviceStatus> rows =
+              repository.findAllById(ids.subList(from, Math.min(from + BATCH, DEVICES)));
+          rowsRead += rows.size();
+          rows.forEach(row -> assertThat(row.getLastStatusJson()).isNotNull());
+        }
+        readNanos += System.nanoTime() - start;
+      }
+
+      long writes = (long) DEVICES * ROUNDS;
+      System.out.printf(
+          "device_status: %d devices x %d rounds, batch %d%n"
+              + "  writes: %,.0f rows/s (%.1f us/row)%n"
+              + "  reads:  %,.0f rows/s (%.1f us/row)%n",
+          DEVICES,
+          ROUNDS,
+          BATCH,
+          writes / seconds(writeNanos),
+          TimeUnit.NANOSECONDS.toMicros(writeNanos) / (double) writes,
+          rowsRead / seconds(readNanos),
+          TimeUnit.NANOSECONDS.toMicros(readNanos) / (double) rowsRead);
+      assertThat(rowsRead).isEqualTo(writes);
+    } finally {
+      repository.deleteAllById(ids);
+    }
+  }
+
+  private static String statusJson(long id, int round) {
+    return "{\"id\":0,\"source\":\"timer\",\"output\":true,\"apower\":"
+        + (100 + (id + round) % 400)
+        + ".5,\"voltage\":229.8,\"freq\":50.0,\"current\":0.912,"
+        + "\"aenergy\":{\"total\":"
+        + (12000 + round)
+        + ".123,\"by_minute\":[1.2,3.4,5.6],\"minute_ts\":1718000000},"
+        + "\"temperature\":{\"tC\":41.2,\"tF\":106.2}}";
+  }
+
+  private static String eventJson(int round) {
+    return "{\"src\":\"shellyplugs\",\"dst\":\"sbps\",\"method\":\"NotifyStatus\","
+        + "\"params\":{\"ts\":"
+        + (1718000000 + round)
+        + ".12,\"switch:0\":{\"id\":0,\"output\":true}}}";
+  }
+
+  private static double seconds(long nanos) {
+    return nanos / 1e9;
+  }
+}
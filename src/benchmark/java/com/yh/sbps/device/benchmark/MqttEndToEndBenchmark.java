@@ -0,0 +1,462 @@
+package com.yh.sbps.device.benchmark;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.when;
+
+import com.yh.sbps.device.dto.DeviceDto;
+import com.yh.sbps.device.dto.DeviceProvider;
+import com.yh.sbps.device.dto.DeviceStateSnapshot;
+import com.yh.sbps.device.dto.DeviceType;
+import com.yh.sbps.device.dto.SystemSettingsDto;
+import com.yh.sbps.device.dto.SystemStateDto;
+import com.yh.sbps.device.integration.ApiServiceClient;
+import com.yh.sbps.device.service.DeviceRealtimeStateCache;
+import com.yh.sbps.device.service.MqttIngestPipeline;
+import com.yh.sbps.device.service.ShellyService;
+import com.yh.sbps.device.service.SystemStateCache;
+import com.yh.sbps.device.support.EmbeddedMqttBroker;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
+import org.eclipse.paho.client.mqttv3.MqttCallback;
+import org.eclipse.paho.client.mqttv3.MqttClient;
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+
+/**
+ * Publish-to-command benchmark over a real (embedded) broker. Simulated households of one Shelly
+ * power monitor and a mix of Shelly and Tasmota plugs publish telemetry at a fixed rate. Each
+ * household also sends periodic overload readings. The latency of one probe runs from publishing
+ * that reading until the simulated plug receives the OFF command. The path covered is MQTT in,
+ * ingest pipeline, {@code handleMqttMessage}, {@code balancePower}, command publish, MQTT out.
+ * Calls to sbps-api are stubbed with a fixed delay to stand in for the real HTTP round trip.
+ *
+ * <p>Run with {@code ./gradlew benchmark}; tune with {@code -Dbenchmark.households=50
+ * -Dbenchmark.plugs=4 -Dbenchmark.rate=2 -Dbenchmark.seconds=20 -Dbenchmark.apiLatencyMs=20}.
+ */
+@SpringBootTest(
+    properties = {
+      "jwt.secret=01234567890123456789012345678901",
+      "spring.liquibase.enabled=false",
+      "mqtt.protocol=tcp",
+      "logging.level.com.yh.sbps=WARN"
+    })
+@DisplayName("MQTT end-to-end benchmark")
+class MqttEndToEndBenchmark {
+
+  private static final int HOUSEHOLDS = Integer.getInteger("benchmark.households", 20);
+  private static final int MAX_HOUSEHOLDS = Integer.getInteger("benchmark.maxHouseholds", 640);
+  private static final int PLUGS = Integer.getInteger("benchmark.plugs", 4);
+  private static final int RATE = Integer.getInteger("benchmark.rate", 2); // msg/s per device
+  private static final int SECONDS = Integer.getInteger("benchmark.seconds", 10);
+  private static final long API_LATENCY_MS = Long.getLong("benchmark.apiLatencyMs", 20);
+  private static final long SLA_MILLIS = Long.getLong("benchmark.slaMillis", 500);
+  private static final int PLUG_WATTS = 400;
+  private static final long PROBE_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(2);
+  private static final AtomicInteger RUNS = new AtomicInteger();
+
+  private static EmbeddedMqttBroker broker;
+
+  @MockitoBean private ApiServiceClient apiServiceClient;
+
+  @MockitoBean private com.yh.sbps.device.config.security.JwtAuthFilter jwtAuthFilter;
+
+  @MockitoBean
+  private com.yh.sbps.device.config.security.DeviceUserDetailsService deviceUserDetailsService;
+
+  @MockitoBean private com.yh.sbps.device.config.security.JwtService jwtService;
+
+  @Autowired private ShellyService shellyService;
+  @Autowired private SystemStateCache systemStateCache;
+  @Autowired private DeviceRealtimeStateCache stateCache;
+  @Autowired private MqttIngestPipeline ingestPipeline;
+
+  @Value("${spring.threads.virtual.enabled:false}")
+  private boolean virtualThreads;
+
+  private final Map<String, SystemStateDto> states = new ConcurrentHashMap<>();
+  private final Map<String, Household> householdByCommandTopic = new ConcurrentHashMap<>();
+  private final AtomicLong commandsReceived = new AtomicLong();
+  private MqttClient simulator;
+  private MqttClient plugClient;
+
+  @BeforeAll
+  static void startBroker() throws Exception {
+    broker = EmbeddedMqttBroker.start(Files.createTempDirectory("sbps-benchmark-broker"));
+  }
+
+  @AfterAll
+  static void stopBroker() throws Exception {
+    broker.close();
+  }
+
+  @DynamicPropertySource
+  static void mqttProperties(DynamicPropertyRegistry registry) {
+    registry.add("mqtt.host", () -> "127.0.0.1");
+    registry.add("mqtt.port", () -> broker.getPort());
+  }
+
+  @BeforeEach
+  void setUp() throws Exception {
+    when(apiServiceClient.getSystemStateByMqttPrefix(anyString()))
+        .thenAnswer(invocation -> Optional.ofNullable(states.get(invocation.getArgument(0))));
+    doAnswer(invocation -> simulateApiCall()).when(apiServiceClient).notifyApiOfDeviceUpdate(any());
+    doAnswer(invocation -> simulateApiCall()).when(apiServiceClient).notifyBalancerAction(any());
+
+    simulator = connect("bench-simulator");
+    plugClient = connect("bench-plugs");
+    plugClient.setCallback(new CommandListener(this::onCommand));
+    plugClient.subscribe(new String[] {"bench/+/+/rpc", "cmnd/+/POWER"}, new int[] {1, 1});
+  }
+
+  @AfterEach
+  void tearDown() throws Exception {
+    simulator.disconnect();
+    plugClient.disconnect();
+  }
+
+  @Test
+  void publishToCommandThroughput() throws Exception {
+    Result result = runScenario(HOUSEHOLDS);
+    result.print(virtualThreads);
+    assertThat(result.latencies()).isNotEmpty();
+  }
+
+  /** Doubles the household count until p99 breaks the SLA or the ingest path falls behind. */
+  @Test
+  void householdCapacity() throws Exception {
+    int sustained = 0;
+    for (int households = 10; households <= MAX_HOUSEHOLDS; households *= 2) {
+      Result result = runScenario(households);
+      result.print(virtualThreads);
+      boolean keptUp = result.handled() >= result.published() * 0.99;
+      if (!keptUp || result.percentileMillis(0.99) > SLA_MILLIS || result.latencies().length == 0) {
+        break;
+      }
+      sustained = households;
+    }
+    System.out.printf(
+        "%nSustained households (%s threads, p99 <= %d ms, API latency %d ms): %d%n",
+        virtualThreads ? "virtual" : "platform", SLA_MILLIS, API_LATENCY_MS, sustained);
+  }
+
+  private Result runScenario(int householdCount) throws Exception {
+    List<Household> households = createHouseholds(RUNS.getAndIncrement(), householdCount);
+    // addTopic returns once the broker has acknowledged the subscription
+    for (Household household : households) {
+      for (DeviceDto device : household.devices) {
+        shellyService.subscribeForDevice(device);
+      }
+      systemStateCache.refreshState(household.monitor.getMqttPrefix());
+    }
+
+    for (Household household : households) {
+      for (DeviceDto plug : household.plugs) {
+        publishOnline(plug);
+        publishPlugStatus(plug, PLUG_WATTS);
+      }
+    }
+    awaitPlugsReady(households);
+
+    ConcurrentLinkedQueue<Long> latencies = new ConcurrentLinkedQueue<>();
+    households.forEach(household -> household.latencies = latencies);
+    long commandsBefore = commandsReceived.get();
+    long handledBefore = handledMessages();
+    long published = 0;
+    long timeouts = 0;
+    long periodNanos = TimeUnit.SECONDS.toNanos(1) / Math.max(1, RATE);
+    long start = System.nanoTime();
+    long end = start + TimeUnit.SECONDS.toNanos(SECONDS);
+    int tick = 0;
+
+    for (long next = start; next < end; next += periodNanos, tick++) {
+      for (long wait = next - System.nanoTime(); wait > 0; wait = next - System.nanoTime()) {
+        TimeUnit.NANOSECONDS.sleep(wait);
+      }
+      for (Household household : households) {
+        for (DeviceDto plug : household.plugs) {
+          publishPlugStatus(plug, PLUG_WATTS + (tick % 10));
+          published++;
+        }
+        long probeStarted = household.probeStartedNanos;
+        if (probeStarted != 0 && System.nanoTime() - probeStarted > PROBE_TIMEOUT_NANOS) {
+          household.probeStartedNanos = 0;
+          timeouts++;
+        }
+        if (household.probeStartedNanos != 0) {
+          continue; // a queued normal reading would coalesce the probe away
+        }
+        boolean probe = tick % Math.max(1, RATE) == household.index % Math.max(1, RATE);
+        double power =
+            probe ? household.limit + 100 + tick * 0.1 : household.limit - 200 - tick % 10;
+        if (probe) {
+          household.probeStartedNanos = System.nanoTime();
+        }
+        publishMonitorPower(household.monitor, power);
+        published++;
+      }
+    }
+
+    long publishNanos = System.nanoTime() - start;
+    for (int i = 0; i < 200 && handledMessages() - handledBefore < published; i++) {
+      Thread.sleep(50);
+    }
+    long drainNanos = System.nanoTime() - start;
+
+    for (Household household : households) {
+      for (DeviceDto device : household.devices) {
+        shellyService.unsubscribeFromDevice(device.getMqttPrefix());
+      }
+    }
+
+    return new Result(
+        householdCount,
+        published,
+        handledMessages() - handledBefore,
+        publishNanos,
+        drainNanos,
+        timeouts,
+        commandsReceived.get() - commandsBefore,
+        latencies.stream().mapToLong(Long::longValue).sorted().toArray());
+  }
+
+  private Object simulateApiCall() throws InterruptedException {
+    if (API_LATENCY_MS > 0) {
+      Thread.sleep(API_LATENCY_MS);
+    }
+    return null;
+  }
+
+  // Processed plus coalesced: both count as handled by the ingest path
+  private long handledMessages() {
+    return ingestPipeline.getStats().getProcessedMessages()
+        + ingestPipeline.getStats().getDroppedMessages();
+  }
+
+  private void onCommand(String topic, String payload) {
+    commandsReceived.incrementAndGet();
+    boolean off = payload.contains("\"on\":false") || "OFF".equalsIgnoreCase(payload);
+    Household household = householdByCommandTopic.get(topic);
+    if (!off || household == null) {
+      return;
+    }
+    long probeStarted = household.probeStartedNanos;
+    if (probeStarted != 0) {
+      household.latencies.add(System.nanoTime() - probeStarted);
+      household.probeStartedNanos = 0; // further commands of the same probe are not timed
+    }
+  }
+
+  private List<Household> createHouseholds(int run, int count) {
+    List<Household> households = new ArrayList<>();
+    long id = run * 1_000_000L + 1;
+    for (int h = 0; h < count; h++) {
+      String name = "r" + run + "h" + h;
+      DeviceDto monitor =
+          device(
+              id++, "bench/" + name + "/monitor", DeviceType.POWER_MONITOR, DeviceProvider.SHELLY);
+      List<DeviceDto> plugs = new ArrayList<>();
+      for (int p = 0; p < PLUGS; p++) {
+        boolean tasmota = p % 2 == 1;
+        String prefix = tasmota ? "bench_" + name + "_plug" + p : "bench/" + name + "/plug" + p;
+        DeviceDto plug =
+            device(
+                id++,
+                prefix,
+                DeviceType.SWITCHABLE_APPLIANCE,
+                tasmota ? DeviceProvider.TASMOTA : DeviceProvider.SHELLY);
+        plug.setPriority(p + 1);
+        plug.setWattage(PLUG_WATTS);
+        plugs.add(plug);
+      }
+      int limit = PLUGS * PLUG_WATTS;
+      Household household = new Household(h, monitor, plugs, limit);
+      households.add(household);
+      for (DeviceDto plug : plugs) {
+        String commandTopic =
+            plug.getProvider() == DeviceProvider.TASMOTA
+                ? "cmnd/" + plug.getMqttPrefix() + "/POWER"
+                : plug.getMqttPrefix() + "/rpc";
+        householdByCommandTopic.put(commandTopic, household);
+      }
+      SystemSettingsDto settings = new SystemSettingsDto(limit, 100, 0, null, false);
+      states.put(
+          monitor.getMqttPrefix(),
+          new SystemStateDto(settings, new ArrayList<>(household.devices), true));
+    }
+    return households;
+  }
+
+  private void awaitPlugsReady(List<Household> households) throws InterruptedException {
+    for (int i = 0; i < 400; i++) {
+      boolean ready =
+          households.stream()
+              .flatMap(h -> h.plugs.stream())
+              .allMatch(
+                  plug -> {
+                    Optional<DeviceStateSnapshot> state = stateCache.get(plug.getId());
+                    return state.isPresent()
+                        && state.get().isOnline()
+                        && state.get().telemetry() != null;
+                  });
+      if (ready) {
+        return;
+      }
+      Thread.sleep(50);
+    }
+    throw new IllegalStateException("Simulated plugs did not report in time");
+  }
+
+  private void publishOnline(DeviceDto plug) throws Exception {
+    if (plug.getProvider() == DeviceProvider.TASMOTA) {
+      publish("tele/" + plug.getMqttPrefix() + "/LWT", "Online", 1);
+    } else {
+      publish(plug.getMqttPrefix() + "/online", "true", 1);
+    }
+  }
+
+  private void publishPlugStatus(DeviceDto plug, double watts) throws Exception {
+    if (plug.getProvider() == DeviceProvider.TASMOTA) {
+      publish(
+          "tele/" + plug.getMqttPrefix() + "/STATE",
+          "{\"POWER\":\"ON\",\"ENERGY\":{\"Power\":" + watts + ",\"Voltage\":230.0}}",
+          0);
+    } else {
+      publish(
+          plug.getMqttPrefix() + "/status/switch:0",
+          "{\"id\":0,\"output\":true,\"apower\":" + watts + ",\"voltage\":230.0}",
+          0);
+    }
+  }
+
+  private void publishMonitorPower(DeviceDto monitor, double watts) throws Exception {
+    publish(
+        monitor.getMqttPrefix() + "/status/switch:0",
+        "{\"id\":0,\"output\":true,\"apower\":" + watts + ",\"voltage\":230.0}",
+        1);
+  }
+
+  private void publish(String topic, String payload, int qos) throws Exception {
+    simulator.publish(topic, payload.getBytes(StandardCharsets.UTF_8), qos, false);
+  }
+
+  private MqttClient connect(String clientId) throws Exception {
+    MqttClient client = new MqttClient(broker.getUri(), clientId, new MemoryPersistence());
+    MqttConnectOptions options = new MqttConnectOptions();
+    options.setCleanSession(true);
+    options.setMaxInflight(10_000);
+    client.connect(options);
+    return client;
+  }
+
+  private static DeviceDto device(
+      long id, String prefix, DeviceType type, DeviceProvider provider) {
+    return new DeviceDto(id, prefix, prefix, type, provider, null, null, false, false, 0, 0, null);
+  }
+
+  private record Result(
+      int households,
+      long published,
+      long handled,
+      long publishNanos,
+      long drainNanos,
+      long timeouts,
+      long commands,
+      long[] latencies) {
+
+    private double percentileMillis(double quantile) {
+      if (latencies.length == 0) {
+        return 0;
+      }
+      int index = (int) Math.ceil(quantile * latencies.length) - 1;
+      return latencies[Math.max(0, Math.min(index, latencies.length - 1))] / 1e6;
+    }
+
+    private void print(boolean virtualThreads) {
+      System.out.printf(
+          "%nMQTT end-to-end benchmark (%s threads): %d households x (%d plugs + monitor),"
+              + " %d msg/s per device, %d s, API latency %d ms%n",
+          virtualThreads ? "virtual" : "platform",
+          households,
+          PLUGS,
+          RATE,
+          SECONDS,
+          API_LATENCY_MS);
+      System.out.printf(
+          "  telemetry: published %d (%.0f msg/s), handled %d (%.0f msg/s incl. drain)%n",
+          published,
+          published / (publishNanos / 1e9),
+          handled,
+          handled / (drainNanos / 1e9));
+      System.out.printf(
+          "  publish -> command: %d probes, %d timeouts, %d commands, p50 %.2f ms,"
+              + " p99 %.2f ms, max %.2f ms%n",
+          latencies.length,
+          timeouts,
+          commands,
+          percentileMillis(0.50),
+          percentileMillis(0.99),
+          latencies.length > 0 ? latencies[latencies.length - 1] / 1e6 : 0);
+    }
+  }
+
+  private static final class Household {
+    private final int index;
+    private final DeviceDto monitor;
+    private final List<DeviceDto> plugs;
+    private final List<DeviceDto> devices;
+    private final int limit;
+    private volatile long probeStartedNanos;
+    private volatile ConcurrentLinkedQueue<Long> latencies;
+
+    private Household(int index, DeviceDto monitor, List<DeviceDto> plugs, int limit) {
+      this.index = index;
+      this.monitor = monitor;
+      this.plugs = plugs;
+      this.limit = limit;
+      List<DeviceDto> all = new ArrayList<>(plugs);
+      all.add(0, monitor);
+      this.devices = List.copyOf(all);
+    }
+  }
+
+  private record CommandListener(BiConsumer<String, String> handler) implements MqttCallback {
+
+    @Override
+    public void messageArrived(String topic, MqttMessage message) {
+      handler.accept(topic, new String(message.getPayload(), StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public void connectionLost(Throwable cause) {}
+
+    @Override
+    public void deliveryComplete(IMqttDeliveryToken token) {}
+  }
+}
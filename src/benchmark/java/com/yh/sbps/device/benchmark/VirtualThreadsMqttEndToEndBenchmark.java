@@ -0,0 +1,9 @@
+package com.yh.sbps.device.benchmark;
+
+import org.junit.jupiter.api.DisplayName;
+import org.springframework.test.context.TestPropertySource;
+
+/** {@link MqttEndToEndBenchmark} with {@code spring.threads.virtual.enabled=true}. */
+@TestPropertySource(properties = "spring.threads.virtual.enabled=true")
+@DisplayName("MQTT end-to-end benchmark (virtual threads)")
+class VirtualThreadsMqttEndToEndBenchmark extends MqttEndToEndBenchmark {}
@@ -1,6 +1,8 @@
 package com.yh.sbps.device;
 
+import java.nio.charset.StandardCharsets;
 import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.eclipse.paho.mqttv5.client.MqttConnectionOptions;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -24,12 +26,15 @@ public class MqttConfig {
   @Value("${mqtt.password}")
   private String password;
 
+  @Value("${mqtt.protocol:ssl}")
+  private String protocol;
+
   @Bean
   public MqttPahoClientFactory mqttClientFactory() {
     DefaultMqttPahoClientFactory factory = new DefaultMqttPahoClientFactory();
 
     MqttConnectOptions options = new MqttConnectOptions();
-    options.setServerURIs(new String[] {"ssl://" + host + ":" + port});
+    options.setServerURIs(new String[] {serverUri()});
     options.setUserName(username);
     options.setPassword(password.toCharArray());
     options.setAutomaticReconnect(true);
@@ -39,8 +44,24 @@ public class MqttConfig {
     return factory;
   }
 
+  /** Connection settings for the MQTT v5 inbound adapters ({@code mqtt.version: 5}). */
+  @Bean
+  public MqttConnectionOptions mqttV5ConnectionOptions() {
+    MqttConnectionOptions options = new MqttConnectionOptions();
+    options.setServerURIs(new String[] {serverUri()});
+    options.setUserName(username);
+    options.setPassword(password.getBytes(StandardCharsets.UTF_8));
+    options.setAutomaticReconnect(true);
+    options.setCleanStart(true);
+    return options;
+  }
+
   @Bean
   public MessageChannel mqttInputChannel() {
     return new DirectChannel();
   }
+
+  private String serverUri() {
+    return protocol + "://" + host + ":" + port;
+  }
 }
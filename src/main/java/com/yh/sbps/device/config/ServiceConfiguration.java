@@ -1,6 +1,7 @@
 package com.yh.sbps.device.config;
 
 import com.yh.sbps.device.service.BalancingService;
+import com.yh.sbps.device.service.DeviceLivenessTracker;
 import com.yh.sbps.device.service.ShellyService;
 import com.yh.sbps.device.service.SystemStateCache;
 import jakarta.annotation.PostConstruct;
@@ -13,14 +14,17 @@ public class ServiceConfiguration {
   private final BalancingService balancingService;
   private final ShellyService shellyService;
   private final SystemStateCache systemStateCache;
+  private final DeviceLivenessTracker livenessTracker;
 
   public ServiceConfiguration(
       BalancingService balancingService,
       ShellyService shellyService,
-      SystemStateCache systemStateCache) {
+      SystemStateCache systemStateCache,
+      DeviceLivenessTracker livenessTracker) {
     this.balancingService = balancingService;
     this.shellyService = shellyService;
     this.systemStateCache = systemStateCache;
+    this.livenessTracker = livenessTracker;
   }
 
   @PostConstruct
@@ -34,5 +38,8 @@ public class ServiceConfiguration {
     // ShellyService <-> SystemStateCache
     shellyService.setSystemStateCache(systemStateCache);
     systemStateCache.setShellyService(shellyService);
+
+    // ShellyService <-> DeviceLivenessTracker
+    livenessTracker.setShellyService(shellyService);
   }
 }
@@ -1,39 +1,78 @@
 package com.yh.sbps.device.controller;
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.cbor.CBORGenerator;
 import com.yh.sbps.device.dto.BlackoutStatsDto;
 import com.yh.sbps.device.dto.DeviceDto;
 import com.yh.sbps.device.dto.DeviceStatusDto;
+import com.yh.sbps.device.dto.IngestStatsDto;
+import com.yh.sbps.device.dto.PersistenceStatsDto;
+import com.yh.sbps.device.dto.PowerBucketDto;
+import com.yh.sbps.device.dto.PowerSampleDto;
 import com.yh.sbps.device.entity.DeviceStatus.DeviceControlState;
+import com.yh.sbps.device.service.DeviceRealtimeStateCache;
 import com.yh.sbps.device.service.DeviceStatusService;
+import com.yh.sbps.device.service.DeviceStatusWriteBehind;
+import com.yh.sbps.device.service.MqttIngestPipeline;
 import com.yh.sbps.device.service.ShellyService;
 import com.yh.sbps.device.service.SystemStateCache;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.stream.Stream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.HttpMediaTypeNotAcceptableException;
+import org.springframework.web.accept.HeaderContentNegotiationStrategy;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.servlet.HandlerMapping;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 @RestController
 @RequestMapping("/api/device")
 public class DeviceController {
 
   private static final Logger logger = LoggerFactory.getLogger(DeviceController.class);
+  private static final HeaderContentNegotiationStrategy ACCEPT_STRATEGY =
+      new HeaderContentNegotiationStrategy();
 
   private final ShellyService shellyService;
   private final DeviceStatusService deviceStatusService;
   private final SystemStateCache systemStateCache;
+  private final MqttIngestPipeline mqttIngestPipeline;
+  private final DeviceRealtimeStateCache realtimeStateCache;
+  private final DeviceStatusWriteBehind deviceStatusWriteBehind;
+  private final ObjectMapper objectMapper;
+  private final ObjectMapper cborMapper;
 
   public DeviceController(
       ShellyService shellyService,
       DeviceStatusService deviceStatusService,
-      SystemStateCache systemStateCache) {
+      SystemStateCache systemStateCache,
+      MqttIngestPipeline mqttIngestPipeline,
+      DeviceRealtimeStateCache realtimeStateCache,
+      DeviceStatusWriteBehind deviceStatusWriteBehind,
+      ObjectMapper objectMapper) {
     this.shellyService = shellyService;
     this.deviceStatusService = deviceStatusService;
     this.systemStateCache = systemStateCache;
+    this.mqttIngestPipeline = mqttIngestPipeline;
+    this.realtimeStateCache = realtimeStateCache;
+    this.deviceStatusWriteBehind = deviceStatusWriteBehind;
+    this.objectMapper = objectMapper;
+    this.cborMapper = objectMapper.copyWith(new CBORFactory());
   }
 
   @PostMapping("/internal/subscribe")
@@ -158,20 +197,153 @@ public class DeviceController {
     return ResponseEntity.ok(event);
   }
 
-  @PostMapping("/internal/all-statuses")
-  public ResponseEntity<Map<Long, DeviceStatusDto>> getAllStatusesByIds(
-      @RequestBody List<Long> deviceIds) {
+  @GetMapping("/plug/{deviceId}/history")
+  public ResponseEntity<List<PowerSampleDto>> getHistory(
+      @PathVariable Long deviceId, @RequestParam(defaultValue = "10") int minutes) {
+    return ResponseEntity.ok(realtimeStateCache.getHistory(deviceId, minutesAgo(minutes)));
+  }
+
+  @GetMapping("/plug/{deviceId}/history/buckets")
+  public ResponseEntity<List<PowerBucketDto>> getHistoryBuckets(
+      @PathVariable Long deviceId,
+      @RequestParam(defaultValue = "10") int minutes,
+      @RequestParam(defaultValue = "60") int bucketSeconds) {
+    if (bucketSeconds <= 0) {
+      return ResponseEntity.badRequest().build();
+    }
+    return ResponseEntity.ok(
+        realtimeStateCache.getHistoryBuckets(
+            deviceId, minutesAgo(minutes), bucketSeconds * 1000L));
+  }
+
+  /**
+   * Statuses of the given devices, resolved up front as stored JSON strings and then written out.
+   * By {@code Accept}: a JSON object keyed by device id (default), the same object as CBOR, or
+   * NDJSON with one {@code {"deviceId", "online", "statusJson"}} line per device.
+   */
+  @PostMapping(
+      value = "/internal/all-statuses",
+      produces = {
+        MediaType.APPLICATION_JSON_VALUE,
+        MediaType.APPLICATION_NDJSON_VALUE,
+        MediaType.APPLICATION_CBOR_VALUE
+      })
+  public ResponseEntity<StreamingResponseBody> getAllStatusesByIds(
+      @RequestBody List<Long> deviceIds, NativeWebRequest request)
+      throws HttpMediaTypeNotAcceptableException {
+    MediaType format = selectFormat(request);
+    Map<Long, DeviceStatusDto> statuses;
     try {
-      Map<Long, DeviceStatusDto> statuses = deviceStatusService.getAllStatusesByIds(deviceIds);
-      return ResponseEntity.ok(statuses);
+      statuses = deviceStatusService.getAllStatusesByIds(deviceIds);
     } catch (Exception e) {
       logger.error("Error fetching all device statuses", e);
       return ResponseEntity.internalServerError().build();
     }
+    boolean lines = MediaType.APPLICATION_NDJSON.equals(format);
+    ObjectMapper mapper = MediaType.APPLICATION_CBOR.equals(format) ? cborMapper : objectMapper;
+    StreamingResponseBody body =
+        out -> {
+          try (JsonGenerator generator = createGenerator(mapper, out, lines)) {
+            if (!lines) {
+              generator.writeStartObject();
+            }
+            for (Map.Entry<Long, DeviceStatusDto> entry : statuses.entrySet()) {
+              writeStatus(
+                  generator, entry.getKey(), entry.getValue(), lines, objectMapper.getFactory());
+            }
+            if (!lines) {
+              generator.writeEndObject();
+            }
+          }
+        };
+    return ResponseEntity.ok().contentType(format).body(body);
   }
 
   @GetMapping("/internal/blackout-stats")
   public ResponseEntity<BlackoutStatsDto> getBlackoutStats(@RequestParam String mqttPrefix) {
     return ResponseEntity.ok(systemStateCache.getBlackoutStats(mqttPrefix));
   }
+
+  @GetMapping("/internal/ingest-stats")
+  public ResponseEntity<IngestStatsDto> getIngestStats() {
+    return ResponseEntity.ok(mqttIngestPipeline.getStats());
+  }
+
+  @GetMapping("/internal/persistence-stats")
+  public ResponseEntity<PersistenceStatsDto> getPersistenceStats() {
+    return ResponseEntity.ok(deviceStatusWriteBehind.getStats());
+  }
+
+  /**
+   * The first of the mapping's {@code produces} types, already narrowed to the acceptable ones,
+   * that matches the most preferred {@code Accept} entry.
+   */
+  @SuppressWarnings("unchecked")
+  private static MediaType selectFormat(NativeWebRequest request)
+      throws HttpMediaTypeNotAcceptableException {
+    Set<MediaType> producibleTypes =
+        (Set<MediaType>)
+            request.getAttribute(
+                HandlerMapping.PRODUCIBLE_MEDIA_TYPES_ATTRIBUTE, RequestAttributes.SCOPE_REQUEST);
+    for (MediaType accepted : ACCEPT_STRATEGY.resolveMediaTypes(request)) {
+      for (MediaType producible : producibleTypes) {
+        if (accepted.isCompatibleWith(producible)) {
+          return producible;
+        }
+      }
+    }
+    return MediaType.APPLICATION_JSON;
+  }
+
+  private static JsonGenerator createGenerator(ObjectMapper mapper, OutputStream out, boolean lines)
+      throws IOException {
+    JsonGenerator generator = mapper.getFactory().createGenerator(out);
+    // The container owns the response stream
+    generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+    if (lines) {
+      // Lines are terminated explicitly in writeStatus
+      generator.setRootValueSeparator(null);
+    }
+    return generator;
+  }
+
+  /**
+   * Writes the stored status JSON through as is; only a CBOR generator makes it parse the JSON, to
+   * transcode it token by token.
+   */
+  private static void writeStatus(
+      JsonGenerator generator,
+      Long deviceId,
+      DeviceStatusDto status,
+      boolean line,
+      JsonFactory jsonFactory)
+      throws IOException {
+    if (line) {
+      generator.writeStartObject();
+      generator.writeNumberField("deviceId", deviceId);
+    } else {
+      generator.writeFieldName(String.valueOf(deviceId));
+      generator.writeStartObject();
+    }
+    generator.writeBooleanField("online", status.isOnline());
+    generator.writeFieldName("statusJson");
+    if (status.getStatusJson() == null) {
+      generator.writeNull();
+    } else if (generator instanceof CBORGenerator) {
+      try (JsonParser parser = jsonFactory.createParser(status.getStatusJson())) {
+        parser.nextToken();
+        generator.copyCurrentStructure(parser);
+      }
+    } else {
+      generator.writeRawValue(status.getStatusJson());
+    }
+    generator.writeEndObject();
+    if (line) {
+      generator.writeRaw('\n');
+    }
+  }
+
+  private long minutesAgo(int minutes) {
+    return System.currentTimeMillis() - Math.max(0, minutes) * 60_000L;
+  }
 }
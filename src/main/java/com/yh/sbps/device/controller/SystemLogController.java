@@ -0,0 +1,87 @@
+package com.yh.sbps.device.controller;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.yh.sbps.device.service.SystemLogService;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.time.LocalDateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+@RestController
+@RequestMapping("/api/device/system-logs")
+public class SystemLogController {
+
+  private static final Logger logger = LoggerFactory.getLogger(SystemLogController.class);
+
+  private final SystemLogService systemLogService;
+  private final ObjectWriter writer;
+
+  public SystemLogController(SystemLogService systemLogService, ObjectMapper objectMapper) {
+    this.systemLogService = systemLogService;
+    // Rows are written one by one to the same response stream
+    this.writer = objectMapper.writer().without(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+  }
+
+  /**
+   * Streams the log history of a monitor as NDJSON, one entry per line, oldest first. To fetch
+   * the next page, pass the {@code timestamp} and {@code id} of the last line as {@code
+   * afterTimestamp} and {@code afterId}; a page shorter than {@code limit} is the last one.
+   */
+  @GetMapping
+  public ResponseEntity<StreamingResponseBody> getHistory(
+      @RequestParam String mqttPrefix,
+      @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME)
+          LocalDateTime from,
+      @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME)
+          LocalDateTime to,
+      @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME)
+          LocalDateTime afterTimestamp,
+      @RequestParam(required = false) Long afterId,
+      @RequestParam(defaultValue = "1000") int limit) {
+    LocalDateTime end = to != null ? to : LocalDateTime.now();
+    LocalDateTime start = from != null ? from : end.minusDays(1);
+    if (!start.isBefore(end)
+        || (afterId != null && afterTimestamp == null)
+        || limit <= 0
+        || limit > systemLogService.getMaxHistoryLimit()) {
+      return ResponseEntity.badRequest().build();
+    }
+
+    StreamingResponseBody body =
+        out -> {
+          OutputStream buffered = new BufferedOutputStream(out, 16 * 1024);
+          int rows =
+              systemLogService.streamHistory(
+                  mqttPrefix,
+                  start,
+                  end,
+                  afterTimestamp,
+                  afterId,
+                  limit,
+                  row -> {
+                    try {
+                      writer.writeValue(buffered, row);
+                      buffered.write('\n');
+                    } catch (IOException e) {
+                      throw new UncheckedIOException(e);
+                    }
+                  });
+          buffered.flush();
+          logger.debug("Streamed {} system log entries for {}", rows, mqttPrefix);
+        };
+    return ResponseEntity.ok().contentType(MediaType.APPLICATION_NDJSON).body(body);
+  }
+}
@@ -0,0 +1,110 @@
+package com.yh.sbps.device.dto;
+
+import com.yh.sbps.device.entity.DeviceStatus;
+import com.yh.sbps.device.entity.DeviceStatus.DeviceControlState;
+import java.time.LocalDateTime;
+
+/**
+ * Immutable realtime state of one device. Every update produces a new instance, so a reader always
+ * sees online flag, telemetry and control state from the same point in time. {@code telemetry} is
+ * the merged typed reading used for balancing, {@code lastStatusJson} the status as last persisted
+ * and published.
+ */
+public record DeviceStateSnapshot(
+    Long deviceId,
+    String mqttPrefix,
+    Boolean online,
+    DeviceTelemetry telemetry,
+    String lastStatusJson,
+    String lastEventJson,
+    DeviceControlState controlState,
+    LocalDateTime balancerDisabledAt) {
+
+  public static DeviceStateSnapshot empty(Long deviceId) {
+    return new DeviceStateSnapshot(
+        deviceId, null, null, null, null, null, DeviceControlState.ENABLED, null);
+  }
+
+  /** Builds the snapshot of a persisted status; {@code telemetry} is its parsed status JSON. */
+  public static DeviceStateSnapshot of(DeviceStatus status, DeviceTelemetry telemetry) {
+    return new DeviceStateSnapshot(
+        status.getDeviceId(),
+        status.getMqttPrefix(),
+        status.getLastOnline(),
+        telemetry,
+        status.getLastStatusJson(),
+        status.getLastEventJson(),
+        status.getControlState() != null ? status.getControlState() : DeviceControlState.ENABLED,
+        status.getBalancerDisabledAt());
+  }
+
+  public boolean isOnline() {
+    return Boolean.TRUE.equals(online);
+  }
+
+  /** Online and reporting its relay as switched on. */
+  public boolean isOnlineAndOn() {
+    return isOnline() && telemetry != null && telemetry.hasOutput() && telemetry.output();
+  }
+
+  public DeviceStateSnapshot withOnline(boolean online, String mqttPrefix) {
+    return new DeviceStateSnapshot(
+        deviceId,
+        mqttPrefix,
+        online,
+        telemetry,
+        lastStatusJson,
+        lastEventJson,
+        controlState,
+        balancerDisabledAt);
+  }
+
+  public DeviceStateSnapshot withTelemetry(DeviceTelemetry telemetry, String mqttPrefix) {
+    return new DeviceStateSnapshot(
+        deviceId,
+        mqttPrefix,
+        online,
+        telemetry,
+        lastStatusJson,
+        lastEventJson,
+        controlState,
+        balancerDisabledAt);
+  }
+
+  public DeviceStateSnapshot withStatusJson(String lastStatusJson, String mqttPrefix) {
+    return new DeviceStateSnapshot(
+        deviceId,
+        mqttPrefix,
+        online,
+        telemetry,
+        lastStatusJson,
+        lastEventJson,
+        controlState,
+        balancerDisabledAt);
+  }
+
+  public DeviceStateSnapshot withEvent(String lastEventJson, String mqttPrefix) {
+    return new DeviceStateSnapshot(
+        deviceId,
+        mqttPrefix,
+        online,
+        telemetry,
+        lastStatusJson,
+        lastEventJson,
+        controlState,
+        balancerDisabledAt);
+  }
+
+  public DeviceStateSnapshot withControlState(
+      DeviceControlState controlState, LocalDateTime balancerDisabledAt) {
+    return new DeviceStateSnapshot(
+        deviceId,
+        mqttPrefix,
+        online,
+        telemetry,
+        lastStatusJson,
+        lastEventJson,
+        controlState,
+        balancerDisabledAt);
+  }
+}
@@ -1,6 +1,6 @@
 package com.yh.sbps.device.dto;
 
-import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.annotation.JsonRawValue;
 import com.yh.sbps.device.entity.DeviceStatus;
 import lombok.AllArgsConstructor;
 import lombok.Getter;
@@ -13,13 +13,15 @@ import lombok.Setter;
 @AllArgsConstructor
 public class DeviceStatusDto {
   private boolean online;
-  private JsonNode statusJson;
 
-  public static DeviceStatusDto from(DeviceStatus entity, JsonNode statusJson) {
+  // The status JSON as stored, written out without being parsed again
+  @JsonRawValue private String statusJson;
+
+  public static DeviceStatusDto from(DeviceStatus entity) {
     if (entity == null) {
       return new DeviceStatusDto(false, null);
     }
     return new DeviceStatusDto(
-        entity.getLastOnline() != null && entity.getLastOnline(), statusJson);
+        entity.getLastOnline() != null && entity.getLastOnline(), entity.getLastStatusJson());
   }
 }
@@ -0,0 +1,88 @@
+package com.yh.sbps.device.dto;
+
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Normalized (Shelly-like) telemetry sample of a plug. Values are primitives; {@code fields} is a
+ * bit mask telling which of them were present in the source payload.
+ */
+public record DeviceTelemetry(
+    double apower,
+    double voltage,
+    double current,
+    double energyTotal,
+    boolean output,
+    int fields,
+    long timestamp) {
+
+  public static final int APOWER = 1;
+  public static final int VOLTAGE = 1 << 1;
+  public static final int CURRENT = 1 << 2;
+  public static final int ENERGY_TOTAL = 1 << 3;
+  public static final int OUTPUT = 1 << 4;
+
+  public boolean hasApower() {
+    return (fields & APOWER) != 0;
+  }
+
+  public boolean hasVoltage() {
+    return (fields & VOLTAGE) != 0;
+  }
+
+  public boolean hasCurrent() {
+    return (fields & CURRENT) != 0;
+  }
+
+  public boolean hasEnergyTotal() {
+    return (fields & ENERGY_TOTAL) != 0;
+  }
+
+  public boolean hasOutput() {
+    return (fields & OUTPUT) != 0;
+  }
+
+  public boolean isEmpty() {
+    return fields == 0;
+  }
+
+  /**
+   * Returns this sample with the fields it lacks taken from {@code previous}, so a partial update
+   * (e.g. a Tasmota RESULT carrying only the relay state) keeps the last known power and energy.
+   */
+  public DeviceTelemetry mergedOver(DeviceTelemetry previous) {
+    int missing = previous == null ? 0 : previous.fields & ~fields;
+    if (missing == 0) {
+      return this;
+    }
+    return new DeviceTelemetry(
+        (missing & APOWER) != 0 ? previous.apower : apower,
+        (missing & VOLTAGE) != 0 ? previous.voltage : voltage,
+        (missing & CURRENT) != 0 ? previous.current : current,
+        (missing & ENERGY_TOTAL) != 0 ? previous.energyTotal : energyTotal,
+        (missing & OUTPUT) != 0 ? previous.output : output,
+        fields | missing,
+        timestamp);
+  }
+
+  /** Renders the sample in the Shelly status shape, e.g. {"output":true,"apower":12.5}. */
+  public ObjectNode toJson() {
+    ObjectNode node = JsonNodeFactory.instance.objectNode();
+    if (hasOutput()) {
+      node.put("output", output);
+    }
+    if (hasApower()) {
+      node.put("apower", apower);
+    }
+    if (hasVoltage()) {
+      node.put("voltage", voltage);
+    }
+    if (hasCurrent()) {
+      node.put("current", current);
+    }
+    if (hasEnergyTotal()) {
+      node.putObject("aenergy").put("total", energyTotal);
+    }
+    return node;
+  }
+}
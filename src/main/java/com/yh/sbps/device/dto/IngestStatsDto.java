@@ -0,0 +1,17 @@
+package com.yh.sbps.device.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class IngestStatsDto {
+  private int partitions;
+  private int queuedMessages;
+  private long processedMessages;
+  private long droppedMessages;
+}
@@ -0,0 +1,25 @@
+package com.yh.sbps.device.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class PersistenceStatsDto {
+  private int pendingDevices;
+  private long enqueuedWrites;
+  private long mergedWrites;
+  private long droppedWrites;
+  private long flushes;
+  private long failedFlushes;
+  private long rejectedRows;
+  private long flushedRows;
+  private long lastBatchSize;
+  private long maxBatchSize;
+  private long lastFlushMicros;
+  private long maxFlushMicros;
+}
@@ -0,0 +1,18 @@
+package com.yh.sbps.device.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class PowerBucketDto {
+  private long start;
+  private int samples;
+  private double minPower;
+  private double maxPower;
+  private double avgPower;
+}
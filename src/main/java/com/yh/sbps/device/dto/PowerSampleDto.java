@@ -0,0 +1,16 @@
+package com.yh.sbps.device.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class PowerSampleDto {
+  private long timestamp;
+  private double apower;
+  private Double voltage;
+}
@@ -0,0 +1,22 @@
+package com.yh.sbps.device.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class ReplayReportDto {
+  private int messages;
+  private int handledMessages;
+  private boolean complete; // false if messages were still pending after the drain timeout
+  private double speed; // 0 - as fast as possible
+  private long durationMs;
+  private double messagesPerSecond;
+  private long p50LatencyMicros;
+  private long p99LatencyMicros;
+  private long maxLatencyMicros;
+}
@@ -0,0 +1,22 @@
+package com.yh.sbps.device.dto;
+
+import com.fasterxml.jackson.annotation.JsonRawValue;
+import java.time.LocalDateTime;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class SystemLogDto {
+  private Long id;
+  private LocalDateTime timestamp;
+  private String mqttPrefix;
+  private Boolean gridOnline;
+  private Double totalLoadWatts;
+  @JsonRawValue private String deviceStatusesJson;
+  private String decisionEvent;
+}
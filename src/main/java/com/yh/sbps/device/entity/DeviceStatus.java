@@ -5,6 +5,8 @@ import java.time.LocalDateTime;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
+import org.hibernate.annotations.JdbcTypeCode;
+import org.hibernate.type.SqlTypes;
 
 @Entity
 @Table(name = "device_status")
@@ -20,14 +22,14 @@ public class DeviceStatus {
   @Column(name = "mqtt_prefix")
   private String mqttPrefix;
 
-  @Lob
+  @JdbcTypeCode(SqlTypes.JSON)
   @Column(name = "last_status_json")
   private String lastStatusJson;
 
   @Column(name = "last_online")
   private Boolean lastOnline;
 
-  @Lob
+  @JdbcTypeCode(SqlTypes.JSON)
   @Column(name = "last_event_json")
   private String lastEventJson;
 
@@ -6,12 +6,22 @@ import lombok.Data;
 import lombok.NoArgsConstructor;
 
 @Entity
-@Table(name = "system_logs")
+@Table(
+    name = "system_logs",
+    indexes =
+        @Index(
+            name = "idx_system_logs_prefix_timestamp",
+            columnList = "mqtt_prefix, timestamp, id"))
 @Data
 @NoArgsConstructor
 public class SystemLog {
+  // A pooled sequence lets Hibernate batch inserts, which IDENTITY prevents
   @Id
-  @GeneratedValue(strategy = GenerationType.IDENTITY)
+  @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "system_logs_seq")
+  @SequenceGenerator(
+      name = "system_logs_seq",
+      sequenceName = "system_logs_seq",
+      allocationSize = 50)
   private Long id;
 
   @Column(nullable = false)
@@ -28,12 +28,20 @@ public class ApiServiceClient {
   private final RestTemplate restTemplate;
   private final String baseUrl;
   private final AuthService authService;
+  private final boolean notificationsEnabled;
 
-  public ApiServiceClient(@Value("${api.base-url}") String baseUrl, AuthService authService) {
+  public ApiServiceClient(
+      @Value("${api.base-url}") String baseUrl,
+      AuthService authService,
+      @Value("${api.notifications.enabled:true}") boolean notificationsEnabled) {
     this.restTemplate = new RestTemplate();
     this.baseUrl = baseUrl;
     this.authService = authService;
-    logger.info("ApiServiceClient initialized with base URL: {}", baseUrl);
+    this.notificationsEnabled = notificationsEnabled;
+    logger.info(
+        "ApiServiceClient initialized with base URL: {}, notifications enabled: {}",
+        baseUrl,
+        notificationsEnabled);
   }
 
   /**
@@ -184,6 +192,10 @@ public class ApiServiceClient {
   }
 
   public void notifyApiOfDeviceUpdate(DeviceStatusUpdateDto statusUpdate) {
+    if (!notificationsEnabled) {
+      logger.debug("Notifications disabled, not sending update of {}", statusUpdate.getDeviceId());
+      return;
+    }
     try {
       logger.debug(
           "Notifying sbps-api of status update for device: {}", statusUpdate.getDeviceId());
@@ -201,6 +213,10 @@ public class ApiServiceClient {
   }
 
   public void notifyBalancerAction(BalancerActionDto actionDto) {
+    if (!notificationsEnabled) {
+      logger.debug("Notifications disabled, not sending balancer action {}", actionDto.getAction());
+      return;
+    }
     try {
       logger.debug(
           "Notifying sbps-api of balancer action {} for device {}",
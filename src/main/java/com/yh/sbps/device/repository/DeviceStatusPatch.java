@@ -0,0 +1,17 @@
+package com.yh.sbps.device.repository;
+
+import com.yh.sbps.device.entity.DeviceStatus.DeviceControlState;
+import java.time.LocalDateTime;
+
+/**
+ * Columns of one {@code device_status} row to upsert. Null fields are left untouched, except
+ * {@code balancerDisabledAt}, which is written together with a non-null {@code controlState}.
+ */
+public record DeviceStatusPatch(
+    Long deviceId,
+    String mqttPrefix,
+    String lastStatusJson,
+    Boolean lastOnline,
+    String lastEventJson,
+    DeviceControlState controlState,
+    LocalDateTime balancerDisabledAt) {}
@@ -6,7 +6,8 @@ import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.stereotype.Repository;
 
 @Repository
-public interface DeviceStatusRepository extends JpaRepository<DeviceStatus, Long> {
+public interface DeviceStatusRepository
+    extends JpaRepository<DeviceStatus, Long>, DeviceStatusUpsertRepository {
 
   Optional<DeviceStatus> findByDeviceId(Long deviceId);
 }
@@ -0,0 +1,12 @@
+package com.yh.sbps.device.repository;
+
+import java.util.Collection;
+
+/** Upserts that write only the columns being changed, without loading the entity first. */
+public interface DeviceStatusUpsertRepository {
+
+  void upsert(DeviceStatusPatch patch);
+
+  /** Upserts all patches, one JDBC batch per distinct set of touched columns. */
+  void upsertAll(Collection<DeviceStatusPatch> patches);
+}
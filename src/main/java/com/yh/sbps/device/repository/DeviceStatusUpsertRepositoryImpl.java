@@ -0,0 +1,198 @@
+package com.yh.sbps.device.repository;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+/**
+ * Single-statement upserts of {@code device_status}: {@code INSERT ... ON CONFLICT DO UPDATE} on
+ * PostgreSQL and a standard {@code MERGE} elsewhere (H2 in tests). Updating the online flag no
+ * longer selects the row and rewrites both JSON columns, and writers touching different columns
+ * cannot overwrite each other with a stale copy of the entity. JSON text is bound as a string and
+ * converted to the column type ({@code jsonb} on PostgreSQL) by the statement.
+ */
+public class DeviceStatusUpsertRepositoryImpl implements DeviceStatusUpsertRepository {
+
+  private final JdbcTemplate jdbcTemplate;
+  private volatile Boolean postgres;
+
+  public DeviceStatusUpsertRepositoryImpl(JdbcTemplate jdbcTemplate) {
+    this.jdbcTemplate = jdbcTemplate;
+  }
+
+  @Override
+  public void upsert(DeviceStatusPatch patch) {
+    upsertAll(List.of(patch));
+  }
+
+  @Override
+  public void upsertAll(Collection<DeviceStatusPatch> patches) {
+    if (patches.isEmpty()) {
+      return;
+    }
+    Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+    Map<Set<Column>, List<DeviceStatusPatch>> byColumns =
+        patches.stream()
+            .collect(
+                Collectors.groupingBy(
+                    DeviceStatusUpsertRepositoryImpl::columnsOf,
+                    LinkedHashMap::new,
+                    Collectors.toList()));
+    byColumns.forEach(
+        (columns, group) -> {
+          List<Column> ordered = new ArrayList<>(columns);
+          String sql = isPostgres() ? onConflictSql(ordered) : mergeSql(ordered);
+          jdbcTemplate.batchUpdate(
+              sql, group, group.size(), (ps, patch) -> bind(ps, patch, ordered, now));
+        });
+  }
+
+  private static Set<Column> columnsOf(DeviceStatusPatch patch) {
+    Set<Column> columns = EnumSet.noneOf(Column.class);
+    for (Column column : Column.values()) {
+      if (column.isSet(patch)) {
+        columns.add(column);
+      }
+    }
+    return columns;
+  }
+
+  private static String onConflictSql(List<Column> columns) {
+    StringBuilder names = new StringBuilder("device_id");
+    StringBuilder values = new StringBuilder("?");
+    StringBuilder updates = new StringBuilder();
+    for (Column column : columns) {
+      names.append(", ").append(column.columnName);
+      values.append(column.json ? ", CAST(? AS JSONB)" : ", ?");
+      updates.append(column.columnName).append(" = EXCLUDED.");
+      updates.append(column.columnName).append(", ");
+    }
+    names.append(", updated_at");
+    values.append(", ?");
+    updates.append("updated_at = EXCLUDED.updated_at");
+    if (!columns.contains(Column.CONTROL_STATE)) {
+      names.append(", control_state");
+      values.append(", 'ENABLED'");
+    }
+    return "INSERT INTO device_status ("
+        + names
+        + ") VALUES ("
+        + values
+        + ") ON CONFLICT (device_id) DO UPDATE SET "
+        + updates;
+  }
+
+  private static String mergeSql(List<Column> columns) {
+    StringBuilder source = new StringBuilder("CAST(? AS BIGINT) AS device_id");
+    StringBuilder names = new StringBuilder("device_id");
+    StringBuilder values = new StringBuilder("s.device_id");
+    StringBuilder updates = new StringBuilder();
+    for (Column column : columns) {
+      source.append(
+          column.json ? ", ? FORMAT JSON AS " : ", CAST(? AS " + column.sqlType + ") AS ");
+      source.append(column.columnName);
+      names.append(", ").append(column.columnName);
+      values.append(", s.").append(column.columnName);
+      updates.append(column.columnName).append(" = s.").append(column.columnName).append(", ");
+    }
+    source.append(", CAST(? AS TIMESTAMP) AS updated_at");
+    names.append(", updated_at");
+    values.append(", s.updated_at");
+    updates.append("updated_at = s.updated_at");
+    if (!columns.contains(Column.CONTROL_STATE)) {
+      names.append(", control_state");
+      values.append(", 'ENABLED'");
+    }
+    return "MERGE INTO device_status t USING (SELECT "
+        + source
+        + ") s ON t.device_id = s.device_id WHEN MATCHED THEN UPDATE SET "
+        + updates
+        + " WHEN NOT MATCHED THEN INSERT ("
+        + names
+        + ") VALUES ("
+        + values
+        + ")";
+  }
+
+  private static void bind(
+      PreparedStatement ps, DeviceStatusPatch patch, List<Column> columns, Timestamp now)
+      throws SQLException {
+    int index = 1;
+    ps.setLong(index++, patch.deviceId());
+    for (Column column : columns) {
+      Object value = column.value.apply(patch);
+      if (value == null) {
+        ps.setNull(index++, column.jdbcType);
+      } else {
+        ps.setObject(index++, value, column.jdbcType);
+      }
+    }
+    ps.setTimestamp(index, now);
+  }
+
+  private boolean isPostgres() {
+    Boolean result = postgres;
+    if (result == null) {
+      String product =
+          jdbcTemplate.execute(
+              (ConnectionCallback<String>) con -> con.getMetaData().getDatabaseProductName());
+      result = product != null && product.toLowerCase().contains("postgres");
+      postgres = result;
+    }
+    return result;
+  }
+
+  private enum Column {
+    MQTT_PREFIX("mqtt_prefix", "VARCHAR(255)", Types.VARCHAR, DeviceStatusPatch::mqttPrefix),
+    LAST_STATUS_JSON("last_status_json", "JSON", Types.VARCHAR, DeviceStatusPatch::lastStatusJson),
+    LAST_ONLINE("last_online", "BOOLEAN", Types.BOOLEAN, DeviceStatusPatch::lastOnline),
+    LAST_EVENT_JSON("last_event_json", "JSON", Types.VARCHAR, DeviceStatusPatch::lastEventJson),
+    CONTROL_STATE(
+        "control_state",
+        "VARCHAR(50)",
+        Types.VARCHAR,
+        patch -> patch.controlState() != null ? patch.controlState().name() : null),
+    BALANCER_DISABLED_AT(
+        "balancer_disabled_at",
+        "TIMESTAMP",
+        Types.TIMESTAMP,
+        patch ->
+            patch.balancerDisabledAt() != null
+                ? Timestamp.valueOf(patch.balancerDisabledAt())
+                : null);
+
+    private final String columnName;
+    private final String sqlType;
+    private final int jdbcType;
+    private final boolean json;
+    private final Function<DeviceStatusPatch, Object> value;
+
+    Column(String name, String sqlType, int jdbcType, Function<DeviceStatusPatch, Object> value) {
+      this.columnName = name;
+      this.sqlType = sqlType;
+      this.jdbcType = jdbcType;
+      this.json = "JSON".equals(sqlType);
+      this.value = value;
+    }
+
+    private boolean isSet(DeviceStatusPatch patch) {
+      // balancer_disabled_at is null when re-enabled, so it follows control_state
+      return this == BALANCER_DISABLED_AT
+          ? patch.controlState() != null
+          : value.apply(patch) != null;
+    }
+  }
+}
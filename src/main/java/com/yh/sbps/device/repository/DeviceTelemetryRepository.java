@@ -0,0 +1,206 @@
+package com.yh.sbps.device.repository;
+
+import com.yh.sbps.device.dto.DeviceTelemetry;
+import java.io.IOException;
+import java.io.StringReader;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.postgresql.PGConnection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+/**
+ * Append-only access to {@code device_telemetry}. On PostgreSQL the table is range-partitioned by
+ * UTC day without a default partition: rows are loaded with {@code COPY}, the partition for every
+ * day in a batch is created before loading it, and retention drops whole partitions. Elsewhere
+ * (H2) it is a plain table written with batched inserts and trimmed with a DELETE.
+ */
+@Repository
+public class DeviceTelemetryRepository {
+
+  private static final Logger logger = LoggerFactory.getLogger(DeviceTelemetryRepository.class);
+  private static final String TABLE = "device_telemetry";
+  private static final DateTimeFormatter PARTITION_SUFFIX = DateTimeFormatter.BASIC_ISO_DATE;
+  private static final String COPY_SQL =
+      "COPY device_telemetry (device_id, ts, apower, voltage, current_amps, output)"
+          + " FROM STDIN WITH (FORMAT csv)";
+  private static final String INSERT_SQL =
+      "INSERT INTO device_telemetry (device_id, ts, apower, voltage, current_amps, output)"
+          + " VALUES (?, ?, ?, ?, ?, ?)";
+
+  private final JdbcTemplate jdbcTemplate;
+  private final Set<LocalDate> knownPartitions = ConcurrentHashMap.newKeySet();
+  private volatile Boolean postgres;
+
+  public DeviceTelemetryRepository(JdbcTemplate jdbcTemplate) {
+    this.jdbcTemplate = jdbcTemplate;
+  }
+
+  public void insertBatch(List<DeviceTelemetrySample> samples) {
+    if (samples.isEmpty()) {
+      return;
+    }
+    if (isPostgres()) {
+      samples.stream()
+          .map(sample -> day(sample.telemetry().timestamp()))
+          .distinct()
+          .filter(day -> !knownPartitions.contains(day))
+          .forEach(day -> ensurePartitions(day, 1));
+      copy(samples);
+      return;
+    }
+    jdbcTemplate.batchUpdate(
+        INSERT_SQL,
+        samples,
+        samples.size(),
+        (ps, sample) -> {
+          DeviceTelemetry t = sample.telemetry();
+          ps.setLong(1, sample.deviceId());
+          ps.setTimestamp(2, Timestamp.from(Instant.ofEpochMilli(t.timestamp())));
+          setDouble(ps, 3, t.hasApower(), t.apower());
+          setDouble(ps, 4, t.hasVoltage(), t.voltage());
+          setDouble(ps, 5, t.hasCurrent(), t.current());
+          if (t.hasOutput()) {
+            ps.setBoolean(6, t.output());
+          } else {
+            ps.setNull(6, Types.BOOLEAN);
+          }
+        });
+  }
+
+  /** Creates the daily partitions from {@code firstDay} for {@code days} days if missing. */
+  public void ensurePartitions(LocalDate firstDay, int days) {
+    if (!isPostgres()) {
+      return;
+    }
+    for (int i = 0; i < days; i++) {
+      LocalDate day = firstDay.plusDays(i);
+      jdbcTemplate.execute(
+          "CREATE TABLE IF NOT EXISTS "
+              + partitionName(day)
+              + " PARTITION OF "
+              + TABLE
+              + " FOR VALUES FROM ('"
+              + day
+              + " 00:00:00+00') TO ('"
+              + day.plusDays(1)
+              + " 00:00:00+00')");
+      knownPartitions.add(day);
+    }
+  }
+
+  /**
+   * Removes telemetry older than {@code firstKeptDay}: drops the daily partitions before it on
+   * PostgreSQL, deletes the rows elsewhere.
+   *
+   * @return the number of partitions dropped, or rows deleted
+   */
+  public int deleteBefore(LocalDate firstKeptDay) {
+    if (!isPostgres()) {
+      return jdbcTemplate.update(
+          "DELETE FROM device_telemetry WHERE ts < ?",
+          Timestamp.from(firstKeptDay.atStartOfDay(ZoneOffset.UTC).toInstant()));
+    }
+    List<String> partitions =
+        jdbcTemplate.queryForList(
+            "SELECT c.relname FROM pg_inherits i"
+                + " JOIN pg_class c ON c.oid = i.inhrelid"
+                + " JOIN pg_class p ON p.oid = i.inhparent"
+                + " WHERE p.relname = ?",
+            String.class,
+            TABLE);
+    knownPartitions.removeIf(day -> day.isBefore(firstKeptDay));
+    String cutoff = partitionName(firstKeptDay);
+    int dropped = 0;
+    for (String partition : partitions) {
+      // Daily partitions sort by name
+      if (partition.matches(TABLE + "_\\d{8}") && partition.compareTo(cutoff) < 0) {
+        jdbcTemplate.execute("DROP TABLE IF EXISTS " + partition);
+        logger.info("Dropped telemetry partition {}", partition);
+        dropped++;
+      }
+    }
+    return dropped;
+  }
+
+  private void copy(List<DeviceTelemetrySample> samples) {
+    StringBuilder csv = new StringBuilder(samples.size() * 64);
+    for (DeviceTelemetrySample sample : samples) {
+      DeviceTelemetry t = sample.telemetry();
+      csv.append(sample.deviceId())
+          .append(',')
+          .append(Instant.ofEpochMilli(t.timestamp()))
+          .append(',');
+      if (t.hasApower()) {
+        csv.append(t.apower());
+      }
+      csv.append(',');
+      if (t.hasVoltage()) {
+        csv.append(t.voltage());
+      }
+      csv.append(',');
+      if (t.hasCurrent()) {
+        csv.append(t.current());
+      }
+      csv.append(',');
+      if (t.hasOutput()) {
+        csv.append(t.output());
+      }
+      csv.append('\n');
+    }
+    jdbcTemplate.execute(
+        (ConnectionCallback<Long>)
+            con -> {
+              try {
+                return con.unwrap(PGConnection.class)
+                    .getCopyAPI()
+                    .copyIn(COPY_SQL, new StringReader(csv.toString()));
+              } catch (IOException e) {
+                throw new DataAccessResourceFailureException(
+                    "COPY into device_telemetry failed", e);
+              }
+            });
+  }
+
+  private static void setDouble(PreparedStatement ps, int index, boolean present, double value)
+      throws SQLException {
+    if (present) {
+      ps.setDouble(index, value);
+    } else {
+      ps.setNull(index, Types.DOUBLE);
+    }
+  }
+
+  private static LocalDate day(long epochMillis) {
+    return Instant.ofEpochMilli(epochMillis).atOffset(ZoneOffset.UTC).toLocalDate();
+  }
+
+  private static String partitionName(LocalDate day) {
+    return TABLE + "_" + day.format(PARTITION_SUFFIX);
+  }
+
+  private boolean isPostgres() {
+    Boolean result = postgres;
+    if (result == null) {
+      String product =
+          jdbcTemplate.execute(
+              (ConnectionCallback<String>) con -> con.getMetaData().getDatabaseProductName());
+      result = product != null && product.toLowerCase().contains("postgres");
+      postgres = result;
+    }
+    return result;
+  }
+}
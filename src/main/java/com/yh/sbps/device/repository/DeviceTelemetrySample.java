@@ -0,0 +1,6 @@
+package com.yh.sbps.device.repository;
+
+import com.yh.sbps.device.dto.DeviceTelemetry;
+
+/** One row of {@code device_telemetry}: a merged telemetry state of a device. */
+public record DeviceTelemetrySample(long deviceId, DeviceTelemetry telemetry) {}
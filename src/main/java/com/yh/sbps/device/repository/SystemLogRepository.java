@@ -1,8 +1,38 @@
 package com.yh.sbps.device.repository;
 
+import com.yh.sbps.device.dto.SystemLogDto;
 import com.yh.sbps.device.entity.SystemLog;
+import jakarta.persistence.QueryHint;
+import java.time.LocalDateTime;
+import java.util.List;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 @Repository
-public interface SystemLogRepository extends JpaRepository<SystemLog, Long> {}
+public interface SystemLogRepository extends JpaRepository<SystemLog, Long> {
+
+  /**
+   * Log entries of a monitor in {@code [from, to)} that come after the keyset cursor {@code
+   * (afterTimestamp, afterId)} in {@code (timestamp, id)} order, as unmanaged DTOs.
+   */
+  @QueryHints(@QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true"))
+  @Query(
+      "SELECT new com.yh.sbps.device.dto.SystemLogDto(l.id, l.timestamp, l.mqttPrefix,"
+          + " l.gridOnline, l.totalLoadWatts, l.deviceStatusesJson, l.decisionEvent)"
+          + " FROM SystemLog l"
+          + " WHERE l.mqttPrefix = :mqttPrefix AND l.timestamp < :to"
+          + " AND (l.timestamp > :afterTimestamp"
+          + " OR (l.timestamp = :afterTimestamp AND l.id > :afterId))"
+          + " ORDER BY l.timestamp, l.id")
+  List<SystemLogDto> findHistory(
+      @Param("mqttPrefix") String mqttPrefix,
+      @Param("afterTimestamp") LocalDateTime afterTimestamp,
+      @Param("afterId") long afterId,
+      @Param("to") LocalDateTime to,
+      Limit limit);
+}
@@ -0,0 +1,107 @@
+package com.yh.sbps.device.repository;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.Optional;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+/**
+ * Set-based SQL behind the {@code system_logs} rollups. Each window is rebuilt by deleting its
+ * buckets and re-aggregating them with one {@code INSERT ... SELECT}, so re-running a window is
+ * harmless. The SQL runs unchanged on PostgreSQL and H2.
+ */
+@Repository
+public class SystemLogRollupRepository {
+
+  private static final String ROLL_UP_MINUTES =
+      "INSERT INTO system_log_rollup_minute (mqtt_prefix, bucket_start, samples, avg_load_watts,"
+          + " max_load_watts, grid_online_ratio, switch_actions)"
+          + " SELECT mqtt_prefix, DATE_TRUNC('minute', timestamp), COUNT(*),"
+          + " AVG(total_load_watts), MAX(total_load_watts),"
+          + " AVG(CASE WHEN grid_online THEN 1.0 ELSE 0.0 END),"
+          + " SUM(CASE WHEN decision_event IS NOT NULL THEN 1 ELSE 0 END)"
+          + " FROM system_logs"
+          + " WHERE timestamp >= ? AND timestamp < ? AND mqtt_prefix IS NOT NULL"
+          + " GROUP BY mqtt_prefix, DATE_TRUNC('minute', timestamp)";
+
+  // Averages are weighted by the number of raw rows behind each minute
+  private static final String ROLL_UP_HOURS =
+      "INSERT INTO system_log_rollup_hour (mqtt_prefix, bucket_start, samples, avg_load_watts,"
+          + " max_load_watts, grid_online_ratio, switch_actions)"
+          + " SELECT mqtt_prefix, DATE_TRUNC('hour', bucket_start), SUM(samples),"
+          + " SUM(avg_load_watts * samples) / SUM(samples), MAX(max_load_watts),"
+          + " SUM(grid_online_ratio * samples) / SUM(samples), SUM(switch_actions)"
+          + " FROM system_log_rollup_minute"
+          + " WHERE bucket_start >= ? AND bucket_start < ?"
+          + " GROUP BY mqtt_prefix, DATE_TRUNC('hour', bucket_start)";
+
+  private final JdbcTemplate jdbcTemplate;
+
+  public SystemLogRollupRepository(JdbcTemplate jdbcTemplate) {
+    this.jdbcTemplate = jdbcTemplate;
+  }
+
+  public Optional<LocalDateTime> findOldestLogTime() {
+    return queryTime("SELECT MIN(timestamp) FROM system_logs");
+  }
+
+  public Optional<LocalDateTime> findOldestLogTimeFrom(LocalDateTime from) {
+    return Optional.ofNullable(
+        jdbcTemplate.queryForObject(
+            "SELECT MIN(timestamp) FROM system_logs WHERE timestamp >= ?",
+            LocalDateTime.class,
+            Timestamp.valueOf(from)));
+  }
+
+  public Optional<LocalDateTime> findLatestMinuteBucket() {
+    return queryTime("SELECT MAX(bucket_start) FROM system_log_rollup_minute");
+  }
+
+  public Optional<LocalDateTime> findOldestMinuteBucket() {
+    return queryTime("SELECT MIN(bucket_start) FROM system_log_rollup_minute");
+  }
+
+  public Optional<LocalDateTime> findLatestHourBucket() {
+    return queryTime("SELECT MAX(bucket_start) FROM system_log_rollup_hour");
+  }
+
+  /** Rebuilds the minute buckets in {@code [from, to)}; returns the number of buckets written. */
+  public int rollUpMinutes(LocalDateTime from, LocalDateTime to) {
+    jdbcTemplate.update(
+        "DELETE FROM system_log_rollup_minute WHERE bucket_start >= ? AND bucket_start < ?",
+        Timestamp.valueOf(from),
+        Timestamp.valueOf(to));
+    return jdbcTemplate.update(ROLL_UP_MINUTES, Timestamp.valueOf(from), Timestamp.valueOf(to));
+  }
+
+  /** Rebuilds the hour buckets in {@code [from, to)} from the minute buckets. */
+  public int rollUpHours(LocalDateTime from, LocalDateTime to) {
+    jdbcTemplate.update(
+        "DELETE FROM system_log_rollup_hour WHERE bucket_start >= ? AND bucket_start < ?",
+        Timestamp.valueOf(from),
+        Timestamp.valueOf(to));
+    return jdbcTemplate.update(ROLL_UP_HOURS, Timestamp.valueOf(from), Timestamp.valueOf(to));
+  }
+
+  /**
+   * Deletes at most {@code limit} of the oldest raw rows before {@code cutoff}. Walking the
+   * primary key keeps each statement short, so it holds few row locks on the hot table.
+   */
+  public int deleteLogsBefore(LocalDateTime cutoff, int limit) {
+    return jdbcTemplate.update(
+        "DELETE FROM system_logs WHERE id IN"
+            + " (SELECT id FROM system_logs WHERE timestamp < ? ORDER BY id LIMIT ?)",
+        Timestamp.valueOf(cutoff),
+        limit);
+  }
+
+  public int deleteMinuteRollupsBefore(LocalDateTime cutoff) {
+    return jdbcTemplate.update(
+        "DELETE FROM system_log_rollup_minute WHERE bucket_start < ?", Timestamp.valueOf(cutoff));
+  }
+
+  private Optional<LocalDateTime> queryTime(String sql) {
+    return Optional.ofNullable(jdbcTemplate.queryForObject(sql, LocalDateTime.class));
+  }
+}
@@ -1,9 +1,7 @@
 package com.yh.sbps.device.service;
 
 import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.yh.sbps.device.dto.*;
-import com.yh.sbps.device.entity.DeviceStatus;
 import com.yh.sbps.device.entity.DeviceStatus.DeviceControlState;
 import com.yh.sbps.device.integration.ApiServiceClient;
 import java.time.LocalDateTime;
@@ -46,14 +44,18 @@ public class BalancingService {
   }
 
   public void balancePower(String mqttPrefix, JsonNode powerMonitorStatus) {
-    try {
-      // Step 1: Get current power
-      Double currentTotalPower = extractPowerConsumption(powerMonitorStatus);
-      if (currentTotalPower == null) {
-        logger.error("Failed to extract power. Aborting balancing.");
-        return;
-      }
+    // Step 1: Get current power
+    Double currentTotalPower = extractPowerConsumption(powerMonitorStatus);
+    if (currentTotalPower == null) {
+      logger.error("Failed to extract power. Aborting balancing.");
+      return;
+    }
+    balancePower(mqttPrefix, currentTotalPower.doubleValue());
+  }
 
+  /** Same as {@link #balancePower(String, JsonNode)} for an already extracted power reading. */
+  public void balancePower(String mqttPrefix, double currentTotalPower) {
+    try {
       // Step 2: Get system state
       Optional<SystemStateDto> systemStateOpt = systemStateCache.getState(mqttPrefix);
       if (systemStateOpt.isEmpty()) {
@@ -131,24 +133,28 @@ public class BalancingService {
     }
   }
 
+  /** Copy of the running overload cooldowns, keyed by monitor prefix. */
+  public Map<String, LocalDateTime> getOverloadCooldowns() {
+    return Map.copyOf(lastOverloadTimeByMqttPrefix);
+  }
+
+  /** Restores cooldowns saved by {@link #getOverloadCooldowns()}; running ones are kept. */
+  public void restoreOverloadCooldowns(Map<String, LocalDateTime> cooldowns) {
+    cooldowns.forEach(lastOverloadTimeByMqttPrefix::putIfAbsent);
+  }
+
   public void clearOverloadCooldown(String mqttPrefix) {
     lastOverloadTimeByMqttPrefix.remove(mqttPrefix);
     logger.info("Cleared overload cooldown timer for prefix: {}", mqttPrefix);
   }
 
   private double getActualPower(Long deviceId) {
-    try {
-      Optional<DeviceStatus> statusOpt = stateCache.get(deviceId);
-      if (statusOpt.isEmpty() || statusOpt.get().getLastStatusJson() == null) return 0.0;
-      JsonNode statusNode = new ObjectMapper().readTree(statusOpt.get().getLastStatusJson());
-
-      if (statusNode != null && statusNode.has("apower")) {
-        return statusNode.get("apower").asDouble(0.0);
-      }
-    } catch (Exception e) {
-      logger.error("Error getting actual power from cache for device {}", deviceId, e);
-    }
-    return 0.0;
+    return stateCache
+        .get(deviceId)
+        .map(DeviceStateSnapshot::telemetry)
+        .filter(DeviceTelemetry::hasApower)
+        .map(DeviceTelemetry::apower)
+        .orElse(0.0);
   }
 
   private double handlePowerSaveShed(double currentTotalPower, List<DeviceDto> allDevices) {
@@ -475,7 +481,7 @@ public class BalancingService {
     }
 
     LocalDateTime disabledAt =
-        stateCache.get(device.getId()).map(DeviceStatus::getBalancerDisabledAt).orElse(null);
+        stateCache.get(device.getId()).map(DeviceStateSnapshot::balancerDisabledAt).orElse(null);
 
     if (disabledAt == null) {
       return false; // Not disabled by balancer
@@ -506,26 +512,14 @@ public class BalancingService {
   }
 
   private boolean isDeviceOnlineAndOn(DeviceDto device) {
-    try {
-      Optional<DeviceStatus> statusOpt = stateCache.get(device.getId());
-      if (statusOpt.isEmpty()) return false;
-      DeviceStatus status = statusOpt.get();
-      if (status.getLastOnline() == null || !status.getLastOnline()) return false;
-      if (status.getLastStatusJson() == null) return false;
-
-      JsonNode statusNode = new ObjectMapper().readTree(status.getLastStatusJson());
-      return statusNode != null && statusNode.has("output") && statusNode.get("output").asBoolean();
-    } catch (Exception e) {
-      logger.error("Error checking device status from cache for: {}", device.getName(), e);
-      return false;
-    }
+    return stateCache.get(device.getId()).map(DeviceStateSnapshot::isOnlineAndOn).orElse(false);
   }
 
   private boolean isDeviceDisabledByBalancer(Long deviceId) {
     try {
       return stateCache
           .get(deviceId)
-          .map(DeviceStatus::getControlState)
+          .map(DeviceStateSnapshot::controlState)
           .map(DeviceControlState.DISABLED_BY_BALANCER::equals)
           .orElse(false);
     } catch (Exception e) {
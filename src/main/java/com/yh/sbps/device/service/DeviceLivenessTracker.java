@@ -0,0 +1,241 @@
+package com.yh.sbps.device.service;
+
+import com.yh.sbps.device.dto.DeviceDto;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import lombok.Setter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Marks devices offline when they stop reporting. Plugs that lose power or network without a clean
+ * LWT would otherwise stay "online and on" with their last apower forever.
+ *
+ * <p>Every inbound message only stamps the device's last-seen time. Deadlines live in a hashed
+ * timer wheel driven by a single thread: each tick visits one bucket, and an entry whose device
+ * was seen since it was scheduled is simply moved to its new deadline. A device therefore costs at
+ * most one reschedule per timeout, no matter how often it reports, and no tick ever scans all
+ * devices.
+ *
+ * <p>The timeout has to be a multiple of the slowest regular report interval, not equal to it: a
+ * Tasmota plug with a steady load only reports every TelePeriod (300 s by default), and a report
+ * that lands a little late must not flap the plug offline and back. The default of 750 s is 2.5
+ * TelePeriods; lower it only together with the devices' TelePeriod.
+ *
+ * <p>Silence only means something if every message of the device arrives here, so only devices
+ * this replica owns (see {@link MqttSubscriptionManager#owns}) are tracked.
+ */
+@Component
+public class DeviceLivenessTracker {
+
+  private static final Logger logger = LoggerFactory.getLogger(DeviceLivenessTracker.class);
+  private static final int WHEEL_SIZE = 512; // power of two
+  private static final int MASK = WHEEL_SIZE - 1;
+
+  private final MqttSubscriptionManager subscriptionManager;
+  private final long timeoutMs;
+  private final long tickMs;
+  // key - mqttPrefix of device
+  private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+  // Entries to (re)insert into the wheel, handed over to the wheel thread
+  private final Queue<Entry> pending = new ConcurrentLinkedQueue<>();
+  private final Entry[] wheel = new Entry[WHEEL_SIZE]; // owned by the wheel thread
+  private final long startMillis = nowMillis();
+  private long tick;
+  private volatile boolean running;
+  private Thread wheelThread;
+  @Setter private ShellyService shellyService; // circular dependency
+
+  public DeviceLivenessTracker(
+      MqttSubscriptionManager subscriptionManager,
+      @Value("${device.liveness.timeout-ms:750000}") long timeoutMs,
+      @Value("${device.liveness.tick-ms:1000}") long tickMs) {
+    this.subscriptionManager = subscriptionManager;
+    this.timeoutMs = timeoutMs;
+    this.tickMs = Math.max(1, tickMs);
+  }
+
+  @PostConstruct
+  public void start() {
+    if (timeoutMs <= 0 || running) {
+      return;
+    }
+    running = true;
+    wheelThread = new Thread(this::runWheel, "device-liveness");
+    wheelThread.setDaemon(true);
+    wheelThread.start();
+    logger.info("Device liveness tracking started. Timeout: {} ms", timeoutMs);
+  }
+
+  @PreDestroy
+  public void stop() {
+    running = false;
+    if (wheelThread != null) {
+      wheelThread.interrupt();
+    }
+  }
+
+  /** Records a message from the device; a device that had gone quiet is reported online again. */
+  public void touch(DeviceDto device) {
+    if (!tracks(device)) {
+      return;
+    }
+    Entry entry = entries.computeIfAbsent(device.getMqttPrefix(), prefix -> newEntry(device));
+    entry.device = device;
+    entry.lastSeen = nowMillis();
+    if (entry.active.compareAndSet(false, true)) {
+      pending.add(entry);
+      ShellyService service = shellyService;
+      if (service != null) {
+        logger.info("Device {} is reporting again. Marking online.", device.getMqttPrefix());
+        service.handleOnlineStatusInternal(device, true);
+      }
+    }
+  }
+
+  /** The device announced its online state itself (retained status or LWT). */
+  public void reportedOnline(DeviceDto device, boolean online) {
+    if (!tracks(device)) {
+      return;
+    }
+    Entry entry = entries.computeIfAbsent(device.getMqttPrefix(), prefix -> newEntry(device));
+    if (online) {
+      entry.lastSeen = nowMillis();
+      if (entry.active.compareAndSet(false, true)) {
+        pending.add(entry);
+      }
+    } else {
+      entry.active.set(false);
+    }
+  }
+
+  public void forget(String mqttPrefix) {
+    Entry entry = entries.remove(mqttPrefix);
+    if (entry != null) {
+      entry.active.set(false);
+    }
+  }
+
+  private boolean tracks(DeviceDto device) {
+    return timeoutMs > 0 && device.getMqttPrefix() != null && subscriptionManager.owns(device);
+  }
+
+  private Entry newEntry(DeviceDto device) {
+    Entry entry = new Entry(device);
+    entry.lastSeen = nowMillis();
+    entry.active.set(true);
+    pending.add(entry);
+    return entry;
+  }
+
+  private void runWheel() {
+    while (running) {
+      try {
+        long deadline = startMillis + (tick + 1) * tickMs;
+        long sleep = deadline - nowMillis();
+        if (sleep > 0) {
+          Thread.sleep(sleep);
+        }
+        // Catch up on ticks missed while the thread was not scheduled
+        while (running && startMillis + (tick + 1) * tickMs <= nowMillis()) {
+          tick++;
+          advance(nowMillis());
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      } catch (Exception e) {
+        logger.error("Device liveness tick failed", e);
+      }
+    }
+  }
+
+  private void advance(long now) {
+    for (Entry entry; (entry = pending.poll()) != null; ) {
+      if (!entry.inWheel && entry.active.get()) {
+        schedule(entry, entry.lastSeen + timeoutMs, now);
+      }
+    }
+
+    int index = (int) (tick & MASK);
+    Entry entry = wheel[index];
+    wheel[index] = null;
+    while (entry != null) {
+      Entry next = entry.next;
+      entry.next = null;
+      if (!entry.active.get()) {
+        entry.inWheel = false; // offline or forgotten, touch() puts it back
+      } else if (entry.rounds > 0) {
+        entry.rounds--;
+        entry.next = wheel[index];
+        wheel[index] = entry;
+      } else {
+        long due = entry.lastSeen + timeoutMs;
+        if (due > now) {
+          entry.inWheel = false;
+          schedule(entry, due, now);
+        } else {
+          entry.inWheel = false;
+          expire(entry);
+        }
+      }
+      entry = next;
+    }
+  }
+
+  private void schedule(Entry entry, long due, long now) {
+    long ticksAhead = Math.max(1, (due - now + tickMs - 1) / tickMs);
+    entry.rounds = (ticksAhead - 1) / WHEEL_SIZE;
+    int index = (int) ((tick + ticksAhead) & MASK);
+    entry.next = wheel[index];
+    wheel[index] = entry;
+    entry.inWheel = true;
+  }
+
+  private void expire(Entry entry) {
+    if (!entry.active.compareAndSet(true, false)) {
+      return;
+    }
+    if (nowMillis() - entry.lastSeen < timeoutMs) {
+      // A message arrived while we were deciding
+      entry.active.set(true);
+      pending.add(entry);
+      return;
+    }
+    DeviceDto device = entry.device;
+    logger.warn(
+        "No message from {} for {} s. Marking offline.",
+        device.getMqttPrefix(),
+        TimeUnit.MILLISECONDS.toSeconds(nowMillis() - entry.lastSeen));
+    ShellyService service = shellyService;
+    if (service != null) {
+      service.handleOnlineStatusInternal(device, false);
+    }
+  }
+
+  private static long nowMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+  }
+
+  private static final class Entry {
+    private volatile DeviceDto device;
+    private volatile long lastSeen;
+    private final AtomicBoolean active = new AtomicBoolean();
+    // Wheel state, only touched by the wheel thread
+    private boolean inWheel;
+    private long rounds;
+    private Entry next;
+
+    private Entry(DeviceDto device) {
+      this.device = device;
+    }
+  }
+}
@@ -1,6 +1,9 @@
 package com.yh.sbps.device.service;
 
-import com.fasterxml.jackson.databind.JsonNode;
+import com.yh.sbps.device.dto.DeviceStateSnapshot;
+import com.yh.sbps.device.dto.DeviceTelemetry;
+import com.yh.sbps.device.dto.PowerBucketDto;
+import com.yh.sbps.device.dto.PowerSampleDto;
 import com.yh.sbps.device.entity.DeviceStatus;
 import com.yh.sbps.device.entity.DeviceStatus.DeviceControlState;
 import java.time.LocalDateTime;
@@ -8,73 +11,141 @@ import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.UnaryOperator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+/**
+ * In-memory view of every device's last known state, one immutable {@link DeviceStateSnapshot} per
+ * device. Writers replace the snapshot atomically via {@link Map#compute}; readers take it without
+ * locking and always see a consistent combination of online flag, telemetry and control state.
+ * Telemetry is kept pre-parsed for balancing; the status JSON last persisted and published is kept
+ * as received, so reads return the same document as the database.
+ *
+ * <p>Alongside the snapshot, the last {@code device.history.samples} power readings of every device
+ * are kept in a {@link PowerSampleRingBuffer}.
+ */
 @Service
 public class DeviceRealtimeStateCache {
 
   private static final Logger logger = LoggerFactory.getLogger(DeviceRealtimeStateCache.class);
 
   // key deviceId
-  private final Map<Long, DeviceStatus> cache = new ConcurrentHashMap<>();
+  private final Map<Long, DeviceStateSnapshot> cache = new ConcurrentHashMap<>();
+  // key deviceId
+  private final Map<Long, PowerSampleRingBuffer> history = new ConcurrentHashMap<>();
+  private final TelemetryExtractor telemetryExtractor;
+  private final int historySamples;
+
+  public DeviceRealtimeStateCache(
+      TelemetryExtractor telemetryExtractor,
+      @Value("${device.history.samples:600}") int historySamples) {
+    this.telemetryExtractor = telemetryExtractor;
+    this.historySamples = historySamples;
+  }
 
+  /** Loads persisted statuses. Devices the cache already knows, e.g. from a snapshot, are kept. */
   public void initCache(List<DeviceStatus> allStatuses) {
-    allStatuses.forEach(status -> cache.put(status.getDeviceId(), status));
+    allStatuses.forEach(
+        status ->
+            cache.putIfAbsent(
+                status.getDeviceId(),
+                DeviceStateSnapshot.of(status, parseStoredStatus(status))));
   }
 
-  public Optional<DeviceStatus> get(Long deviceId) {
+  public Optional<DeviceStateSnapshot> get(Long deviceId) {
     return Optional.ofNullable(cache.get(deviceId));
   }
 
-  private DeviceStatus getOrCreate(Long deviceId) {
-    return cache.computeIfAbsent(
+  public List<DeviceStateSnapshot> getAll() {
+    return List.copyOf(cache.values());
+  }
+
+  /** Loads snapshots saved from {@link #getAll()}; devices already in the cache are kept. */
+  public void restore(List<DeviceStateSnapshot> snapshots) {
+    snapshots.forEach(snapshot -> cache.putIfAbsent(snapshot.deviceId(), snapshot));
+  }
+
+  public Optional<DeviceTelemetry> getTelemetry(Long deviceId) {
+    return get(deviceId).map(DeviceStateSnapshot::telemetry);
+  }
+
+  private DeviceStateSnapshot update(Long deviceId, UnaryOperator<DeviceStateSnapshot> change) {
+    return cache.compute(
         deviceId,
-        id -> {
-          DeviceStatus status = new DeviceStatus();
-          status.setDeviceId(id);
-          return status;
-        });
+        (id, current) -> change.apply(current != null ? current : DeviceStateSnapshot.empty(id)));
   }
 
-  public DeviceStatus updateOnline(Long deviceId, boolean online, String mqttPrefix) {
-    DeviceStatus status = getOrCreate(deviceId);
-    status.setLastOnline(online);
-    status.setMqttPrefix(mqttPrefix);
-    return status;
+  public DeviceStateSnapshot updateOnline(Long deviceId, boolean online, String mqttPrefix) {
+    return update(deviceId, snapshot -> snapshot.withOnline(online, mqttPrefix));
   }
 
-  public DeviceStatus updateStatus(Long deviceId, JsonNode statusJson, String mqttPrefix) {
-    DeviceStatus status = getOrCreate(deviceId);
-    try {
-      status.setLastStatusJson(statusJson.toString());
-    } catch (Exception e) {
-      logger.error("Failed to update status for device id: {}", deviceId, e);
+  /**
+   * Stores a status sample, keeping previously known values for fields the sample does not carry.
+   *
+   * @return the merged telemetry now held for the device
+   */
+  public DeviceTelemetry updateStatus(Long deviceId, DeviceTelemetry sample, String mqttPrefix) {
+    DeviceTelemetry merged =
+        update(
+                deviceId,
+                snapshot ->
+                    snapshot.withTelemetry(sample.mergedOver(snapshot.telemetry()), mqttPrefix))
+            .telemetry();
+    if (sample.hasApower() && historySamples > 0) {
+      history
+          .computeIfAbsent(deviceId, id -> new PowerSampleRingBuffer(historySamples))
+          .append(
+              merged.timestamp(),
+              merged.apower(),
+              // A voltage carried over from an older sample was not measured at this one
+              sample.hasVoltage() ? sample.voltage() : Double.NaN);
     }
-    status.setMqttPrefix(mqttPrefix);
-    return status;
+    return merged;
   }
 
-  public DeviceStatus updateEvent(Long deviceId, JsonNode eventJson, String mqttPrefix) {
-    DeviceStatus status = getOrCreate(deviceId);
-    try {
-      status.setLastEventJson(eventJson.toString());
-    } catch (Exception e) {
-      logger.error("Failed to update event for device id: {}", deviceId, e);
-    }
-    status.setMqttPrefix(mqttPrefix);
-    return status;
+  /** Power samples of the device taken at or after {@code sinceMillis}, oldest first. */
+  public List<PowerSampleDto> getHistory(Long deviceId, long sinceMillis) {
+    PowerSampleRingBuffer buffer = history.get(deviceId);
+    return buffer != null ? buffer.samplesSince(sinceMillis) : List.of();
   }
 
-  public DeviceStatus updateControlState(Long deviceId, DeviceControlState state) {
-    DeviceStatus status = getOrCreate(deviceId);
-    status.setControlState(state);
-    if (state == DeviceControlState.DISABLED_BY_BALANCER) {
-      status.setBalancerDisabledAt(LocalDateTime.now());
-    } else {
-      status.setBalancerDisabledAt(null);
+  public List<PowerBucketDto> getHistoryBuckets(
+      Long deviceId, long sinceMillis, long bucketMillis) {
+    PowerSampleRingBuffer buffer = history.get(deviceId);
+    return buffer != null ? buffer.bucketsSince(sinceMillis, bucketMillis) : List.of();
+  }
+
+  public void forgetHistory(Long deviceId) {
+    history.remove(deviceId);
+  }
+
+  public DeviceStateSnapshot updateStatusJson(Long deviceId, String statusJson, String mqttPrefix) {
+    return update(deviceId, snapshot -> snapshot.withStatusJson(statusJson, mqttPrefix));
+  }
+
+  public DeviceStateSnapshot updateEvent(Long deviceId, String eventJson, String mqttPrefix) {
+    return update(deviceId, snapshot -> snapshot.withEvent(eventJson, mqttPrefix));
+  }
+
+  public DeviceStateSnapshot updateControlState(Long deviceId, DeviceControlState state) {
+    LocalDateTime disabledAt =
+        state == DeviceControlState.DISABLED_BY_BALANCER ? LocalDateTime.now() : null;
+    return update(deviceId, snapshot -> snapshot.withControlState(state, disabledAt));
+  }
+
+  private DeviceTelemetry parseStoredStatus(DeviceStatus status) {
+    if (status.getLastStatusJson() == null) {
+      return null;
+    }
+    try {
+      DeviceTelemetry stored = telemetryExtractor.extractShellyStatus(status.getLastStatusJson());
+      return stored == null || stored.isEmpty() ? null : stored;
+    } catch (Exception e) {
+      logger.warn("Ignoring unreadable stored status for device id: {}", status.getDeviceId());
+      return null;
     }
-    return status;
   }
 }
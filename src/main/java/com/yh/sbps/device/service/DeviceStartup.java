@@ -6,6 +6,8 @@ import com.yh.sbps.device.entity.DeviceStatus;
 import com.yh.sbps.device.integration.ApiServiceClient;
 import com.yh.sbps.device.repository.DeviceStatusRepository;
 import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.context.SmartLifecycle;
@@ -21,6 +23,8 @@ public class DeviceStartup implements SmartLifecycle {
   private final SystemStateCache systemStateCache;
   private final DeviceStatusRepository deviceStatusRepository;
   private final DeviceRealtimeStateCache stateCache;
+  private final StateSnapshotService stateSnapshotService;
+  private final MqttSubscriptionManager subscriptionManager;
   private volatile boolean isRunning = false;
 
   public DeviceStartup(
@@ -28,18 +32,50 @@ public class DeviceStartup implements SmartLifecycle {
       ShellyService shellyService,
       SystemStateCache systemStateCache,
       DeviceStatusRepository deviceStatusRepository,
-      DeviceRealtimeStateCache stateCache) {
+      DeviceRealtimeStateCache stateCache,
+      StateSnapshotService stateSnapshotService,
+      MqttSubscriptionManager subscriptionManager) {
     this.apiServiceClient = apiServiceClient;
     this.shellyService = shellyService;
     this.systemStateCache = systemStateCache;
     this.deviceStatusRepository = deviceStatusRepository;
     this.stateCache = stateCache;
+    this.stateSnapshotService = stateSnapshotService;
+    this.subscriptionManager = subscriptionManager;
   }
 
   @Override
   public void start() {
     logger.info("Starting device initialization and MQTT subscription process (SmartLifecycle)...");
     this.isRunning = true;
+
+    List<DeviceDto> snapshotDevices = stateSnapshotService.restore();
+    if (snapshotDevices.isEmpty()) {
+      initialize(List.of());
+      return;
+    }
+
+    // Warm start: subscribe the snapshot's devices right away, so balancing resumes with their
+    // first fresh reports; catch up with API and DB in the background
+    logger.info("Warm start from state snapshot. Subscribing {} devices.", snapshotDevices.size());
+    for (DeviceDto device : snapshotDevices) {
+      try {
+        shellyService.subscribeForDevice(device);
+      } catch (Exception e) {
+        logger.error("Failed to subscribe to device from snapshot: {}", device.getMqttPrefix(), e);
+      }
+    }
+    Thread reconcile = new Thread(() -> initialize(snapshotDevices), "device-startup-reconcile");
+    reconcile.setDaemon(true);
+    reconcile.start();
+  }
+
+  /**
+   * Loads devices from the API service and statuses from the database, subscribes the devices this
+   * replica owns and refreshes their monitors. After a warm start, {@code snapshotDevices} that the
+   * API no longer knows are unsubscribed.
+   */
+  private void initialize(List<DeviceDto> snapshotDevices) {
     try {
       List<DeviceDto> devices = apiServiceClient.getAllDevices();
 
@@ -48,20 +84,40 @@ public class DeviceStartup implements SmartLifecycle {
         return;
       }
 
+      Set<String> knownPrefixes =
+          devices.stream().map(DeviceDto::getMqttPrefix).collect(Collectors.toSet());
+      for (DeviceDto stale : snapshotDevices) {
+        if (stale.getMqttPrefix() != null && !knownPrefixes.contains(stale.getMqttPrefix())) {
+          logger.info("Device {} from snapshot no longer exists. Removing.", stale.getMqttPrefix());
+          shellyService.unsubscribeFromDevice(stale.getMqttPrefix());
+          systemStateCache.removeDevice(stale.getMqttPrefix());
+        }
+      }
+
+      List<DeviceDto> owned = devices.stream().filter(subscriptionManager::owns).toList();
+
       logger.info("Initializing realtime device status cache...");
       try {
-        List<DeviceStatus> allStatuses = deviceStatusRepository.findAll();
-        stateCache.initCache(allStatuses);
-        logger.info("Successfully initialized cache with {} device statuses.", allStatuses.size());
+        // Statuses of other replicas' devices are read from the database, where their owner writes
+        Set<Long> ownedIds = owned.stream().map(DeviceDto::getId).collect(Collectors.toSet());
+        List<DeviceStatus> ownedStatuses =
+            deviceStatusRepository.findAll().stream()
+                .filter(status -> ownedIds.contains(status.getDeviceId()))
+                .toList();
+        stateCache.initCache(ownedStatuses);
+        logger.info(
+            "Successfully initialized cache with {} device statuses.", ownedStatuses.size());
       } catch (Exception e) {
         logger.error("Failed to initialize realtime status cache!", e);
       }
 
       logger.info(
-          "Found {} devices in API Service. Starting MQTT subscriptions...", devices.size());
+          "Found {} devices in API Service, {} on this replica. Starting MQTT subscriptions...",
+          devices.size(),
+          owned.size());
 
       int successCount = 0;
-      for (DeviceDto device : devices) {
+      for (DeviceDto device : owned) {
         try {
           shellyService.subscribeForDevice(device);
           successCount++;
@@ -86,7 +142,7 @@ public class DeviceStartup implements SmartLifecycle {
       logger.info(
           "Device initialization completed. Successfully subscribed to {}/{} devices.",
           successCount,
-          devices.size());
+          owned.size());
 
     } catch (Exception e) {
       logger.error("Failed to initialize device subscriptions", e);
@@ -96,6 +152,8 @@ public class DeviceStartup implements SmartLifecycle {
   @Override
   public void stop() {
     this.isRunning = false;
+    // Unsubscribing clears the overload cooldowns, so the final snapshot goes first
+    stateSnapshotService.writeSnapshot();
     logger.info("Stopping device subscriptions (SmartLifecycle)...");
     this.shellyService.unsubscribeForAllDevices();
   }
@@ -2,151 +2,161 @@ package com.yh.sbps.device.service;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.yh.sbps.device.dto.DeviceStateSnapshot;
 import com.yh.sbps.device.dto.DeviceStatusDto;
 import com.yh.sbps.device.entity.DeviceStatus;
 import com.yh.sbps.device.entity.DeviceStatus.DeviceControlState;
 import com.yh.sbps.device.repository.DeviceStatusRepository;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
-import java.util.stream.Collectors;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 
+/**
+ * Reads and writes the persisted status of devices. Status, online and event reads are answered
+ * from {@link DeviceRealtimeStateCache}, which receives every update before it is queued for the
+ * database; the database is only queried for values the cache does not know. These reads run
+ * without a transaction of their own, so a cache hit never takes a pooled connection.
+ *
+ * <p>Updates only queue the change in {@link DeviceStatusWriteBehind} and run on the MQTT ingest
+ * workers, so the class has no transaction of its own: a transaction per message would check a
+ * connection out of the pool for nothing.
+ */
 @Service
-@Transactional
 public class DeviceStatusService {
 
   private static final Logger logger = LoggerFactory.getLogger(DeviceStatusService.class);
 
   private final DeviceStatusRepository deviceStatusRepository;
   private final ObjectMapper objectMapper;
+  private final DeviceStatusWriteBehind writeBehind;
+  private final DeviceRealtimeStateCache realtimeStateCache;
 
   public DeviceStatusService(
-      DeviceStatusRepository deviceStatusRepository, ObjectMapper objectMapper) {
+      DeviceStatusRepository deviceStatusRepository,
+      ObjectMapper objectMapper,
+      DeviceStatusWriteBehind writeBehind,
+      DeviceRealtimeStateCache realtimeStateCache) {
     this.deviceStatusRepository = deviceStatusRepository;
     this.objectMapper = objectMapper;
+    this.writeBehind = writeBehind;
+    this.realtimeStateCache = realtimeStateCache;
   }
 
+  /**
+   * Statuses of the distinct non-null ids, in request order. Devices known to the cache are
+   * answered from it; all others are loaded with a single {@code findAllById} query. The status
+   * JSON is returned as stored, unparsed.
+   */
+  @Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
   public Map<Long, DeviceStatusDto> getAllStatusesByIds(List<Long> deviceIds) {
-    return deviceIds.stream()
-        .collect(
-            Collectors.toMap(
-                id -> id,
-                id -> {
-                  Optional<DeviceStatus> entityOpt = findByDeviceId(id);
-                  JsonNode statusJson =
-                      entityOpt
-                          .map(DeviceStatus::getLastStatusJson)
-                          .map(this::parseJson)
-                          .orElse(null);
-                  return DeviceStatusDto.from(entityOpt.orElse(null), statusJson);
-                }));
+    Map<Long, DeviceStatusDto> statuses = new LinkedHashMap<>();
+    List<Long> misses = new ArrayList<>();
+    for (Long id : new LinkedHashSet<>(deviceIds)) {
+      if (id == null) {
+        continue;
+      }
+      Optional<DeviceStateSnapshot> cached = realtimeStateCache.get(id);
+      if (cached.isPresent() && cached.get().lastStatusJson() != null) {
+        statuses.put(
+            id, new DeviceStatusDto(cached.get().isOnline(), cached.get().lastStatusJson()));
+      } else {
+        // Placeholder keeps the request order
+        statuses.put(id, null);
+        misses.add(id);
+      }
+    }
+    if (misses.isEmpty()) {
+      return statuses;
+    }
+    Map<Long, DeviceStatus> persisted = new HashMap<>();
+    deviceStatusRepository
+        .findAllById(misses)
+        .forEach(status -> persisted.put(status.getDeviceId(), status));
+    for (Long id : misses) {
+      Optional<DeviceStatus> status =
+          writeBehind.overlay(id, Optional.ofNullable(persisted.get(id)));
+      statuses.put(id, DeviceStatusDto.from(status.orElse(null)));
+    }
+    return statuses;
   }
 
-  @Async
+  /** Queues the status for the next batched write; see {@link DeviceStatusWriteBehind}. */
   public void updateStatus(Long deviceId, JsonNode status, String mqttPrefix) {
     try {
       String statusJson = objectMapper.writeValueAsString(status);
-      DeviceStatus deviceStatus =
-          deviceStatusRepository.findByDeviceId(deviceId).orElse(new DeviceStatus());
-
-      deviceStatus.setDeviceId(deviceId);
-      deviceStatus.setMqttPrefix(mqttPrefix);
-      deviceStatus.setLastStatusJson(statusJson);
-
-      deviceStatusRepository.save(deviceStatus);
-      logger.debug("Updated status for device {}: {}", deviceId, statusJson);
+      realtimeStateCache.updateStatusJson(deviceId, statusJson, mqttPrefix);
+      writeBehind.updateStatus(deviceId, statusJson, mqttPrefix);
+      logger.debug("Queued status for device {}: {}", deviceId, statusJson);
     } catch (Exception e) {
       logger.error("Error updating status for device {}", deviceId, e);
     }
   }
 
-  @Async
   public void updateOnline(Long deviceId, boolean online, String mqttPrefix) {
-    try {
-      DeviceStatus deviceStatus =
-          deviceStatusRepository.findByDeviceId(deviceId).orElse(new DeviceStatus());
-
-      deviceStatus.setDeviceId(deviceId);
-      deviceStatus.setMqttPrefix(mqttPrefix);
-      deviceStatus.setLastOnline(online);
-
-      deviceStatusRepository.save(deviceStatus);
-      logger.debug("Updated online status for device {}: {}", deviceId, online);
-    } catch (Exception e) {
-      logger.error("Error updating online status for device {}", deviceId, e);
-    }
+    writeBehind.updateOnline(deviceId, online, mqttPrefix);
+    logger.debug("Queued online status for device {}: {}", deviceId, online);
   }
 
-  @Async
-  public void updateEvent(Long deviceId, JsonNode event, String mqttPrefix) {
-    try {
-      String eventJson = objectMapper.writeValueAsString(event);
-      DeviceStatus deviceStatus =
-          deviceStatusRepository.findByDeviceId(deviceId).orElse(new DeviceStatus());
-
-      deviceStatus.setDeviceId(deviceId);
-      deviceStatus.setMqttPrefix(mqttPrefix);
-      deviceStatus.setLastEventJson(eventJson);
-
-      deviceStatusRepository.save(deviceStatus);
-      logger.debug("Updated event for device {}: {}", deviceId, eventJson);
-    } catch (Exception e) {
-      logger.error("Error updating event for device {}", deviceId, e);
-    }
+  public void updateEvent(Long deviceId, String eventJson, String mqttPrefix) {
+    writeBehind.updateEvent(deviceId, eventJson, mqttPrefix);
+    logger.debug("Queued event for device {}: {}", deviceId, eventJson);
   }
 
-  @Async
   public void updateControlState(Long deviceId, DeviceControlState state) {
-    try {
-      DeviceStatus deviceStatus =
-          deviceStatusRepository.findByDeviceId(deviceId).orElse(new DeviceStatus());
-
-      deviceStatus.setDeviceId(deviceId);
-      deviceStatus.setControlState(state);
-
-      if (state == DeviceControlState.DISABLED_BY_BALANCER) {
-        deviceStatus.setBalancerDisabledAt(LocalDateTime.now());
-      } else {
-        deviceStatus.setBalancerDisabledAt(null);
-      }
-
-      deviceStatusRepository.save(deviceStatus);
-      logger.info("Updated control state for device {}: {}", deviceId, state);
-    } catch (Exception e) {
-      logger.error("Error updating control state for device {}", deviceId, e);
-    }
+    LocalDateTime disabledAt =
+        state == DeviceControlState.DISABLED_BY_BALANCER ? LocalDateTime.now() : null;
+    writeBehind.updateControlState(deviceId, state, disabledAt);
+    logger.info("Updated control state for device {}: {}", deviceId, state);
   }
 
+  /** The persisted status with queued, not yet flushed changes applied. */
   public Optional<DeviceStatus> findByDeviceId(Long deviceId) {
-    return deviceStatusRepository.findByDeviceId(deviceId);
+    return writeBehind.overlay(deviceId, deviceStatusRepository.findByDeviceId(deviceId));
   }
 
   public Optional<String> findMqttPrefixById(Long deviceId) {
-    return deviceStatusRepository.findByDeviceId(deviceId).map(DeviceStatus::getMqttPrefix);
+    return findByDeviceId(deviceId).map(DeviceStatus::getMqttPrefix);
   }
 
+  @Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
   public JsonNode getStatusAsJsonNode(Long deviceId) {
-    return findByDeviceId(deviceId)
-        .map(DeviceStatus::getLastStatusJson)
-        .map(this::parseJson)
-        .orElse(null);
+    String statusJson =
+        realtimeStateCache
+            .get(deviceId)
+            .map(DeviceStateSnapshot::lastStatusJson)
+            .or(() -> findByDeviceId(deviceId).map(DeviceStatus::getLastStatusJson))
+            .orElse(null);
+    return parseJson(statusJson);
   }
 
+  @Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
   public JsonNode getEventAsJsonNode(Long deviceId) {
-    return findByDeviceId(deviceId)
-        .map(DeviceStatus::getLastEventJson)
-        .map(this::parseJson)
-        .orElse(null);
+    String eventJson =
+        realtimeStateCache
+            .get(deviceId)
+            .map(DeviceStateSnapshot::lastEventJson)
+            .or(() -> findByDeviceId(deviceId).map(DeviceStatus::getLastEventJson))
+            .orElse(null);
+    return parseJson(eventJson);
   }
 
+  @Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
   public Boolean getOnlineStatus(Long deviceId) {
-    return findByDeviceId(deviceId).map(DeviceStatus::getLastOnline).orElse(null);
+    return realtimeStateCache
+        .get(deviceId)
+        .map(DeviceStateSnapshot::online)
+        .or(() -> findByDeviceId(deviceId).map(DeviceStatus::getLastOnline))
+        .orElse(null);
   }
 
   public DeviceControlState getControlState(Long deviceId) {
@@ -0,0 +1,439 @@
+package com.yh.sbps.device.service;
+
+import com.yh.sbps.device.dto.PersistenceStatsDto;
+import com.yh.sbps.device.entity.DeviceStatus;
+import com.yh.sbps.device.entity.DeviceStatus.DeviceControlState;
+import com.yh.sbps.device.repository.DeviceStatusPatch;
+import com.yh.sbps.device.repository.DeviceStatusRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Write-behind buffer for {@code device_status}. Updates are merged per device in memory and
+ * written by one flusher thread in batches: when {@code batch-size} devices are pending or every
+ * {@code flush-interval-ms}, whichever comes first. A batch is a few JDBC batches of column-wise
+ * upserts (see {@link DeviceStatusRepository#upsertAll}), instead of a select and a save per MQTT
+ * message.
+ *
+ * <p>A failed batch is written again row by row, so one bad row cannot hold back the others. A row
+ * the database rejects as invalid is dropped and counted in {@code rejectedRows}. Any other
+ * failure, typically the database being unreachable, merges the rows not yet written back under
+ * newer changes for the next flush. The flusher then backs off, doubling its wait from {@code
+ * flush-interval-ms} up to 30 s until a flush succeeds again. Changes for new devices are dropped
+ * once {@code max-pending} devices are waiting.
+ */
+@Component
+public class DeviceStatusWriteBehind {
+
+  private static final Logger logger = LoggerFactory.getLogger(DeviceStatusWriteBehind.class);
+  private static final long MAX_RETRY_DELAY_MS = 30_000;
+
+  private final DeviceStatusRepository deviceStatusRepository;
+  private final TransactionTemplate transactionTemplate;
+  private final int batchSize;
+  private final long flushIntervalMs;
+  private final int maxPending;
+
+  // key deviceId
+  private final Map<Long, Change> pending = new ConcurrentHashMap<>();
+  // Changes of the batch being written, still visible to readers until committed
+  private final Map<Long, Change> inFlight = new ConcurrentHashMap<>();
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition batchReady = lock.newCondition();
+  private final Object flushMonitor = new Object();
+  private volatile boolean running;
+  private Thread flusher;
+
+  private final LongAdder enqueuedWrites = new LongAdder();
+  private final LongAdder mergedWrites = new LongAdder();
+  private final LongAdder droppedWrites = new LongAdder();
+  private final LongAdder flushes = new LongAdder();
+  private final LongAdder failedFlushes = new LongAdder();
+  private final LongAdder rejectedRows = new LongAdder();
+  private final LongAdder flushedRows = new LongAdder();
+  private final AtomicLong lastBatchSize = new AtomicLong();
+  private final AtomicLong maxBatchSize = new AtomicLong();
+  private final AtomicLong lastFlushMicros = new AtomicLong();
+  private final AtomicLong maxFlushMicros = new AtomicLong();
+
+  public DeviceStatusWriteBehind(
+      DeviceStatusRepository deviceStatusRepository,
+      PlatformTransactionManager transactionManager,
+      @Value("${device.persistence.batch-size:200}") int batchSize,
+      @Value("${device.persistence.flush-interval-ms:500}") long flushIntervalMs,
+      @Value("${device.persistence.max-pending:50000}") int maxPending) {
+    this.deviceStatusRepository = deviceStatusRepository;
+    this.transactionTemplate = new TransactionTemplate(transactionManager);
+    this.batchSize = Math.max(1, batchSize);
+    this.flushIntervalMs = Math.max(1, flushIntervalMs);
+    this.maxPending = maxPending;
+  }
+
+  @PostConstruct
+  public void start() {
+    running = true;
+    flusher = new Thread(this::runFlusher, "device-status-flusher");
+    flusher.setDaemon(true);
+    flusher.start();
+  }
+
+  /** Stops the flusher and writes everything still pending. */
+  @PreDestroy
+  public void stop() {
+    running = false;
+    signal();
+    if (flusher != null) {
+      try {
+        flusher.join(TimeUnit.SECONDS.toMillis(5));
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    flush();
+    if (!pending.isEmpty()) {
+      logger.warn("Device status write-behind stopped with {} unflushed device(s)", pending.size());
+    }
+  }
+
+  public void updateStatus(Long deviceId, String statusJson, String mqttPrefix) {
+    enqueue(
+        deviceId,
+        change -> {
+          change.mqttPrefix = mqttPrefix;
+          change.statusJson = statusJson;
+        });
+  }
+
+  public void updateOnline(Long deviceId, boolean online, String mqttPrefix) {
+    enqueue(
+        deviceId,
+        change -> {
+          change.mqttPrefix = mqttPrefix;
+          change.online = online;
+        });
+  }
+
+  public void updateEvent(Long deviceId, String eventJson, String mqttPrefix) {
+    enqueue(
+        deviceId,
+        change -> {
+          change.mqttPrefix = mqttPrefix;
+          change.eventJson = eventJson;
+        });
+  }
+
+  public void updateControlState(
+      Long deviceId, DeviceControlState state, LocalDateTime balancerDisabledAt) {
+    enqueue(
+        deviceId,
+        change -> {
+          change.controlState = state;
+          change.balancerDisabledAt = balancerDisabledAt;
+        });
+  }
+
+  /**
+   * Returns the persisted status with not yet flushed changes applied, so reads see their own
+   * writes. The persisted entity itself is not modified.
+   */
+  public Optional<DeviceStatus> overlay(Long deviceId, Optional<DeviceStatus> persisted) {
+    Change writing = inFlight.get(deviceId);
+    Change change = pending.get(deviceId);
+    if (writing == null && change == null) {
+      return persisted;
+    }
+    DeviceStatus copy =
+        persisted.map(DeviceStatusWriteBehind::copyOf).orElseGet(DeviceStatus::new);
+    copy.setDeviceId(deviceId);
+    for (Change c : new Change[] {writing, change}) {
+      if (c != null) {
+        synchronized (c) {
+          c.applyTo(copy);
+        }
+      }
+    }
+    return Optional.of(copy);
+  }
+
+  /**
+   * Writes all pending changes now. Used by the flusher, on shutdown and by tests.
+   *
+   * @return false if a write failed and its rows were queued again for a retry
+   */
+  public boolean flush() {
+    synchronized (flushMonitor) {
+      while (!pending.isEmpty()) {
+        List<Change> batch = drain();
+        if (batch.isEmpty()) {
+          break;
+        }
+        if (!write(batch)) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+
+  public PersistenceStatsDto getStats() {
+    return new PersistenceStatsDto(
+        pending.size(),
+        enqueuedWrites.sum(),
+        mergedWrites.sum(),
+        droppedWrites.sum(),
+        flushes.sum(),
+        failedFlushes.sum(),
+        rejectedRows.sum(),
+        flushedRows.sum(),
+        lastBatchSize.get(),
+        maxBatchSize.get(),
+        lastFlushMicros.get(),
+        maxFlushMicros.get());
+  }
+
+  private void enqueue(Long deviceId, Consumer<Change> update) {
+    if (deviceId == null) {
+      return;
+    }
+    enqueuedWrites.increment();
+    if (pending.size() >= maxPending && !pending.containsKey(deviceId)) {
+      droppedWrites.increment();
+      logger.warn(
+          "Write-behind buffer full ({} devices). Dropping write for device {}",
+          maxPending,
+          deviceId);
+      return;
+    }
+    pending.compute(
+        deviceId,
+        (id, change) -> {
+          if (change == null) {
+            change = new Change(id);
+          } else {
+            mergedWrites.increment();
+          }
+          synchronized (change) {
+            update.accept(change);
+          }
+          return change;
+        });
+    if (pending.size() >= batchSize) {
+      signal();
+    }
+  }
+
+  private void signal() {
+    lock.lock();
+    try {
+      batchReady.signal();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void runFlusher() {
+    long retryDelayMs = 0;
+    while (running) {
+      lock.lock();
+      try {
+        if (retryDelayMs > 0) {
+          // Full batches do not cut a back-off short, only stop() does
+          long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(retryDelayMs);
+          long remaining;
+          while (running && (remaining = deadline - System.nanoTime()) > 0) {
+            batchReady.awaitNanos(remaining);
+          }
+        } else if (running && pending.size() < batchSize) {
+          batchReady.await(flushIntervalMs, TimeUnit.MILLISECONDS);
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      } finally {
+        lock.unlock();
+      }
+      boolean written;
+      try {
+        written = flush();
+      } catch (Exception e) {
+        logger.error("Device status flush failed", e);
+        written = false;
+      }
+      if (written) {
+        retryDelayMs = 0;
+      } else {
+        retryDelayMs =
+            retryDelayMs == 0 ? flushIntervalMs : Math.min(2 * retryDelayMs, MAX_RETRY_DELAY_MS);
+        logger.warn("Retrying device status flush in {} ms", retryDelayMs);
+      }
+    }
+  }
+
+  private List<Change> drain() {
+    List<Change> batch = new ArrayList<>(Math.min(batchSize, pending.size()));
+    Iterator<Long> ids = pending.keySet().iterator();
+    while (ids.hasNext() && batch.size() < batchSize) {
+      Change change = pending.remove(ids.next());
+      if (change != null) {
+        inFlight.put(change.deviceId, change);
+        batch.add(change);
+      }
+    }
+    return batch;
+  }
+
+  private boolean write(List<Change> batch) {
+    long start = System.nanoTime();
+    try {
+      upsert(batch);
+    } catch (Exception e) {
+      failedFlushes.increment();
+      logger.warn("Failed to write {} device status(es), writing row by row", batch.size(), e);
+      return writeRowByRow(batch);
+    }
+    batch.forEach(change -> inFlight.remove(change.deviceId));
+
+    long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start);
+    flushes.increment();
+    flushedRows.add(batch.size());
+    lastBatchSize.set(batch.size());
+    maxBatchSize.accumulateAndGet(batch.size(), Math::max);
+    lastFlushMicros.set(micros);
+    maxFlushMicros.accumulateAndGet(micros, Math::max);
+    logger.debug("Flushed {} device status(es) in {} us", batch.size(), micros);
+    return true;
+  }
+
+  private boolean writeRowByRow(List<Change> batch) {
+    int written = 0;
+    for (int i = 0; i < batch.size(); i++) {
+      Change change = batch.get(i);
+      try {
+        upsert(List.of(change));
+        written++;
+      } catch (DataIntegrityViolationException e) {
+        // Retrying cannot fix the row itself, e.g. a JSON value the column does not accept
+        rejectedRows.increment();
+        logger.error(
+            "Dropping device status of device {} rejected by the database", change.deviceId, e);
+      } catch (Exception e) {
+        List<Change> remaining = batch.subList(i, batch.size());
+        logger.error("Failed to write {} device status(es). Will retry.", remaining.size(), e);
+        for (Change failed : remaining) {
+          pending.merge(failed.deviceId, failed, (newer, older) -> older.followedBy(newer));
+          inFlight.remove(failed.deviceId);
+        }
+        flushedRows.add(written);
+        return false;
+      }
+      inFlight.remove(change.deviceId);
+    }
+    flushedRows.add(written);
+    return true;
+  }
+
+  private void upsert(List<Change> changes) {
+    List<DeviceStatusPatch> patches = changes.stream().map(Change::toPatch).toList();
+    transactionTemplate.executeWithoutResult(tx -> deviceStatusRepository.upsertAll(patches));
+  }
+
+  private static DeviceStatus copyOf(DeviceStatus status) {
+    return new DeviceStatus(
+        status.getDeviceId(),
+        status.getMqttPrefix(),
+        status.getLastStatusJson(),
+        status.getLastOnline(),
+        status.getLastEventJson(),
+        status.getControlState(),
+        status.getUpdatedAt(),
+        status.getBalancerDisabledAt());
+  }
+
+  /** Pending changes of one device. Unset fields are left as they are in the database. */
+  private static final class Change {
+    private final Long deviceId;
+    private String mqttPrefix;
+    private String statusJson;
+    private Boolean online;
+    private String eventJson;
+    private DeviceControlState controlState;
+    private LocalDateTime balancerDisabledAt;
+
+    private Change(Long deviceId) {
+      this.deviceId = deviceId;
+    }
+
+    private void applyTo(DeviceStatus status) {
+      if (mqttPrefix != null) {
+        status.setMqttPrefix(mqttPrefix);
+      }
+      if (statusJson != null) {
+        status.setLastStatusJson(statusJson);
+      }
+      if (online != null) {
+        status.setLastOnline(online);
+      }
+      if (eventJson != null) {
+        status.setLastEventJson(eventJson);
+      }
+      if (controlState != null) {
+        status.setControlState(controlState);
+        status.setBalancerDisabledAt(balancerDisabledAt);
+      }
+    }
+
+    private synchronized DeviceStatusPatch toPatch() {
+      return new DeviceStatusPatch(
+          deviceId,
+          mqttPrefix,
+          statusJson,
+          online,
+          eventJson,
+          controlState,
+          balancerDisabledAt);
+    }
+
+    // Applies the newer change on top of this one
+    private Change followedBy(Change newer) {
+      synchronized (this) {
+        if (newer.mqttPrefix != null) {
+          mqttPrefix = newer.mqttPrefix;
+        }
+        if (newer.statusJson != null) {
+          statusJson = newer.statusJson;
+        }
+        if (newer.online != null) {
+          online = newer.online;
+        }
+        if (newer.eventJson != null) {
+          eventJson = newer.eventJson;
+        }
+        if (newer.controlState != null) {
+          controlState = newer.controlState;
+          balancerDisabledAt = newer.balancerDisabledAt;
+        }
+      }
+      return this;
+    }
+  }
+}
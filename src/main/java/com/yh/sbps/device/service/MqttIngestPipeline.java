@@ -0,0 +1,366 @@
+package com.yh.sbps.device.service;
+
+import com.yh.sbps.device.dto.IngestStatsDto;
+import com.yh.sbps.device.service.MqttTopicRoutingIndex.Route;
+import jakarta.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.integration.annotation.ServiceActivator;
+import org.springframework.integration.mqtt.support.MqttHeaders;
+import org.springframework.messaging.Message;
+import org.springframework.stereotype.Component;
+
+/**
+ * Moves inbound MQTT processing off the Paho callback threads. Messages are hashed by device prefix
+ * onto a fixed set of single-threaded partitions: one device is always processed in order,
+ * different devices run in parallel. The prefix is taken from the topic, so it does not change when
+ * a device moves between households or before its routes are indexed. Partition queues are
+ * bounded; a full queue blocks the MQTT callback, which pushes back on the broker instead of
+ * growing the heap. Stale status samples are coalesced while queued, see {@link Partition}. On
+ * shutdown the queued messages are still processed before the workers exit.
+ */
+@Component
+public class MqttIngestPipeline {
+
+  private static final Logger logger = LoggerFactory.getLogger(MqttIngestPipeline.class);
+  private static final long SHUTDOWN_TIMEOUT_MS = TimeUnit.SECONDS.toMillis(10);
+
+  private final ShellyService shellyService;
+  private final MqttTopicRoutingIndex routingIndex;
+  private final MqttTrafficRecorder trafficRecorder;
+  private final Partition[] partitions;
+  private final Thread[] workers;
+  private final LongAdder processedMessages = new LongAdder();
+  private final LongAdder droppedMessages = new LongAdder();
+  private volatile Consumer<Message<?>> handledListener = message -> {};
+
+  public MqttIngestPipeline(
+      ShellyService shellyService,
+      MqttTopicRoutingIndex routingIndex,
+      MqttTrafficRecorder trafficRecorder,
+      @Value("${mqtt.ingest.partitions:4}") int partitionCount,
+      @Value("${mqtt.ingest.queue-capacity:1000}") int queueCapacity,
+      @Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads) {
+    this.shellyService = shellyService;
+    this.routingIndex = routingIndex;
+    this.trafficRecorder = trafficRecorder;
+    this.partitions = new Partition[Math.max(0, partitionCount)];
+    this.workers = new Thread[partitions.length];
+    for (int i = 0; i < partitions.length; i++) {
+      partitions[i] = new Partition(i, Math.max(1, queueCapacity));
+      String name = "mqtt-ingest-" + i;
+      // Workers block on JPA, REST and MQTT publishes; a virtual worker releases its carrier
+      workers[i] =
+          virtualThreads
+              ? Thread.ofVirtual().name(name).unstarted(partitions[i])
+              : Thread.ofPlatform().name(name).daemon(true).unstarted(partitions[i]);
+      workers[i].start();
+    }
+    logger.info(
+        "MQTT ingest pipeline started with {} {} partition(s), queue capacity {}",
+        partitions.length,
+        virtualThreads ? "virtual" : "platform",
+        queueCapacity);
+  }
+
+  @ServiceActivator(inputChannel = "mqttInputChannel")
+  public void dispatch(Message<?> message) {
+    trafficRecorder.record(message);
+    if (partitions.length == 0) {
+      shellyService.handleMqttMessage(message);
+      processedMessages.increment();
+      handledListener.accept(message);
+      return;
+    }
+
+    String topic = (String) message.getHeaders().get(MqttHeaders.RECEIVED_TOPIC);
+    Route route = routingIndex.resolve(topic);
+    int index = Math.floorMod(partitionKey(topic, route).hashCode(), partitions.length);
+    try {
+      if (!partitions[index].enqueue(message, topic, route, kindOf(route, message))) {
+        logger.debug("MQTT ingest pipeline stopped, ignoring message for topic {}", topic);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      logger.warn("Interrupted while enqueueing MQTT message for topic {}", topic);
+    }
+  }
+
+  /**
+   * Called with every message once it has been processed or replaced by a newer sample while
+   * queued, on the worker or the dispatching thread. Must be fast, it may run under a partition
+   * lock.
+   */
+  public void setHandledListener(Consumer<Message<?>> listener) {
+    this.handledListener = listener;
+  }
+
+  public IngestStatsDto getStats() {
+    int queued = 0;
+    for (Partition partition : partitions) {
+      queued += partition.size();
+    }
+    return new IngestStatsDto(
+        partitions.length, queued, processedMessages.sum(), droppedMessages.sum());
+  }
+
+  /**
+   * Stops accepting messages and waits up to {@link #SHUTDOWN_TIMEOUT_MS} for the workers to
+   * process what is already queued, so nothing reaches the persistence layer after it has flushed.
+   */
+  @PreDestroy
+  public void shutdown() {
+    for (Partition partition : partitions) {
+      partition.stop();
+    }
+    long deadline = System.currentTimeMillis() + SHUTDOWN_TIMEOUT_MS;
+    for (int i = 0; i < workers.length; i++) {
+      try {
+        workers[i].join(Math.max(1, deadline - System.currentTimeMillis()));
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        break;
+      }
+      if (workers[i].isAlive()) {
+        logger.warn(
+            "MQTT ingest partition {} did not drain in time, {} message(s) lost",
+            i,
+            partitions[i].size());
+        workers[i].interrupt();
+      }
+    }
+    trafficRecorder.flush();
+    logger.info(
+        "MQTT ingest pipeline stopped. Processed: {}, dropped as stale: {}",
+        processedMessages.sum(),
+        droppedMessages.sum());
+  }
+
+  // Runs on the MQTT callback thread: whether a message can be coalesced is decided on enqueue
+  private static MqttMessageKind kindOf(Route route, Message<?> message) {
+    if (route == null) {
+      return null;
+    }
+    if (route.kind() != MqttMessageKind.EVENT) {
+      return route.kind();
+    }
+    Object payload = message.getPayload();
+    String text =
+        payload instanceof byte[] bytes
+            ? new String(bytes, StandardCharsets.UTF_8)
+            : String.valueOf(payload);
+    return route.strategy().isStatusEvent(text) ? MqttMessageKind.STATUS : MqttMessageKind.EVENT;
+  }
+
+  private static String partitionKey(String topic, Route route) {
+    if (route != null) {
+      return route.device().getMqttPrefix();
+    }
+    String devicePrefix = MqttTopicRoutingIndex.devicePrefixOf(topic);
+    return devicePrefix != null ? devicePrefix : "";
+  }
+
+  /**
+   * Bounded FIFO with latest-wins coalescing. A status sample that arrives while an older sample of
+   * the same device and topic is still queued replaces it, so a burst costs one slot per device and
+   * topic instead of one per message. The replacement moves to the tail: a device's samples are
+   * still processed in arrival order, so an older sample on its other topic cannot overwrite a
+   * newer one. Shelly {@code NotifyStatus} events count as status samples; they carry only the
+   * changed fields, but every change is also published in full on {@code status/switch:0}.
+   * Online/LWT transitions are never replaced and act as barriers: samples that arrive after them
+   * are queued behind them. Other events are queued as they come.
+   */
+  private final class Partition implements Runnable {
+
+    private final int index;
+    private final int capacity;
+    // Doubly linked, so a coalesced slot can move to the tail in constant time
+    private Slot head;
+    private Slot tail;
+    private int size;
+    // key - mqttPrefix of device, value - its queued status slots by topic
+    private final Map<String, Map<String, Slot>> coalescible = new HashMap<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private volatile boolean running = true;
+
+    private Partition(int index, int capacity) {
+      this.index = index;
+      this.capacity = capacity;
+    }
+
+    /** @return false if the partition is stopped and the message was not queued */
+    private boolean enqueue(Message<?> message, String topic, Route route, MqttMessageKind kind)
+        throws InterruptedException {
+      lock.lock();
+      try {
+        String devicePrefix = route != null ? route.device().getMqttPrefix() : null;
+        if (devicePrefix != null && kind == MqttMessageKind.STATUS) {
+          while (true) {
+            if (!running) {
+              return false;
+            }
+            Map<String, Slot> slots = coalescible.get(devicePrefix);
+            Slot last = slots != null ? slots.get(topic) : null;
+            if (last != null) {
+              Message<?> replaced = last.message;
+              unlink(last);
+              last.message = message;
+              append(last);
+              droppedMessages.increment();
+              handledListener.accept(replaced);
+              return true;
+            }
+            if (size < capacity) {
+              break;
+            }
+            notFull.await();
+          }
+          Slot slot = new Slot(devicePrefix, topic, message);
+          coalescible.computeIfAbsent(devicePrefix, p -> new HashMap<>()).put(topic, slot);
+          append(slot);
+        } else {
+          if (devicePrefix != null && kind == MqttMessageKind.ONLINE) {
+            coalescible.remove(devicePrefix);
+          }
+          if (!awaitCapacity()) {
+            return false;
+          }
+          append(new Slot(null, topic, message));
+        }
+        notEmpty.signal();
+        return true;
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    private Message<?> take() throws InterruptedException {
+      lock.lock();
+      try {
+        while (head == null) {
+          if (!running) {
+            return null;
+          }
+          notEmpty.await(100, TimeUnit.MILLISECONDS);
+        }
+        Slot slot = head;
+        unlink(slot);
+        if (slot.devicePrefix != null) {
+          Map<String, Slot> slots = coalescible.get(slot.devicePrefix);
+          if (slots != null && slots.remove(slot.topic, slot) && slots.isEmpty()) {
+            coalescible.remove(slot.devicePrefix);
+          }
+        }
+        notFull.signal();
+        return slot.message;
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    /** @return false if the partition was stopped while waiting */
+    private boolean awaitCapacity() throws InterruptedException {
+      while (running && size >= capacity) {
+        notFull.await();
+      }
+      return running;
+    }
+
+    private void append(Slot slot) {
+      slot.prev = tail;
+      slot.next = null;
+      if (tail != null) {
+        tail.next = slot;
+      } else {
+        head = slot;
+      }
+      tail = slot;
+      size++;
+    }
+
+    private void unlink(Slot slot) {
+      if (slot.prev != null) {
+        slot.prev.next = slot.next;
+      } else {
+        head = slot.next;
+      }
+      if (slot.next != null) {
+        slot.next.prev = slot.prev;
+      } else {
+        tail = slot.prev;
+      }
+      slot.prev = null;
+      slot.next = null;
+      size--;
+    }
+
+    private int size() {
+      lock.lock();
+      try {
+        return size;
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    private void stop() {
+      lock.lock();
+      try {
+        running = false;
+        notEmpty.signalAll();
+        notFull.signalAll();
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    @Override
+    public void run() {
+      while (true) {
+        try {
+          Message<?> message = take();
+          if (message == null) {
+            return;
+          }
+          try {
+            shellyService.handleMqttMessage(message);
+            processedMessages.increment();
+          } finally {
+            handledListener.accept(message);
+          }
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return;
+        } catch (RuntimeException e) {
+          logger.error("Unexpected error in MQTT ingest partition {}", index, e);
+        }
+      }
+    }
+  }
+
+  private static final class Slot {
+    private final String devicePrefix;
+    private final String topic;
+    // Guarded by the partition lock
+    private Message<?> message;
+    private Slot prev;
+    private Slot next;
+
+    private Slot(String devicePrefix, String topic, Message<?> message) {
+      this.devicePrefix = devicePrefix;
+      this.topic = topic;
+      this.message = message;
+    }
+  }
+}
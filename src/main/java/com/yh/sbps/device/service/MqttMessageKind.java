@@ -0,0 +1,8 @@
+package com.yh.sbps.device.service;
+
+/** Kind of inbound MQTT message, resolved once per topic when a device is registered. */
+public enum MqttMessageKind {
+  ONLINE,
+  STATUS,
+  EVENT
+}
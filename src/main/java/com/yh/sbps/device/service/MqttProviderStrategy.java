@@ -1,8 +1,8 @@
 package com.yh.sbps.device.service;
 
-import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.yh.sbps.device.dto.DeviceDto;
+import java.io.IOException;
 import org.springframework.messaging.Message;
 
 public interface MqttProviderStrategy {
@@ -11,14 +11,20 @@ public interface MqttProviderStrategy {
 
   String getMqttPrefixFromTopic(String topic);
 
+  MqttMessageKind getMessageKind(String topic);
+
+  /** Whether a payload on an {@link MqttMessageKind#EVENT} topic is really a status sample. */
+  default boolean isStatusEvent(String payload) {
+    return false;
+  }
+
   Message<String> createToggleCommand(
       ObjectMapper objectMapper, String deviceMqttPrefix, boolean on) throws Exception;
 
   boolean handleOnlineStatus(String topic, String payload, DeviceDto device, ShellyService service);
 
-  boolean handleDeviceStatus(
-      String topic, JsonNode payload, DeviceDto device, ShellyService service);
+  boolean handleDeviceStatus(String topic, String payload, DeviceDto device, ShellyService service)
+      throws IOException;
 
-  boolean handleDeviceEvent(
-      String topic, JsonNode payload, DeviceDto device, ShellyService service);
+  boolean handleDeviceEvent(String topic, String payload, DeviceDto device, ShellyService service);
 }
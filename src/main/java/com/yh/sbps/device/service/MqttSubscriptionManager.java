@@ -0,0 +1,245 @@
+package com.yh.sbps.device.service;
+
+import com.yh.sbps.device.dto.DeviceDto;
+import jakarta.annotation.PreDestroy;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import org.eclipse.paho.mqttv5.client.MqttConnectionOptions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.beans.factory.BeanFactoryAware;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.integration.mqtt.core.MqttPahoClientFactory;
+import org.springframework.integration.mqtt.inbound.AbstractMqttMessageDrivenChannelAdapter;
+import org.springframework.integration.mqtt.inbound.MqttPahoMessageDrivenChannelAdapter;
+import org.springframework.integration.mqtt.inbound.Mqttv5PahoMessageDrivenChannelAdapter;
+import org.springframework.integration.mqtt.support.DefaultPahoMessageConverter;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.stereotype.Component;
+
+/**
+ * Owns the inbound MQTT connections. Instead of one Paho client per device, a small fixed pool of
+ * adapters is shared by all devices and topic filters are reference counted: subscribing or
+ * unsubscribing a device only touches the broker when a filter is first needed or no longer used.
+ *
+ * <p>Replicas split the devices by household: with {@code mqtt.inbound.replicas} set to N, the
+ * replica with {@code mqtt.inbound.replica-index} i subscribes only the devices of users whose
+ * name hashes to i. Every message of a household then reaches exactly one replica, which keeps its
+ * realtime cache, write-behind and balancing complete and sends each balancing command once.
+ * MQTT v5 shared subscriptions ({@code $share/<group>/...}) are not supported: the broker picks a
+ * group member per message, so every replica would see only part of each device's reports.
+ *
+ * <p>With {@code mqtt.inbound.enabled: false} devices are still registered but no connection is
+ * opened, e.g. while {@link MqttTrafficReplayer} feeds recorded traffic instead.
+ */
+@Component
+public class MqttSubscriptionManager implements BeanFactoryAware {
+
+  private static final Logger logger = LoggerFactory.getLogger(MqttSubscriptionManager.class);
+  private static final int QOS = 1;
+
+  private final MqttPahoClientFactory mqttClientFactory;
+  private final MqttConnectionOptions mqttV5ConnectionOptions;
+  private final MessageChannel mqttInputChannel;
+  private final boolean wildcardTopics;
+  private final boolean mqttV5;
+  private final int replicas;
+  private final int replicaIndex;
+  private final boolean inboundEnabled;
+  private final AbstractMqttMessageDrivenChannelAdapter<?, ?>[] adapters;
+  private BeanFactory beanFactory;
+  // key - topic filter, value - mqttPrefixes of devices relying on it
+  private final Map<String, Set<String>> filterSubscribers = new HashMap<>();
+  // key - mqttPrefix of device, value - topic filters of the device
+  private final Map<String, Set<String>> deviceFilters = new HashMap<>();
+
+  public MqttSubscriptionManager(
+      MqttPahoClientFactory mqttClientFactory,
+      MqttConnectionOptions mqttV5ConnectionOptions,
+      MessageChannel mqttInputChannel,
+      @Value("${mqtt.inbound.connections:1}") int connections,
+      @Value("${mqtt.inbound.wildcard-topics:false}") boolean wildcardTopics,
+      @Value("${mqtt.version:3}") int mqttVersion,
+      @Value("${mqtt.inbound.shared-group:}") String sharedGroup,
+      @Value("${mqtt.inbound.replicas:1}") int replicas,
+      @Value("${mqtt.inbound.replica-index:0}") int replicaIndex,
+      @Value("${mqtt.inbound.enabled:true}") boolean inboundEnabled) {
+    if (sharedGroup != null && !sharedGroup.isBlank()) {
+      throw new IllegalStateException(
+          "mqtt.inbound.shared-group is not supported, split devices with mqtt.inbound.replicas"
+              + " and mqtt.inbound.replica-index instead");
+    }
+    if (replicas < 1 || replicaIndex < 0 || replicaIndex >= replicas) {
+      throw new IllegalArgumentException(
+          "mqtt.inbound.replica-index " + replicaIndex + " out of range for " + replicas);
+    }
+    this.mqttClientFactory = mqttClientFactory;
+    this.mqttV5ConnectionOptions = mqttV5ConnectionOptions;
+    this.mqttInputChannel = mqttInputChannel;
+    this.wildcardTopics = wildcardTopics;
+    this.mqttV5 = mqttVersion == 5;
+    this.replicas = replicas;
+    this.replicaIndex = replicaIndex;
+    this.inboundEnabled = inboundEnabled;
+    if (!inboundEnabled) {
+      logger.warn("MQTT inbound disabled, devices are registered without subscribing");
+    }
+    this.adapters = new AbstractMqttMessageDrivenChannelAdapter<?, ?>[Math.max(1, connections)];
+    logger.info(
+        "MQTT v{} inbound configured with {} connection(s), wildcard topics: {}, replica {}/{}",
+        mqttV5 ? 5 : 3,
+        adapters.length,
+        wildcardTopics,
+        replicaIndex,
+        replicas);
+  }
+
+  @Override
+  public void setBeanFactory(BeanFactory beanFactory) {
+    this.beanFactory = beanFactory;
+  }
+
+  public boolean usesWildcardTopics() {
+    return wildcardTopics;
+  }
+
+  /** Whether this replica handles the household {@code device} belongs to. */
+  public boolean owns(DeviceDto device) {
+    String household = device.getUsername();
+    int owner = household != null ? Math.floorMod(household.hashCode(), replicas) : 0;
+    return owner == replicaIndex;
+  }
+
+  public synchronized boolean isSubscribed(String mqttPrefix) {
+    return deviceFilters.containsKey(mqttPrefix);
+  }
+
+  public synchronized Set<String> getSubscribedPrefixes() {
+    return new HashSet<>(deviceFilters.keySet());
+  }
+
+  /**
+   * Registers the device topics on the shared connections.
+   *
+   * @return false if the device was already subscribed
+   */
+  public synchronized boolean subscribe(String mqttPrefix, String[] topics) {
+    if (deviceFilters.containsKey(mqttPrefix)) {
+      return false;
+    }
+
+    Set<String> filters = new LinkedHashSet<>();
+    for (String topic : topics) {
+      filters.add(toFilter(topic, mqttPrefix));
+    }
+
+    for (String filter : filters) {
+      Set<String> subscribers = filterSubscribers.computeIfAbsent(filter, f -> new HashSet<>());
+      if (subscribers.isEmpty() && inboundEnabled) {
+        adapterFor(filter).addTopic(filter, QOS);
+        logger.debug("Subscribed to MQTT topic filter: {}", filter);
+      }
+      subscribers.add(mqttPrefix);
+    }
+    deviceFilters.put(mqttPrefix, filters);
+    return true;
+  }
+
+  /**
+   * Removes the device from the routing table and unsubscribes filters no other device uses.
+   *
+   * @return false if the device was not subscribed
+   */
+  public synchronized boolean unsubscribe(String mqttPrefix) {
+    Set<String> filters = deviceFilters.remove(mqttPrefix);
+    if (filters == null) {
+      return false;
+    }
+
+    for (String filter : filters) {
+      Set<String> subscribers = filterSubscribers.get(filter);
+      if (subscribers == null) {
+        continue;
+      }
+      subscribers.remove(mqttPrefix);
+      if (subscribers.isEmpty()) {
+        filterSubscribers.remove(filter);
+        if (inboundEnabled) {
+          adapterFor(filter).removeTopic(filter);
+          logger.debug("Unsubscribed from MQTT topic filter: {}", filter);
+        }
+      }
+    }
+    return true;
+  }
+
+  @PreDestroy
+  public synchronized void shutdown() {
+    for (int i = 0; i < adapters.length; i++) {
+      if (adapters[i] != null) {
+        adapters[i].stop();
+        adapters[i] = null;
+      }
+    }
+    filterSubscribers.clear();
+    deviceFilters.clear();
+  }
+
+  // Single-level prefixes can share one '+' filter per topic shape, e.g. "tele/+/LWT"
+  private String toFilter(String topic, String mqttPrefix) {
+    if (!wildcardTopics || mqttPrefix.contains("/") || mqttPrefix.contains("+")) {
+      return topic;
+    }
+    String[] levels = topic.split("/", -1);
+    for (int i = 0; i < levels.length; i++) {
+      if (levels[i].equals(mqttPrefix)) {
+        levels[i] = "+";
+        return String.join("/", levels);
+      }
+    }
+    return topic;
+  }
+
+  private AbstractMqttMessageDrivenChannelAdapter<?, ?> adapterFor(String filter) {
+    int index = Math.floorMod(filter.hashCode(), adapters.length);
+    AbstractMqttMessageDrivenChannelAdapter<?, ?> adapter = adapters[index];
+    if (adapter == null) {
+      String clientId = "mqttInbound_" + index + "_" + UUID.randomUUID().toString().substring(0, 8);
+      adapter = createAdapter(clientId);
+      adapters[index] = adapter;
+      logger.info("Started shared MQTT inbound connection {} ({})", index, clientId);
+    }
+    return adapter;
+  }
+
+  /** Builds and starts one inbound connection. */
+  AbstractMqttMessageDrivenChannelAdapter<?, ?> createAdapter(String clientId) {
+    AbstractMqttMessageDrivenChannelAdapter<?, ?> adapter;
+    if (mqttV5) {
+      Mqttv5PahoMessageDrivenChannelAdapter v5Adapter =
+          new Mqttv5PahoMessageDrivenChannelAdapter(
+              mqttV5ConnectionOptions, clientId, new String[0]);
+      v5Adapter.setPayloadType(String.class);
+      adapter = v5Adapter;
+    } else {
+      MqttPahoMessageDrivenChannelAdapter v3Adapter =
+          new MqttPahoMessageDrivenChannelAdapter(clientId, mqttClientFactory);
+      v3Adapter.setConverter(new DefaultPahoMessageConverter());
+      adapter = v3Adapter;
+    }
+    adapter.setCompletionTimeout(5000);
+    adapter.setQos(QOS);
+    adapter.setOutputChannel(mqttInputChannel);
+    if (beanFactory != null) {
+      adapter.setBeanFactory(beanFactory);
+    }
+    adapter.afterPropertiesSet();
+    adapter.start();
+    return adapter;
+  }
+}
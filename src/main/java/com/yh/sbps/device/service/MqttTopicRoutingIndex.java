@@ -0,0 +1,95 @@
+package com.yh.sbps.device.service;
+
+import com.yh.sbps.device.dto.DeviceDto;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+/**
+ * Exact topic to device index for inbound MQTT traffic. Routes are precomputed from {@link
+ * MqttProviderStrategy#getSubscriptionTopics} when a device is registered, so resolving an inbound
+ * message is a single hash lookup. Each topic entry is swapped as a whole, readers never observe a
+ * partially built route.
+ */
+@Component
+public class MqttTopicRoutingIndex {
+
+  private static final Logger logger = LoggerFactory.getLogger(MqttTopicRoutingIndex.class);
+
+  // key - full topic
+  private final Map<String, Route> routes = new ConcurrentHashMap<>();
+  // key - mqttPrefix of device, value - topics registered for it
+  private final Map<String, String[]> topicsByPrefix = new ConcurrentHashMap<>();
+
+  public Route resolve(String topic) {
+    return topic != null ? routes.get(topic) : null;
+  }
+
+  public synchronized void register(DeviceDto device, MqttProviderStrategy strategy) {
+    String mqttPrefix = device.getMqttPrefix();
+    String[] topics = strategy.getSubscriptionTopics(device);
+    for (String topic : topics) {
+      routes.put(topic, new Route(device, strategy, strategy.getMessageKind(topic)));
+    }
+
+    String[] oldTopics = topicsByPrefix.put(mqttPrefix, topics);
+    if (oldTopics != null) {
+      for (String oldTopic : oldTopics) {
+        if (!contains(topics, oldTopic)) {
+          routes.remove(oldTopic);
+        }
+      }
+    }
+    logger.debug("Registered {} routes for device prefix {}", topics.length, mqttPrefix);
+  }
+
+  public synchronized void remove(String mqttPrefix) {
+    String[] topics = topicsByPrefix.remove(mqttPrefix);
+    if (topics == null) {
+      return;
+    }
+    for (String topic : topics) {
+      routes.remove(topic);
+    }
+    logger.debug("Removed routes for device prefix {}", mqttPrefix);
+  }
+
+  /**
+   * Device prefix of a topic, parsed with the Tasmota ({@code tele/<prefix>/...}) and Shelly
+   * ({@code <prefix>/online|status/...|events/...}) layouts. Gives the same prefix as the route of
+   * an indexed topic, so it also works for topics that are not indexed yet.
+   *
+   * @return null if the topic matches neither layout
+   */
+  static String devicePrefixOf(String topic) {
+    if (topic == null) {
+      return null;
+    }
+    String[] levels = topic.split("/", 3);
+    if (levels.length == 3
+        && (levels[0].equals("tele") || levels[0].equals("stat") || levels[0].equals("cmnd"))) {
+      return levels[1];
+    }
+    if (topic.endsWith("/online")) {
+      return topic.substring(0, topic.length() - "/online".length());
+    } else if (topic.contains("/status/")) {
+      return topic.substring(0, topic.indexOf("/status/"));
+    } else if (topic.contains("/events/")) {
+      return topic.substring(0, topic.indexOf("/events/"));
+    }
+    return null;
+  }
+
+  private static boolean contains(String[] topics, String topic) {
+    for (String t : topics) {
+      if (t.equals(topic)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  public record Route(DeviceDto device, MqttProviderStrategy strategy, MqttMessageKind kind) {}
+}
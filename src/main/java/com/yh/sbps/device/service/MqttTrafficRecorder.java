@@ -0,0 +1,151 @@
+package com.yh.sbps.device.service;
+
+import jakarta.annotation.PreDestroy;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.integration.mqtt.support.MqttHeaders;
+import org.springframework.messaging.Message;
+import org.springframework.stereotype.Component;
+
+/**
+ * Captures inbound MQTT traffic to an append-only file for {@link MqttTrafficReplayer}. Enabled by
+ * setting {@code mqtt.recorder.file}; disabled otherwise.
+ *
+ * <p>File layout: the 8-byte magic {@code SBPSMQT1}, then one record per message: arrival time in
+ * epoch microseconds (long), topic (modified UTF-8, as {@link DataOutputStream#writeUTF}), payload
+ * length (int) and payload bytes.
+ */
+@Component
+public class MqttTrafficRecorder {
+
+  private static final Logger logger = LoggerFactory.getLogger(MqttTrafficRecorder.class);
+  private static final byte[] MAGIC = "SBPSMQT1".getBytes(StandardCharsets.US_ASCII);
+
+  private volatile DataOutputStream out; // null when recording is disabled
+  private long recordedMessages;
+
+  public MqttTrafficRecorder(@Value("${mqtt.recorder.file:}") String file) {
+    if (file == null || file.isBlank()) {
+      return;
+    }
+    try {
+      Path path = Path.of(file);
+      boolean isNew = !Files.exists(path) || Files.size(path) == 0;
+      out =
+          new DataOutputStream(
+              new BufferedOutputStream(
+                  Files.newOutputStream(
+                      path, StandardOpenOption.CREATE, StandardOpenOption.APPEND),
+                  64 * 1024));
+      if (isNew) {
+        out.write(MAGIC);
+      }
+      logger.info("Recording inbound MQTT traffic to {}", path.toAbsolutePath());
+    } catch (IOException e) {
+      logger.error("Cannot open MQTT traffic recording {}. Recording disabled.", file, e);
+      out = null;
+    }
+  }
+
+  public boolean isEnabled() {
+    return out != null;
+  }
+
+  public void record(Message<?> message) {
+    if (out == null) {
+      return;
+    }
+    String topic = (String) message.getHeaders().get(MqttHeaders.RECEIVED_TOPIC);
+    Object payload = message.getPayload();
+    byte[] bytes =
+        payload instanceof byte[] raw
+            ? raw
+            : String.valueOf(payload).getBytes(StandardCharsets.UTF_8);
+    long nowMicros = TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis());
+    synchronized (this) {
+      if (out == null) {
+        return;
+      }
+      try {
+        out.writeLong(nowMicros);
+        out.writeUTF(topic != null ? topic : "");
+        out.writeInt(bytes.length);
+        out.write(bytes);
+        recordedMessages++;
+      } catch (IOException e) {
+        logger.error("Failed to record MQTT message. Recording disabled.", e);
+        closeQuietly();
+      }
+    }
+  }
+
+  public synchronized void flush() {
+    if (out == null) {
+      return;
+    }
+    try {
+      out.flush();
+    } catch (IOException e) {
+      logger.error("Failed to flush MQTT traffic recording", e);
+    }
+  }
+
+  @PreDestroy
+  public synchronized void close() {
+    if (out != null) {
+      logger.info("MQTT traffic recording closed after {} message(s)", recordedMessages);
+      closeQuietly();
+    }
+  }
+
+  /** Reads a recording written by this class. A truncated last record is ignored. */
+  public static List<RecordedMessage> read(Path path) throws IOException {
+    List<RecordedMessage> messages = new ArrayList<>();
+    try (InputStream file = Files.newInputStream(path);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(file, 64 * 1024))) {
+      byte[] magic = new byte[MAGIC.length];
+      in.readFully(magic);
+      if (!Arrays.equals(magic, MAGIC)) {
+        throw new IOException("Not an MQTT traffic recording: " + path);
+      }
+      while (true) {
+        try {
+          long timestampMicros = in.readLong();
+          String topic = in.readUTF();
+          byte[] payload = new byte[in.readInt()];
+          in.readFully(payload);
+          messages.add(new RecordedMessage(timestampMicros, topic, payload));
+        } catch (EOFException e) {
+          return messages;
+        }
+      }
+    }
+  }
+
+  private void closeQuietly() {
+    try {
+      out.close();
+    } catch (IOException e) {
+      logger.warn("Failed to close MQTT traffic recording", e);
+    }
+    out = null;
+  }
+
+  public record RecordedMessage(long timestampMicros, String topic, byte[] payload) {}
+}
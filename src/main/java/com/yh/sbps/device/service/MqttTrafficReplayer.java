@@ -0,0 +1,225 @@
+package com.yh.sbps.device.service;
+
+import com.yh.sbps.device.dto.ReplayReportDto;
+import com.yh.sbps.device.service.MqttTrafficRecorder.RecordedMessage;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.annotation.Profile;
+import org.springframework.context.event.EventListener;
+import org.springframework.integration.mqtt.support.MqttHeaders;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.stereotype.Component;
+
+/**
+ * Feeds a recording of {@link MqttTrafficRecorder} back through {@link MqttIngestPipeline}, the
+ * same entry point live traffic takes, keeping the recorded inter-arrival gaps divided by {@code
+ * speed} (0 replays as fast as possible). Every replayed message is tagged with a {@link
+ * #REPLAY_HEADER}, and its latency runs from the moment it was due until the pipeline reports it
+ * handled: processed, or replaced by a newer sample while queued. A replay that falls behind, is
+ * pushed back by full partitions or is slow to process shows up in the percentiles. The duration
+ * runs until the last replayed message was handled; messages still pending after a drain timeout
+ * leave the report marked incomplete.
+ *
+ * <p>Only active with the {@code replay} profile (see {@code application-replay.yml}), which cuts
+ * the service off from everything live: no MQTT subscriptions or commands, no notifications to
+ * sbps-api, no recording, and a datasource of its own, so recorded traffic can neither switch real
+ * plugs nor overwrite real device state. The replayer refuses to start if any of these is turned
+ * back on. Set {@code mqtt.replay.file} (and optionally {@code mqtt.replay.speed}) to replay
+ * once in the background after startup; the report is logged.
+ */
+@Component
+@Profile("replay")
+public class MqttTrafficReplayer {
+
+  private static final Logger logger = LoggerFactory.getLogger(MqttTrafficReplayer.class);
+  private static final long DRAIN_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(30);
+  static final String REPLAY_HEADER = "sbps_replay";
+
+  private final MqttIngestPipeline ingestPipeline;
+  private final String replayFile;
+  private final double replaySpeed;
+
+  public MqttTrafficReplayer(
+      MqttIngestPipeline ingestPipeline,
+      @Value("${mqtt.replay.file:}") String replayFile,
+      @Value("${mqtt.replay.speed:1}") double replaySpeed,
+      @Value("${mqtt.inbound.enabled:true}") boolean inboundEnabled,
+      @Value("${mqtt.outbound.enabled:true}") boolean outboundEnabled,
+      @Value("${api.notifications.enabled:true}") boolean apiNotificationsEnabled,
+      @Value("${mqtt.recorder.file:}") String recorderFile) {
+    List<String> live = new ArrayList<>();
+    if (inboundEnabled) {
+      live.add("mqtt.inbound.enabled");
+    }
+    if (outboundEnabled) {
+      live.add("mqtt.outbound.enabled");
+    }
+    if (apiNotificationsEnabled) {
+      live.add("api.notifications.enabled");
+    }
+    if (recorderFile != null && !recorderFile.isBlank()) {
+      live.add("mqtt.recorder.file");
+    }
+    if (!live.isEmpty()) {
+      throw new IllegalStateException("Replay must run isolated, turn off: " + live);
+    }
+    this.ingestPipeline = ingestPipeline;
+    this.replayFile = replayFile;
+    this.replaySpeed = replaySpeed;
+    ingestPipeline.setHandledListener(MqttTrafficReplayer::onHandled);
+  }
+
+  @EventListener(ApplicationReadyEvent.class)
+  public void replayOnStartup() {
+    if (replayFile == null || replayFile.isBlank()) {
+      return;
+    }
+    Thread thread =
+        new Thread(
+            () -> {
+              try {
+                ReplayReportDto report = replay(Path.of(replayFile), replaySpeed);
+                if (!report.isComplete()) {
+                  logger.warn(
+                      "Replay of {} incomplete: only {} of {} message(s) were handled",
+                      replayFile,
+                      report.getHandledMessages(),
+                      report.getMessages());
+                }
+                logger.info(
+                    "Replayed {} MQTT message(s) from {} at speed {}: {} ms, {} msg/s,"
+                        + " latency p50 {} us, p99 {} us, max {} us",
+                    report.getMessages(),
+                    replayFile,
+                    report.getSpeed(),
+                    report.getDurationMs(),
+                    String.format("%.1f", report.getMessagesPerSecond()),
+                    report.getP50LatencyMicros(),
+                    report.getP99LatencyMicros(),
+                    report.getMaxLatencyMicros());
+              } catch (Exception e) {
+                logger.error("MQTT traffic replay of {} failed", replayFile, e);
+              }
+            },
+            "mqtt-replay");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  public ReplayReportDto replay(Path recording, double speed) throws IOException {
+    return replay(MqttTrafficRecorder.read(recording), speed);
+  }
+
+  public ReplayReportDto replay(List<RecordedMessage> messages, double speed) {
+    Tag[] tags = new Tag[messages.size()];
+    CountDownLatch pending = new CountDownLatch(messages.size());
+    long startNanos = System.nanoTime();
+    long firstMicros = messages.isEmpty() ? 0 : messages.get(0).timestampMicros();
+
+    for (int i = 0; i < messages.size(); i++) {
+      RecordedMessage recorded = messages.get(i);
+      long dueNanos = startNanos;
+      if (speed > 0) {
+        long offsetMicros = Math.max(0, recorded.timestampMicros() - firstMicros);
+        dueNanos += (long) (TimeUnit.MICROSECONDS.toNanos(offsetMicros) / speed);
+        for (long wait = dueNanos - System.nanoTime(); wait > 0; ) {
+          LockSupport.parkNanos(wait);
+          wait = dueNanos - System.nanoTime();
+        }
+      } else {
+        dueNanos = System.nanoTime();
+      }
+
+      tags[i] = new Tag(dueNanos, pending);
+      Message<byte[]> message =
+          MessageBuilder.withPayload(recorded.payload())
+              .setHeader(MqttHeaders.RECEIVED_TOPIC, recorded.topic())
+              .setHeader(REPLAY_HEADER, tags[i])
+              .build();
+      ingestPipeline.dispatch(message);
+    }
+    boolean complete = awaitHandled(pending);
+
+    long[] latencies = new long[tags.length];
+    int handled = 0;
+    long endNanos = startNanos;
+    for (Tag tag : tags) {
+      if (tag.handled) {
+        latencies[handled++] = TimeUnit.NANOSECONDS.toMicros(tag.handledNanos - tag.dueNanos);
+        endNanos = Math.max(endNanos, tag.handledNanos);
+      }
+    }
+    latencies = Arrays.copyOf(latencies, handled);
+    Arrays.sort(latencies);
+    long durationNanos = (complete ? endNanos : System.nanoTime()) - startNanos;
+    double seconds = durationNanos / 1_000_000_000.0;
+    return new ReplayReportDto(
+        messages.size(),
+        handled,
+        complete,
+        Math.max(0, speed),
+        TimeUnit.NANOSECONDS.toMillis(durationNanos),
+        seconds > 0 ? handled / seconds : 0,
+        percentile(latencies, 0.50),
+        percentile(latencies, 0.99),
+        latencies.length > 0 ? latencies[latencies.length - 1] : 0);
+  }
+
+  private static void onHandled(Message<?> message) {
+    if (message.getHeaders().get(REPLAY_HEADER) instanceof Tag tag) {
+      tag.handled();
+    }
+  }
+
+  private boolean awaitHandled(CountDownLatch pending) {
+    try {
+      if (pending.await(DRAIN_TIMEOUT_NANOS, TimeUnit.NANOSECONDS)) {
+        return true;
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    logger.warn("{} replayed message(s) still pending after the drain timeout", pending.getCount());
+    return false;
+  }
+
+  private long percentile(long[] sorted, double quantile) {
+    if (sorted.length == 0) {
+      return 0;
+    }
+    int index = (int) Math.ceil(quantile * sorted.length) - 1;
+    return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+  }
+
+  /** Due time of one replayed message; counts down {@code pending} once it has been handled. */
+  private static final class Tag {
+    private final long dueNanos;
+    private final CountDownLatch pending;
+    private volatile long handledNanos;
+    private volatile boolean handled;
+
+    private Tag(long dueNanos, CountDownLatch pending) {
+      this.dueNanos = dueNanos;
+      this.pending = pending;
+    }
+
+    private void handled() {
+      if (!handled) {
+        handledNanos = System.nanoTime();
+        handled = true;
+        pending.countDown();
+      }
+    }
+  }
+}
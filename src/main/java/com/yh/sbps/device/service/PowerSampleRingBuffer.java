@@ -0,0 +1,105 @@
+package com.yh.sbps.device.service;
+
+import com.yh.sbps.device.dto.PowerBucketDto;
+import com.yh.sbps.device.dto.PowerSampleDto;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Fixed-capacity history of power samples of one device, held in parallel primitive arrays so
+ * appending never allocates. Once full, the oldest sample is overwritten. Voltage is {@code NaN}
+ * for samples that did not carry it.
+ */
+public class PowerSampleRingBuffer {
+
+  private final long[] timestamps;
+  private final double[] apower;
+  private final double[] voltage;
+  private int next;
+  private int size;
+
+  public PowerSampleRingBuffer(int capacity) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("capacity must be positive: " + capacity);
+    }
+    this.timestamps = new long[capacity];
+    this.apower = new double[capacity];
+    this.voltage = new double[capacity];
+  }
+
+  public synchronized void append(long timestamp, double power, double volts) {
+    timestamps[next] = timestamp;
+    apower[next] = power;
+    voltage[next] = volts;
+    next = (next + 1) % timestamps.length;
+    if (size < timestamps.length) {
+      size++;
+    }
+  }
+
+  public synchronized int size() {
+    return size;
+  }
+
+  /** Samples taken at or after {@code sinceMillis}, oldest first. */
+  public synchronized List<PowerSampleDto> samplesSince(long sinceMillis) {
+    List<PowerSampleDto> samples = new ArrayList<>();
+    for (int i = 0; i < size; i++) {
+      int index = indexOf(i);
+      if (timestamps[index] >= sinceMillis) {
+        samples.add(
+            new PowerSampleDto(
+                timestamps[index],
+                apower[index],
+                Double.isNaN(voltage[index]) ? null : voltage[index]));
+      }
+    }
+    return samples;
+  }
+
+  /**
+   * Min/max/avg of apower over consecutive buckets of {@code bucketMillis}, aligned to the epoch.
+   * Buckets without samples are left out.
+   */
+  public synchronized List<PowerBucketDto> bucketsSince(long sinceMillis, long bucketMillis) {
+    List<PowerBucketDto> buckets = new ArrayList<>();
+    long bucketStart = Long.MIN_VALUE;
+    int count = 0;
+    double min = 0;
+    double max = 0;
+    double sum = 0;
+    for (int i = 0; i < size; i++) {
+      int index = indexOf(i);
+      long timestamp = timestamps[index];
+      if (timestamp < sinceMillis) {
+        continue;
+      }
+      long start = timestamp - Math.floorMod(timestamp, bucketMillis);
+      if (start != bucketStart) {
+        if (count > 0) {
+          buckets.add(new PowerBucketDto(bucketStart, count, min, max, sum / count));
+        }
+        bucketStart = start;
+        count = 0;
+        sum = 0;
+        min = Double.POSITIVE_INFINITY;
+        max = Double.NEGATIVE_INFINITY;
+      }
+      double power = apower[index];
+      count++;
+      sum += power;
+      min = Math.min(min, power);
+      max = Math.max(max, power);
+    }
+    if (count > 0) {
+      buckets.add(new PowerBucketDto(bucketStart, count, min, max, sum / count));
+    }
+    return buckets;
+  }
+
+  // i-th oldest sample
+  private int indexOf(int i) {
+    int oldest = size < timestamps.length ? 0 : next;
+    return (oldest + i) % timestamps.length;
+  }
+}
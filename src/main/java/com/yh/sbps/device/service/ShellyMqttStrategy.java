@@ -1,8 +1,9 @@
 package com.yh.sbps.device.service;
 
-import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.yh.sbps.device.dto.DeviceDto;
+import com.yh.sbps.device.dto.DeviceTelemetry;
+import java.io.IOException;
 import org.springframework.integration.mqtt.support.MqttHeaders;
 import org.springframework.messaging.Message;
 import org.springframework.messaging.support.MessageBuilder;
@@ -11,6 +12,12 @@ import org.springframework.stereotype.Component;
 @Component
 public class ShellyMqttStrategy implements MqttProviderStrategy {
 
+    private final TelemetryExtractor telemetryExtractor;
+
+    public ShellyMqttStrategy(TelemetryExtractor telemetryExtractor) {
+        this.telemetryExtractor = telemetryExtractor;
+    }
+
     @Override
     public String[] getSubscriptionTopics(DeviceDto device) {
         String prefix = device.getMqttPrefix();
@@ -33,6 +40,25 @@ public class ShellyMqttStrategy implements MqttProviderStrategy {
         return null;
     }
 
+    @Override
+    public MqttMessageKind getMessageKind(String topic) {
+        if (topic.endsWith("/online")) {
+            return MqttMessageKind.ONLINE;
+        } else if (topic.contains("/events/")) {
+            return MqttMessageKind.EVENT;
+        }
+        return MqttMessageKind.STATUS;
+    }
+
+    @Override
+    public boolean isStatusEvent(String payload) {
+        try {
+            return telemetryExtractor.extractShellyNotifyStatus(payload) != null;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
     @Override
     public Message<String> createToggleCommand(ObjectMapper objectMapper, String deviceMqttPrefix, boolean on) throws Exception {
         var params = objectMapper.createObjectNode();
@@ -62,26 +88,33 @@ public class ShellyMqttStrategy implements MqttProviderStrategy {
     }
 
     @Override
-    public boolean handleDeviceStatus(String topic, JsonNode payload, DeviceDto device, ShellyService service) {
+    public boolean handleDeviceStatus(String topic, String payload, DeviceDto device, ShellyService service)
+            throws IOException {
         if (topic.endsWith("/status/switch:0")) {
-            service.handleDeviceStatusInternal(device, payload);
+            DeviceTelemetry telemetry = telemetryExtractor.extractShellyStatus(payload);
+            if (telemetry != null) {
+                service.handleDeviceStatusInternal(device, topic, telemetry, payload);
+            }
             return true;
         }
 
         // Обробка NotifyStatus з /events/rpc, яка містить 'apower'
-        if (topic.endsWith("/events/rpc") &&
-                payload.has("method") && "NotifyStatus".equals(payload.get("method").asText()) &&
-                payload.has("params") && payload.get("params").has("switch:0") &&
-                payload.get("params").get("switch:0").has("apower"))
-        {
-            JsonNode statusPayload = payload.get("params").get("switch:0");
-            service.handleDeviceStatusInternal(device, statusPayload);
+        if (topic.endsWith("/events/rpc")) {
+            DeviceTelemetry telemetry = telemetryExtractor.extractShellyNotifyStatus(payload);
+            if (telemetry != null) {
+                service.handleDeviceStatusInternal(
+                        device,
+                        topic,
+                        telemetry,
+                        telemetryExtractor.extractShellyNotifyStatusJson(payload));
+                return true;
+            }
         }
         return false;
     }
 
     @Override
-    public boolean handleDeviceEvent(String topic, JsonNode payload, DeviceDto device, ShellyService service) {
+    public boolean handleDeviceEvent(String topic, String payload, DeviceDto device, ShellyService service) {
         if (topic.endsWith("/events/rpc")) {
             service.handleDeviceEventInternal(device, payload);
             return true;
@@ -1,26 +1,29 @@
 package com.yh.sbps.device.service;
 
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.yh.sbps.device.dto.DeviceDto;
 import com.yh.sbps.device.dto.DeviceProvider;
 import com.yh.sbps.device.dto.DeviceStatusUpdateDto;
+import com.yh.sbps.device.dto.DeviceTelemetry;
 import com.yh.sbps.device.dto.DeviceType;
 import com.yh.sbps.device.integration.ApiServiceClient;
+import com.yh.sbps.device.service.MqttTopicRoutingIndex.Route;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import lombok.Setter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.integration.annotation.ServiceActivator;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.integration.mqtt.core.MqttPahoClientFactory;
-import org.springframework.integration.mqtt.inbound.MqttPahoMessageDrivenChannelAdapter;
 import org.springframework.integration.mqtt.outbound.MqttPahoMessageHandler;
 import org.springframework.integration.mqtt.support.DefaultPahoMessageConverter;
 import org.springframework.integration.mqtt.support.MqttHeaders;
 import org.springframework.messaging.Message;
-import org.springframework.messaging.MessageChannel;
 import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
 
@@ -30,72 +33,92 @@ public class ShellyService {
   private static final Logger logger = LoggerFactory.getLogger(ShellyService.class);
 
   private final MqttPahoMessageHandler mqttOutbound;
-  private final MqttPahoClientFactory mqttClientFactory;
-  private final MessageChannel mqttInputChannel;
+  private final MqttSubscriptionManager subscriptionManager;
+  private final MqttTopicRoutingIndex routingIndex;
   private final ObjectMapper objectMapper;
   private final DeviceStatusService deviceStatusService;
   private final ApiServiceClient apiServiceClient;
-  private final Map<String, MqttPahoMessageDrivenChannelAdapter> subscribedAdapters =
-      new ConcurrentHashMap<>();
   private final Map<String, DeviceDto> deviceCache = new ConcurrentHashMap<>();
   private final DeviceRealtimeStateCache stateCache;
+  private final TelemetryDeduplicator deduplicator;
+  private final TelemetryDeadbandFilter deadbandFilter;
+  private final DeviceLivenessTracker livenessTracker;
+  private final TelemetryHistoryWriter historyWriter;
   private final Map<DeviceProvider, MqttProviderStrategy> strategies;
+  private final boolean outboundEnabled;
   @Setter private BalancingService balancingService; // Lazy injection to avoid circular dependency
   @Setter private SystemStateCache systemStateCache; // Lazy injection to avoid circular dependency
 
   public ShellyService(
       MqttPahoClientFactory mqttClientFactory,
-      MessageChannel mqttInputChannel,
+      MqttSubscriptionManager subscriptionManager,
+      MqttTopicRoutingIndex routingIndex,
       ObjectMapper objectMapper,
       DeviceStatusService deviceStatusService,
       ApiServiceClient apiServiceClient,
       DeviceRealtimeStateCache stateCache,
+      TelemetryDeduplicator deduplicator,
+      TelemetryDeadbandFilter deadbandFilter,
+      DeviceLivenessTracker livenessTracker,
+      TelemetryHistoryWriter historyWriter,
       ShellyMqttStrategy shellyStrategy,
-      TasmotaMqttStrategy tasmotaStrategy) {
-    this.mqttClientFactory = mqttClientFactory;
-    this.mqttInputChannel = mqttInputChannel;
+      TasmotaMqttStrategy tasmotaStrategy,
+      @Value("${mqtt.outbound.enabled:true}") boolean outboundEnabled) {
+    this.subscriptionManager = subscriptionManager;
+    this.routingIndex = routingIndex;
     this.objectMapper = objectMapper;
     this.deviceStatusService = deviceStatusService;
     this.apiServiceClient = apiServiceClient;
     this.mqttOutbound = new MqttPahoMessageHandler("shellyOutbound", mqttClientFactory);
     this.stateCache = stateCache;
+    this.deduplicator = deduplicator;
+    this.deadbandFilter = deadbandFilter;
+    this.livenessTracker = livenessTracker;
+    this.historyWriter = historyWriter;
     this.strategies =
         Map.of(
             DeviceProvider.SHELLY, shellyStrategy,
             DeviceProvider.TASMOTA, tasmotaStrategy);
+    this.outboundEnabled = outboundEnabled;
     mqttOutbound.setAsync(false);
     mqttOutbound.setConverter(new DefaultPahoMessageConverter());
     mqttOutbound.afterPropertiesSet();
   }
 
-  @ServiceActivator(inputChannel = "mqttInputChannel")
   public void handleMqttMessage(Message<?> message) {
     String topic = (String) message.getHeaders().get(MqttHeaders.RECEIVED_TOPIC);
-    String payload = String.valueOf(message.getPayload());
+    Object rawPayload = message.getPayload();
+    String payload =
+        rawPayload instanceof byte[] bytes
+            ? new String(bytes, StandardCharsets.UTF_8)
+            : String.valueOf(rawPayload);
     logger.debug("MQTT IN: Topic={}, Payload={}", topic, payload);
     try {
-      DeviceDto device = findDeviceByTopic(topic);
-      if (device == null) {
-        logger.warn("No device found for topic: {}", topic);
-        return;
+      Route route = routingIndex.resolve(topic);
+      if (route == null) {
+        route = resolveUnindexedTopic(topic);
+        if (route == null) {
+          return;
+        }
       }
-      MqttProviderStrategy strategy = strategies.get(device.getProvider());
-      if (strategy == null) {
-        logger.error("No MQTT strategy found for provider: {}", device.getProvider());
+      DeviceDto device = route.device();
+      MqttProviderStrategy strategy = route.strategy();
+      if (route.kind() == MqttMessageKind.ONLINE) {
+        strategy.handleOnlineStatus(topic, payload, device, this);
         return;
       }
-      if (strategy.handleOnlineStatus(topic, payload, device, this)) {
-        return;
+      livenessTracker.touch(device);
+      // A status delivered as an RPC notification is not stored again as an event
+      if (!strategy.handleDeviceStatus(topic, payload, device, this)) {
+        strategy.handleDeviceEvent(topic, payload, device, this);
       }
-      JsonNode jsonPayload = objectMapper.readTree(payload);
-      strategy.handleDeviceStatus(topic, jsonPayload, device, this);
-      strategy.handleDeviceEvent(topic, jsonPayload, device, this);
     } catch (Exception e) {
       logger.error("Error parsing MQTT payload for topic {}: {}", topic, e.getMessage());
     }
   }
 
   public void handleOnlineStatusInternal(DeviceDto device, boolean online) {
+    livenessTracker.reportedOnline(device, online);
     stateCache.updateOnline(device.getId(), online, device.getMqttPrefix());
     deviceStatusService.updateOnline(device.getId(), online, device.getMqttPrefix());
     if (device.getUsername() != null) {
@@ -114,12 +137,26 @@ public class ShellyService {
     }
   }
 
-  public void handleDeviceStatusInternal(DeviceDto device, JsonNode json) {
-    stateCache.updateStatus(device.getId(), json, device.getMqttPrefix());
+  /**
+   * Applies a status sample. The typed {@code telemetry} drives caching and balancing; {@code
+   * statusJson} is the status document as the device sent it and is what gets persisted and pushed
+   * to sbps-api. Without one, the merged telemetry is rendered in its place.
+   */
+  public void handleDeviceStatusInternal(
+      DeviceDto device, String topic, DeviceTelemetry telemetry, String statusJson) {
+    // Only Shelly delivers each change twice, see TelemetryDeduplicator
+    if (device.getProvider() == DeviceProvider.SHELLY
+        && deduplicator.isDuplicate(device.getMqttPrefix(), topic, telemetry)) {
+      logger.debug("Skipping duplicate status delivery for {}", device.getMqttPrefix());
+      return;
+    }
+    DeviceTelemetry state =
+        stateCache.updateStatus(device.getId(), telemetry, device.getMqttPrefix());
+    historyWriter.record(device.getId(), state);
     String monitorPrefix = findMonitorPrefixForDevice(device);
 
-    if (device.getDeviceType() == DeviceType.GRID_MONITOR && json.has("voltage")) {
-      double voltage = json.get("voltage").asDouble(0.0);
+    if (device.getDeviceType() == DeviceType.GRID_MONITOR && telemetry.hasVoltage()) {
+      double voltage = telemetry.voltage();
       boolean isGridAvailable = voltage > 100.0;
 
       boolean oldStatus = systemStateCache.isGridAvailable(monitorPrefix);
@@ -135,18 +172,72 @@ public class ShellyService {
     }
 
     if (device.getDeviceType() == DeviceType.POWER_MONITOR) {
-      if (balancingService != null) {
-        balancingService.balancePower(device.getMqttPrefix(), json);
+      if (!telemetry.hasApower()) {
+        logger.error("Power field not found in status of {}", device.getMqttPrefix());
+      } else if (balancingService != null) {
+        balancingService.balancePower(device.getMqttPrefix(), telemetry.apower());
       } else {
         logger.warn("BalancingService not initialized. Cannot perform power balancing.");
       }
     }
 
-    performPostProcessing(device.getMqttPrefix(), json, device);
+    if (deadbandFilter.shouldPropagate(device.getMqttPrefix(), state)) {
+      performPostProcessing(device.getMqttPrefix(), statusDocument(statusJson, state), device);
+    } else {
+      logger.trace("Status change of {} within deadband, not propagated", device.getMqttPrefix());
+    }
   }
 
-  public void handleDeviceEventInternal(DeviceDto device, JsonNode json) {
-    deviceStatusService.updateEvent(device.getId(), json, device.getMqttPrefix());
+  private JsonNode statusDocument(String statusJson, DeviceTelemetry state) {
+    if (statusJson != null) {
+      try {
+        return objectMapper.readTree(statusJson);
+      } catch (Exception e) {
+        logger.warn("Unreadable status document, storing telemetry only: {}", e.getMessage());
+      }
+    }
+    return state.toJson();
+  }
+
+  public void handleDeviceEventInternal(DeviceDto device, String eventJson) {
+    // The column is JSONB: a payload it cannot take would only fail its whole write batch
+    if (!isJson(eventJson)) {
+      logger.warn("Dropping event of {} that is not valid JSON", device.getMqttPrefix());
+      return;
+    }
+    stateCache.updateEvent(device.getId(), eventJson, device.getMqttPrefix());
+    deviceStatusService.updateEvent(device.getId(), eventJson, device.getMqttPrefix());
+  }
+
+  private boolean isJson(String payload) {
+    try (JsonParser parser = objectMapper.getFactory().createParser(payload)) {
+      if (parser.nextToken() == null) {
+        return false;
+      }
+      parser.skipChildren();
+      return parser.nextToken() == null;
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  private Route resolveUnindexedTopic(String topic) {
+    // Index and device cache are kept in sync, so with wildcard filters a miss is a foreign device
+    if (subscriptionManager.usesWildcardTopics()) {
+      logger.debug("Ignoring MQTT message for unknown topic: {}", topic);
+      return null;
+    }
+    DeviceDto device = findDeviceByTopic(topic);
+    if (device == null) {
+      logger.warn("No device found for topic: {}", topic);
+      return null;
+    }
+    MqttProviderStrategy strategy = strategies.get(device.getProvider());
+    if (strategy == null) {
+      logger.error("No MQTT strategy found for provider: {}", device.getProvider());
+      return null;
+    }
+    return new Route(device, strategy, strategy.getMessageKind(topic));
   }
 
   private DeviceDto findDeviceByTopic(String topic) {
@@ -254,6 +345,10 @@ public class ShellyService {
       }
 
       Message<String> mqttMsg = strategy.createToggleCommand(objectMapper, deviceMqttPrefix, on);
+      if (!outboundEnabled) {
+        logger.info("MQTT outbound disabled, not sending toggle {} to {}", on, deviceMqttPrefix);
+        return;
+      }
 
       mqttOutbound.handleMessage(mqttMsg);
       logger.info("Sent toggle {} to device {} ({})", on, device.getName(), device.getMqttPrefix());
@@ -278,8 +373,13 @@ public class ShellyService {
       return;
     }
 
+    if (!subscriptionManager.owns(device)) {
+      logger.debug("Device {} belongs to another replica, skipping", device.getName());
+      return;
+    }
+
     String deviceKey = device.getMqttPrefix();
-    if (subscribedAdapters.containsKey(deviceKey)) {
+    if (subscriptionManager.isSubscribed(deviceKey)) {
       logger.debug("Device {} is already subscribed, skipping", device.getName());
       return;
     }
@@ -287,17 +387,8 @@ public class ShellyService {
     try {
       String[] topics = strategy.getSubscriptionTopics(device);
 
-      MqttPahoMessageDrivenChannelAdapter adapter =
-          new MqttPahoMessageDrivenChannelAdapter(
-              "mqttInbound_" + device.getId(), mqttClientFactory, topics);
-      adapter.setCompletionTimeout(5000);
-      adapter.setConverter(new DefaultPahoMessageConverter());
-      adapter.setQos(1);
-      adapter.setOutputChannel(mqttInputChannel);
-      adapter.start();
-
-      subscribedAdapters.put(deviceKey, adapter);
       refreshDeviceCache(device);
+      subscriptionManager.subscribe(deviceKey, topics);
       logger.info(
           "Subscribed to {} topics for device: {} ({})",
           topics.length,
@@ -317,9 +408,7 @@ public class ShellyService {
       return;
     }
 
-    MqttPahoMessageDrivenChannelAdapter adapter = subscribedAdapters.remove(mqttPrefix);
-    if (adapter != null) {
-      adapter.stop();
+    if (subscriptionManager.unsubscribe(mqttPrefix)) {
       logger.info("Unsubscribed from MQTT topics for prefix: {}", mqttPrefix);
 
       if (balancingService != null) {
@@ -329,7 +418,14 @@ public class ShellyService {
       logger.warn("No active subscription found for prefix to unsubscribe: {}", mqttPrefix);
     }
 
-    deviceCache.remove(mqttPrefix);
+    DeviceDto removed = deviceCache.remove(mqttPrefix);
+    if (removed != null) {
+      stateCache.forgetHistory(removed.getId());
+    }
+    routingIndex.remove(mqttPrefix);
+    deduplicator.forget(mqttPrefix);
+    deadbandFilter.forget(mqttPrefix);
+    livenessTracker.forget(mqttPrefix);
   }
 
   public void refreshDeviceCache(DeviceDto device) {
@@ -337,10 +433,16 @@ public class ShellyService {
       return;
     }
     deviceCache.put(device.getMqttPrefix(), device);
+    MqttProviderStrategy strategy =
+        device.getProvider() != null ? strategies.get(device.getProvider()) : null;
+    // Wildcard filters also deliver the devices of other replicas; without a route they are ignored
+    if (strategy != null && subscriptionManager.owns(device)) {
+      routingIndex.register(device, strategy);
+    }
     logger.debug("Refreshed device cache for: {}", device.getName());
   }
 
   public void unsubscribeForAllDevices() {
-    subscribedAdapters.forEach((prefix, adapter) -> unsubscribeFromDevice(prefix));
+    subscriptionManager.getSubscribedPrefixes().forEach(this::unsubscribeFromDevice);
   }
 }
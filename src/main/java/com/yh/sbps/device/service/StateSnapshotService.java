@@ -0,0 +1,299 @@
+package com.yh.sbps.device.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.yh.sbps.device.dto.DeviceDto;
+import com.yh.sbps.device.dto.DeviceStateSnapshot;
+import com.yh.sbps.device.dto.SystemStateDto;
+import com.yh.sbps.device.entity.DeviceStatus.DeviceControlState;
+import com.yh.sbps.device.service.SystemStateCache.BlackoutSession;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+/**
+ * Periodically saves the in-memory state (device control states, monitor states, grid status,
+ * blackout sessions and overload cooldowns) to a local file, so a restart can resume balancing from
+ * it instead of waiting for the database and a REST round trip per monitor. Enabled by setting
+ * {@code device.snapshot.file}. Device online flags and readings are not saved: they start out
+ * unknown and come from the devices' next MQTT messages, so balancing never acts on stale power.
+ *
+ * <p>The file is written to a temporary sibling and moved into place, so a crash never leaves a
+ * half-written snapshot. Layout: magic {@code SBPSSNP2}, write time (epoch millis), then the
+ * sections in the order of {@link #write}. Strings are an int length (-1 for null) followed by
+ * UTF-8 bytes; monitor states are embedded as JSON since their DTOs change with the API service.
+ */
+@Service
+public class StateSnapshotService {
+
+  private static final Logger logger = LoggerFactory.getLogger(StateSnapshotService.class);
+  private static final byte[] MAGIC = "SBPSSNP2".getBytes(StandardCharsets.US_ASCII);
+  private static final long NO_TIME = Long.MIN_VALUE;
+  private static final long NO_ID = Long.MIN_VALUE;
+  private static final ZoneId ZONE = ZoneId.systemDefault();
+
+  private final DeviceRealtimeStateCache realtimeStateCache;
+  private final SystemStateCache systemStateCache;
+  private final BalancingService balancingService;
+  private final ObjectMapper objectMapper;
+  private final Path file;
+  private final long maxAgeMs;
+
+  public StateSnapshotService(
+      DeviceRealtimeStateCache realtimeStateCache,
+      SystemStateCache systemStateCache,
+      BalancingService balancingService,
+      ObjectMapper objectMapper,
+      @Value("${device.snapshot.file:}") String file,
+      @Value("${device.snapshot.max-age-ms:3600000}") long maxAgeMs) {
+    this.realtimeStateCache = realtimeStateCache;
+    this.systemStateCache = systemStateCache;
+    this.balancingService = balancingService;
+    this.objectMapper = objectMapper;
+    this.file = file == null || file.isBlank() ? null : Path.of(file);
+    this.maxAgeMs = maxAgeMs;
+  }
+
+  public boolean isEnabled() {
+    return file != null;
+  }
+
+  @Scheduled(
+      fixedDelayString = "${device.snapshot.interval-ms:30000}",
+      initialDelayString = "${device.snapshot.interval-ms:30000}")
+  public synchronized void writeSnapshot() {
+    if (!isEnabled()) {
+      return;
+    }
+    if (realtimeStateCache.getAll().isEmpty() && systemStateCache.getStateCache().isEmpty()) {
+      logger.debug("Nothing to snapshot yet, keeping {}", file);
+      return;
+    }
+    try {
+      Path parent = file.toAbsolutePath().getParent();
+      if (parent != null) {
+        Files.createDirectories(parent);
+      }
+      Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+      try (DataOutputStream out =
+          new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 64 * 1024))) {
+        write(out);
+      }
+      Files.move(
+          tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      logger.debug("Wrote state snapshot to {}", file);
+    } catch (Exception e) {
+      logger.error("Failed to write state snapshot to {}", file, e);
+    }
+  }
+
+  /**
+   * Loads the snapshot into the caches, unless it is missing, unreadable or older than {@code
+   * device.snapshot.max-age-ms}.
+   *
+   * @return the devices known to the restored monitor states, empty if nothing was restored
+   */
+  public List<DeviceDto> restore() {
+    if (!isEnabled() || !Files.isRegularFile(file)) {
+      return List.of();
+    }
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      ByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      byte[] magic = new byte[MAGIC.length];
+      in.get(magic);
+      if (!Arrays.equals(magic, MAGIC)) {
+        logger.warn("Ignoring {}: not a state snapshot", file);
+        return List.of();
+      }
+      long writtenAt = in.getLong();
+      long ageMs = System.currentTimeMillis() - writtenAt;
+      if (ageMs > maxAgeMs) {
+        logger.info("Ignoring state snapshot {}: {} s old", file, ageMs / 1000);
+        return List.of();
+      }
+      List<DeviceDto> devices = read(in);
+      logger.info(
+          "Restored state snapshot {} ({} s old, {} devices)", file, ageMs / 1000, devices.size());
+      return devices;
+    } catch (Exception e) {
+      logger.error("Failed to restore state snapshot {}", file, e);
+      return List.of();
+    }
+  }
+
+  private void write(DataOutputStream out) throws IOException {
+    out.write(MAGIC);
+    out.writeLong(System.currentTimeMillis());
+
+    List<DeviceStateSnapshot> devices = realtimeStateCache.getAll();
+    out.writeInt(devices.size());
+    for (DeviceStateSnapshot device : devices) {
+      out.writeLong(device.deviceId());
+      writeString(out, device.mqttPrefix());
+      writeString(out, device.lastEventJson());
+      writeString(out, device.controlState() != null ? device.controlState().name() : null);
+      writeTime(out, device.balancerDisabledAt());
+    }
+
+    Map<String, SystemStateDto> states = new HashMap<>(systemStateCache.getStateCache());
+    out.writeInt(states.size());
+    for (Map.Entry<String, SystemStateDto> entry : states.entrySet()) {
+      writeString(out, entry.getKey());
+      writeBytes(out, objectMapper.writeValueAsBytes(entry.getValue()));
+    }
+
+    Map<String, Boolean> grid = new HashMap<>(systemStateCache.getGridStatusCache());
+    out.writeInt(grid.size());
+    for (Map.Entry<String, Boolean> entry : grid.entrySet()) {
+      writeString(out, entry.getKey());
+      out.writeBoolean(entry.getValue());
+    }
+
+    Map<String, BlackoutSession> sessions = new HashMap<>(systemStateCache.getBlackoutSessions());
+    out.writeInt(sessions.size());
+    for (Map.Entry<String, BlackoutSession> entry : sessions.entrySet()) {
+      BlackoutSession session = entry.getValue();
+      writeString(out, entry.getKey());
+      out.writeLong(session.getPowerMonitorId() != null ? session.getPowerMonitorId() : NO_ID);
+      out.writeDouble(session.getStartEnergy() != null ? session.getStartEnergy() : Double.NaN);
+      writeTime(out, session.getStartTime());
+    }
+
+    Map<String, LocalDateTime> cooldowns = balancingService.getOverloadCooldowns();
+    out.writeInt(cooldowns.size());
+    for (Map.Entry<String, LocalDateTime> entry : cooldowns.entrySet()) {
+      writeString(out, entry.getKey());
+      writeTime(out, entry.getValue());
+    }
+  }
+
+  private List<DeviceDto> read(ByteBuffer in) throws IOException {
+    int deviceCount = in.getInt();
+    List<DeviceStateSnapshot> devices = new ArrayList<>(deviceCount);
+    for (int i = 0; i < deviceCount; i++) {
+      long deviceId = in.getLong();
+      String mqttPrefix = readString(in);
+      String lastEventJson = readString(in);
+      String controlState = readString(in);
+      devices.add(
+          new DeviceStateSnapshot(
+              deviceId,
+              mqttPrefix,
+              null,
+              null,
+              null,
+              lastEventJson,
+              controlState != null
+                  ? DeviceControlState.valueOf(controlState)
+                  : DeviceControlState.ENABLED,
+              readTime(in)));
+    }
+
+    int stateCount = in.getInt();
+    Map<String, SystemStateDto> states = new LinkedHashMap<>();
+    for (int i = 0; i < stateCount; i++) {
+      String monitorPrefix = readString(in);
+      states.put(monitorPrefix, objectMapper.readValue(readBytes(in), SystemStateDto.class));
+    }
+
+    int gridCount = in.getInt();
+    Map<String, Boolean> grid = new HashMap<>();
+    for (int i = 0; i < gridCount; i++) {
+      grid.put(readString(in), in.get() != 0);
+    }
+
+    int sessionCount = in.getInt();
+    Map<String, BlackoutSession> sessions = new HashMap<>();
+    for (int i = 0; i < sessionCount; i++) {
+      String monitorPrefix = readString(in);
+      long monitorId = in.getLong();
+      double startEnergy = in.getDouble();
+      sessions.put(
+          monitorPrefix,
+          new BlackoutSession(
+              monitorId != NO_ID ? monitorId : null,
+              Double.isNaN(startEnergy) ? null : startEnergy,
+              readTime(in)));
+    }
+
+    int cooldownCount = in.getInt();
+    Map<String, LocalDateTime> cooldowns = new HashMap<>();
+    for (int i = 0; i < cooldownCount; i++) {
+      String monitorPrefix = readString(in);
+      LocalDateTime time = readTime(in);
+      if (time != null) {
+        cooldowns.put(monitorPrefix, time);
+      }
+    }
+
+    // Everything is parsed before the caches are touched, so a corrupt file restores nothing
+    realtimeStateCache.restore(devices);
+    systemStateCache.restoreSnapshot(states, grid, sessions);
+    balancingService.restoreOverloadCooldowns(cooldowns);
+
+    List<DeviceDto> knownDevices = new ArrayList<>();
+    for (SystemStateDto state : states.values()) {
+      if (state.getDevices() != null) {
+        knownDevices.addAll(state.getDevices());
+      }
+    }
+    return knownDevices;
+  }
+
+  private static void writeString(DataOutputStream out, String value) throws IOException {
+    writeBytes(out, value != null ? value.getBytes(StandardCharsets.UTF_8) : null);
+  }
+
+  private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+    if (bytes == null) {
+      out.writeInt(-1);
+      return;
+    }
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static void writeTime(DataOutputStream out, LocalDateTime time) throws IOException {
+    out.writeLong(time != null ? time.atZone(ZONE).toInstant().toEpochMilli() : NO_TIME);
+  }
+
+  private static String readString(ByteBuffer in) {
+    byte[] bytes = readBytes(in);
+    return bytes != null ? new String(bytes, StandardCharsets.UTF_8) : null;
+  }
+
+  private static byte[] readBytes(ByteBuffer in) {
+    int length = in.getInt();
+    if (length < 0) {
+      return null;
+    }
+    byte[] bytes = new byte[length];
+    in.get(bytes);
+    return bytes;
+  }
+
+  private static LocalDateTime readTime(ByteBuffer in) {
+    long millis = in.getLong();
+    return millis != NO_TIME ? LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZONE) : null;
+  }
+}
@@ -0,0 +1,170 @@
+package com.yh.sbps.device.service;
+
+import com.yh.sbps.device.repository.SystemLogRollupRepository;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.Optional;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Keeps {@code system_logs} bounded. Every run aggregates the raw rows of the minutes completed
+ * since the last run into {@code system_log_rollup_minute}, and completed hours into {@code
+ * system_log_rollup_hour}. It then purges raw rows and minute buckets past their retention. Where
+ * to continue is read back from the rollup tables and the next raw row, so no extra state is kept.
+ *
+ * <p>Raw rows are only purged once they are covered by a minute bucket. They are deleted in small
+ * batches, each in its own short transaction, with a pause in between.
+ *
+ * <p>Only the {@code scheduling.leader} replica runs the rollup; two replicas rolling up the same
+ * minutes at once would write every bucket twice.
+ */
+@Service
+public class SystemLogRollupService {
+
+  private static final Logger logger = LoggerFactory.getLogger(SystemLogRollupService.class);
+  // Rows are timestamped before they are saved; leave time for late ones to land
+  private static final long LATENESS_MINUTES = 1;
+
+  private final SystemLogRollupRepository rollupRepository;
+  private final TransactionTemplate transactionTemplate;
+  private final long maxWindowHours;
+  private final int rawRetentionDays;
+  private final int minuteRetentionDays;
+  private final int purgeBatchSize;
+  private final int purgeMaxBatches;
+  private final long purgePauseMs;
+  private final boolean leader;
+
+  public SystemLogRollupService(
+      SystemLogRollupRepository rollupRepository,
+      PlatformTransactionManager transactionManager,
+      @Value("${system-log.rollup.max-window-hours:24}") long maxWindowHours,
+      @Value("${system-log.retention.raw-days:30}") int rawRetentionDays,
+      @Value("${system-log.retention.minute-rollup-days:90}") int minuteRetentionDays,
+      @Value("${system-log.retention.purge-batch-size:5000}") int purgeBatchSize,
+      @Value("${system-log.retention.purge-max-batches:100}") int purgeMaxBatches,
+      @Value("${system-log.retention.purge-pause-ms:50}") long purgePauseMs,
+      @Value("${scheduling.leader:true}") boolean leader) {
+    this.rollupRepository = rollupRepository;
+    this.transactionTemplate = new TransactionTemplate(transactionManager);
+    this.maxWindowHours = Math.max(1, maxWindowHours);
+    this.rawRetentionDays = rawRetentionDays;
+    this.minuteRetentionDays = minuteRetentionDays;
+    this.purgeBatchSize = Math.max(1, purgeBatchSize);
+    this.purgeMaxBatches = Math.max(1, purgeMaxBatches);
+    this.purgePauseMs = purgePauseMs;
+    this.leader = leader;
+  }
+
+  @Scheduled(
+      fixedDelayString = "${system-log.rollup.interval-ms:60000}",
+      initialDelayString = "${system-log.rollup.interval-ms:60000}")
+  public void run() {
+    if (!leader) {
+      return;
+    }
+    try {
+      run(LocalDateTime.now());
+    } catch (Exception e) {
+      logger.error("System log rollup failed", e);
+    }
+  }
+
+  void run(LocalDateTime now) {
+    LocalDateTime minutesDone = rollUpMinutes(now);
+    LocalDateTime hoursDone = minutesDone != null ? rollUpHours(minutesDone) : null;
+    purge(now, minutesDone, hoursDone);
+  }
+
+  /** @return the end of the rolled up minute range, null if there is nothing to roll up yet */
+  LocalDateTime rollUpMinutes(LocalDateTime now) {
+    Optional<LocalDateTime> latest = rollupRepository.findLatestMinuteBucket();
+    LocalDateTime resume = latest.map(bucket -> bucket.plusMinutes(1)).orElse(null);
+    // Start at the next raw row rather than the next minute, so a gap in the logs longer than the
+    // window is skipped instead of yielding the same empty window on every run
+    Optional<LocalDateTime> next =
+        resume != null
+            ? rollupRepository.findOldestLogTimeFrom(resume)
+            : rollupRepository.findOldestLogTime();
+    if (next.isEmpty()) {
+      return resume;
+    }
+    LocalDateTime from = next.get().truncatedTo(ChronoUnit.MINUTES);
+    LocalDateTime completed = now.truncatedTo(ChronoUnit.MINUTES).minusMinutes(LATENESS_MINUTES);
+    LocalDateTime to = min(completed, from.plusHours(maxWindowHours));
+    if (!to.isAfter(from)) {
+      return from;
+    }
+    Integer buckets = transactionTemplate.execute(tx -> rollupRepository.rollUpMinutes(from, to));
+    logger.debug("Rolled up system logs {} .. {} into {} minute bucket(s)", from, to, buckets);
+    return to;
+  }
+
+  /** Rolls up the hours completed before {@code minutesDone}; returns the end of that range. */
+  LocalDateTime rollUpHours(LocalDateTime minutesDone) {
+    Optional<LocalDateTime> latest = rollupRepository.findLatestHourBucket();
+    Optional<LocalDateTime> from =
+        latest.isPresent()
+            ? latest.map(bucket -> bucket.plusHours(1))
+            : rollupRepository.findOldestMinuteBucket().map(t -> t.truncatedTo(ChronoUnit.HOURS));
+    if (from.isEmpty()) {
+      return null;
+    }
+    LocalDateTime to = minutesDone.truncatedTo(ChronoUnit.HOURS);
+    if (!to.isAfter(from.get())) {
+      return from.get();
+    }
+    Integer buckets =
+        transactionTemplate.execute(tx -> rollupRepository.rollUpHours(from.get(), to));
+    logger.debug(
+        "Rolled up minute buckets {} .. {} into {} hour bucket(s)", from.get(), to, buckets);
+    return to;
+  }
+
+  private void purge(LocalDateTime now, LocalDateTime minutesDone, LocalDateTime hoursDone) {
+    if (rawRetentionDays > 0 && minutesDone != null) {
+      LocalDateTime cutoff = min(now.minusDays(rawRetentionDays), minutesDone);
+      int deleted = 0;
+      for (int batch = 0; batch < purgeMaxBatches; batch++) {
+        int rows = rollupRepository.deleteLogsBefore(cutoff, purgeBatchSize);
+        deleted += rows;
+        if (rows < purgeBatchSize || !pause()) {
+          break;
+        }
+      }
+      if (deleted > 0) {
+        logger.info("Purged {} system log row(s) older than {}", deleted, cutoff);
+      }
+    }
+    if (minuteRetentionDays > 0 && hoursDone != null) {
+      LocalDateTime cutoff = min(now.minusDays(minuteRetentionDays), hoursDone);
+      int deleted = rollupRepository.deleteMinuteRollupsBefore(cutoff);
+      if (deleted > 0) {
+        logger.info("Purged {} minute rollup(s) older than {}", deleted, cutoff);
+      }
+    }
+  }
+
+  private boolean pause() {
+    if (purgePauseMs <= 0) {
+      return true;
+    }
+    try {
+      Thread.sleep(purgePauseMs);
+      return true;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+
+  private static LocalDateTime min(LocalDateTime a, LocalDateTime b) {
+    return a.isBefore(b) ? a : b;
+  }
+}
@@ -1,17 +1,23 @@
 package com.yh.sbps.device.service;
 
-import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.yh.sbps.device.dto.DeviceDto;
+import com.yh.sbps.device.dto.DeviceStateSnapshot;
+import com.yh.sbps.device.dto.DeviceTelemetry;
 import com.yh.sbps.device.dto.DeviceType;
+import com.yh.sbps.device.dto.SystemLogDto;
 import com.yh.sbps.device.dto.SystemStateDto;
-import com.yh.sbps.device.entity.DeviceStatus;
 import com.yh.sbps.device.entity.SystemLog;
 import com.yh.sbps.device.repository.SystemLogRepository;
+import java.time.LocalDateTime;
+import java.util.List;
 import java.util.Optional;
+import java.util.function.Consumer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
@@ -19,22 +25,36 @@ import org.springframework.stereotype.Service;
 public class SystemLogService {
 
   private static final Logger logger = LoggerFactory.getLogger(SystemLogService.class);
-  private final SystemLogRepository logRepository;
+  private static final int HISTORY_CHUNK_SIZE = 500;
+  private final SystemLogWriter logWriter;
+  private final SystemLogRepository systemLogRepository;
   private final SystemStateCache systemStateCache;
   private final DeviceRealtimeStateCache deviceRealtimeStateCache;
+  private final int maxHistoryLimit;
+  private final boolean leader;
   private final ObjectMapper objectMapper = new ObjectMapper();
 
   public SystemLogService(
-      SystemLogRepository logRepository,
+      SystemLogWriter logWriter,
+      SystemLogRepository systemLogRepository,
       SystemStateCache systemStateCache,
-      DeviceRealtimeStateCache deviceRealtimeStateCache) {
-    this.logRepository = logRepository;
+      DeviceRealtimeStateCache deviceRealtimeStateCache,
+      @Value("${system-log.history.max-limit:10000}") int maxHistoryLimit,
+      @Value("${scheduling.leader:true}") boolean leader) {
+    this.logWriter = logWriter;
+    this.systemLogRepository = systemLogRepository;
     this.systemStateCache = systemStateCache;
     this.deviceRealtimeStateCache = deviceRealtimeStateCache;
+    this.maxHistoryLimit = Math.max(1, maxHistoryLimit);
+    this.leader = leader;
   }
 
   @Scheduled(fixedRate = 30000)
   public void logPeriodicState() {
+    // Every replica tracks the same monitors; one of them writing the rows is enough
+    if (!leader) {
+      return;
+    }
     systemStateCache.getStateCache().keySet().forEach(prefix -> logSystemState(prefix, null));
   }
 
@@ -42,6 +62,53 @@ public class SystemLogService {
     logSystemState(mqttPrefix, event);
   }
 
+  /**
+   * Passes up to {@code limit} log entries of a monitor in {@code [from, to)} to {@code consumer},
+   * oldest first. Pages continue after the {@code (timestamp, id)} of the last entry of the
+   * previous page; without a cursor the page starts at {@code from}. Rows are read in chunks of
+   * {@value #HISTORY_CHUNK_SIZE}, each with its own short query, and the connection goes back to
+   * the pool before the consumer writes a chunk out, so a slow reader never holds one.
+   *
+   * @return the number of entries passed to the consumer
+   */
+  public int streamHistory(
+      String mqttPrefix,
+      LocalDateTime from,
+      LocalDateTime to,
+      LocalDateTime afterTimestamp,
+      Long afterId,
+      int limit,
+      Consumer<SystemLogDto> consumer) {
+    LocalDateTime cursorTimestamp = from;
+    long cursorId = Long.MIN_VALUE;
+    if (afterTimestamp != null && !afterTimestamp.isBefore(from)) {
+      cursorTimestamp = afterTimestamp;
+      cursorId = afterId != null ? afterId : Long.MAX_VALUE;
+    }
+    int count = 0;
+    while (count < limit) {
+      int chunkSize = Math.min(HISTORY_CHUNK_SIZE, limit - count);
+      List<SystemLogDto> chunk =
+          systemLogRepository.findHistory(
+              mqttPrefix, cursorTimestamp, cursorId, to, Limit.of(chunkSize));
+      for (SystemLogDto row : chunk) {
+        consumer.accept(row);
+        count++;
+      }
+      if (chunk.size() < chunkSize) {
+        break;
+      }
+      SystemLogDto last = chunk.get(chunk.size() - 1);
+      cursorTimestamp = last.getTimestamp();
+      cursorId = last.getId();
+    }
+    return count;
+  }
+
+  public int getMaxHistoryLimit() {
+    return maxHistoryLimit;
+  }
+
   private void logSystemState(String mqttPrefix, String event) {
     try {
       Optional<SystemStateDto> stateOpt = systemStateCache.getState(mqttPrefix);
@@ -58,24 +125,19 @@ public class SystemLogService {
 
       if (state.getDevices() != null) {
         for (DeviceDto device : state.getDevices()) {
-          Optional<DeviceStatus> rtStatusOpt = deviceRealtimeStateCache.get(device.getId());
+          Optional<DeviceStateSnapshot> snapshotOpt = deviceRealtimeStateCache.get(device.getId());
 
-          if (rtStatusOpt.isPresent()) {
-            DeviceStatus rtStatus = rtStatusOpt.get();
-            JsonNode jsonNode = parseJson(rtStatus.getLastStatusJson());
+          if (snapshotOpt.isPresent()) {
+            DeviceTelemetry telemetry = snapshotOpt.get().telemetry();
 
             if (device.getDeviceType() == DeviceType.POWER_MONITOR) {
-              if (jsonNode != null && jsonNode.has("apower")) {
-                totalLoad = jsonNode.get("apower").asDouble(0.0);
+              if (telemetry != null && telemetry.hasApower()) {
+                totalLoad = telemetry.apower();
               }
             }
 
             if (device.getDeviceType() == DeviceType.SWITCHABLE_APPLIANCE) {
-              boolean isOn = false;
-              if (jsonNode != null && jsonNode.has("output")) {
-                isOn = jsonNode.get("output").asBoolean();
-              }
-
+              boolean isOn = telemetry != null && telemetry.hasOutput() && telemetry.output();
               devicesStatusNode.put(device.getName(), isOn ? "ON" : "OFF");
             }
           }
@@ -85,7 +147,7 @@ public class SystemLogService {
       SystemLog log =
           new SystemLog(mqttPrefix, gridOnline, totalLoad, devicesStatusNode.toString(), event);
 
-      logRepository.save(log);
+      logWriter.enqueue(log);
       logger.debug(
           "Logged system state for {}: Grid={}, Load={}W", mqttPrefix, gridOnline, totalLoad);
 
@@ -93,13 +155,4 @@ public class SystemLogService {
       logger.error("Failed to log system state for {}", mqttPrefix, e);
     }
   }
-
-  private JsonNode parseJson(String json) {
-    if (json == null) return null;
-    try {
-      return objectMapper.readTree(json);
-    } catch (Exception e) {
-      return null;
-    }
-  }
 }
@@ -0,0 +1,135 @@
+package com.yh.sbps.device.service;
+
+import com.yh.sbps.device.entity.SystemLog;
+import com.yh.sbps.device.repository.SystemLogRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Saves {@link SystemLog} entries off the caller's thread. Entries go to a bounded queue and a
+ * single writer thread saves whatever has accumulated in one transaction, so Hibernate sends them
+ * as JDBC batches (ids come from a pooled sequence). A full queue drops the entry instead of
+ * blocking the balancer.
+ */
+@Component
+public class SystemLogWriter {
+
+  private static final Logger logger = LoggerFactory.getLogger(SystemLogWriter.class);
+
+  private final SystemLogRepository logRepository;
+  private final TransactionTemplate transactionTemplate;
+  private final BlockingQueue<SystemLog> queue;
+  private final int batchSize;
+  private final long pollMs;
+  private volatile boolean running;
+  private Thread writer;
+
+  private final LongAdder writtenLogs = new LongAdder();
+  private final LongAdder droppedLogs = new LongAdder();
+  private final LongAdder failedLogs = new LongAdder();
+
+  public SystemLogWriter(
+      SystemLogRepository logRepository,
+      PlatformTransactionManager transactionManager,
+      @Value("${system-log.writer.queue-capacity:10000}") int queueCapacity,
+      @Value("${system-log.writer.batch-size:200}") int batchSize,
+      @Value("${system-log.writer.poll-ms:1000}") long pollMs) {
+    this.logRepository = logRepository;
+    this.transactionTemplate = new TransactionTemplate(transactionManager);
+    this.queue = new ArrayBlockingQueue<>(Math.max(1, queueCapacity));
+    this.batchSize = Math.max(1, batchSize);
+    this.pollMs = Math.max(1, pollMs);
+  }
+
+  @PostConstruct
+  public void start() {
+    running = true;
+    writer = new Thread(this::runWriter, "system-log-writer");
+    writer.setDaemon(true);
+    writer.start();
+  }
+
+  /** Stops the writer once the queue is written out. */
+  @PreDestroy
+  public void stop() {
+    running = false;
+    if (writer != null) {
+      writer.interrupt();
+      try {
+        writer.join(TimeUnit.SECONDS.toMillis(5));
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  public void enqueue(SystemLog log) {
+    if (!queue.offer(log)) {
+      droppedLogs.increment();
+      logger.warn("System log queue full, dropping entry for {}", log.getMqttPrefix());
+    }
+  }
+
+  /** Writes everything queued so far on the calling thread. */
+  public void flush() {
+    List<SystemLog> batch = new ArrayList<>();
+    while (queue.drainTo(batch, batchSize) > 0) {
+      write(batch);
+      batch.clear();
+    }
+  }
+
+  public long getWrittenLogs() {
+    return writtenLogs.sum();
+  }
+
+  public long getDroppedLogs() {
+    return droppedLogs.sum();
+  }
+
+  public long getFailedLogs() {
+    return failedLogs.sum();
+  }
+
+  private void runWriter() {
+    List<SystemLog> batch = new ArrayList<>(batchSize);
+    while (running) {
+      try {
+        SystemLog first = queue.poll(pollMs, TimeUnit.MILLISECONDS);
+        if (first == null) {
+          continue;
+        }
+        batch.add(first);
+        queue.drainTo(batch, batchSize - 1);
+        write(batch);
+        batch.clear();
+      } catch (InterruptedException e) {
+        break;
+      }
+    }
+    flush();
+  }
+
+  private void write(List<SystemLog> batch) {
+    try {
+      transactionTemplate.executeWithoutResult(tx -> logRepository.saveAll(batch));
+      writtenLogs.add(batch.size());
+      logger.debug("Wrote {} system log entries", batch.size());
+    } catch (Exception e) {
+      failedLogs.add(batch.size());
+      logger.error("Failed to write {} system log entries", batch.size(), e);
+    }
+  }
+}
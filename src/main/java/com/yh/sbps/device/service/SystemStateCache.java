@@ -1,12 +1,10 @@
 package com.yh.sbps.device.service;
 
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.yh.sbps.device.dto.BlackoutStatsDto;
 import com.yh.sbps.device.dto.DeviceDto;
+import com.yh.sbps.device.dto.DeviceTelemetry;
 import com.yh.sbps.device.dto.DeviceType;
 import com.yh.sbps.device.dto.SystemStateDto;
-import com.yh.sbps.device.entity.DeviceStatus;
 import com.yh.sbps.device.integration.ApiServiceClient;
 import java.time.Duration;
 import java.time.LocalDateTime;
@@ -29,15 +27,14 @@ public class SystemStateCache {
   private static final Logger logger = LoggerFactory.getLogger(SystemStateCache.class);
   private final ApiServiceClient apiServiceClient;
   private final DeviceRealtimeStateCache deviceRealtimeStateCache;
-  private final ObjectMapper objectMapper = new ObjectMapper();
   // key - mqttPrefix of monitor
   @Getter private final Map<String, SystemStateDto> stateCache = new ConcurrentHashMap<>();
   // key - mqttPrefix of any device, value - mqttPrefix of monitor
   @Getter private final Map<String, String> deviceToMonitorMap = new ConcurrentHashMap<>();
   // key - mqttPrefix of monitor, value - grid status
-  private final Map<String, Boolean> gridStatusCache = new ConcurrentHashMap<>();
+  @Getter private final Map<String, Boolean> gridStatusCache = new ConcurrentHashMap<>();
     // key - mqttPrefix of monitor, value - blackout sessions
-  private final Map<String, BlackoutSession> blackoutSessions = new ConcurrentHashMap<>();
+  @Getter private final Map<String, BlackoutSession> blackoutSessions = new ConcurrentHashMap<>();
   @Setter ShellyService shellyService; //circular dependency
 
   public SystemStateCache(
@@ -90,6 +87,24 @@ public class SystemStateCache {
     }
   }
 
+  /**
+   * Loads monitor states saved by {@link StateSnapshotService}. Monitors that are already cached,
+   * e.g. by a refresh that won the race, keep their state.
+   */
+  public void restoreSnapshot(
+      Map<String, SystemStateDto> states,
+      Map<String, Boolean> gridStatuses,
+      Map<String, BlackoutSession> sessions) {
+    gridStatuses.forEach(gridStatusCache::putIfAbsent);
+    sessions.forEach(blackoutSessions::putIfAbsent);
+    states.forEach(
+        (monitorPrefix, state) -> {
+          if (stateCache.putIfAbsent(monitorPrefix, state) == null) {
+            updateDeviceToMonitorMap(monitorPrefix, state);
+          }
+        });
+  }
+
   public void removeDevice(String deviceMqttPrefix) {
     logger.info("Removing device with prefix: {} from cache", deviceMqttPrefix);
     String monitorPrefix = deviceToMonitorMap.remove(deviceMqttPrefix);
@@ -119,17 +134,11 @@ public class SystemStateCache {
   }
 
   private Double getDeviceTotalEnergy(Long deviceId) {
-    Optional<DeviceStatus> statusOpt = deviceRealtimeStateCache.get(deviceId);
-    if (statusOpt.isEmpty() || statusOpt.get().getLastStatusJson() == null) return null;
-    try {
-      JsonNode node = objectMapper.readTree(statusOpt.get().getLastStatusJson());
-      if (node.has("aenergy") && node.get("aenergy").has("total")) {
-        return node.get("aenergy").get("total").asDouble();
-      }
-    } catch (Exception e) {
-      logger.error("Error parsing energy", e);
-    }
-    return null;
+    return deviceRealtimeStateCache
+        .getTelemetry(deviceId)
+        .filter(DeviceTelemetry::hasEnergyTotal)
+        .map(DeviceTelemetry::energyTotal)
+        .orElse(null);
   }
 
   public BlackoutStatsDto getBlackoutStats(String monitorMqttPrefix) {
@@ -226,7 +235,7 @@ public class SystemStateCache {
   @Setter
   @AllArgsConstructor
   @NoArgsConstructor
-  private static class BlackoutSession {
+  static class BlackoutSession {
     private Long powerMonitorId;
     private Double startEnergy;
     private LocalDateTime startTime;
@@ -1,9 +1,8 @@
 package com.yh.sbps.device.service;
 
-import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.yh.sbps.device.dto.DeviceDto;
+import com.yh.sbps.device.dto.DeviceTelemetry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.integration.mqtt.support.MqttHeaders;
@@ -16,6 +15,12 @@ public class TasmotaMqttStrategy implements MqttProviderStrategy {
 
     private static final Logger logger = LoggerFactory.getLogger(TasmotaMqttStrategy.class);
 
+    private final TelemetryExtractor telemetryExtractor;
+
+    public TasmotaMqttStrategy(TelemetryExtractor telemetryExtractor) {
+        this.telemetryExtractor = telemetryExtractor;
+    }
+
     // Tasmota:
     // %prefix%/%topic%/%COMMAND% (%topic% - is mqttPrefix)
     // cmnd/mqtt_prefix/POWER (command)
@@ -44,6 +49,11 @@ public class TasmotaMqttStrategy implements MqttProviderStrategy {
         return null;
     }
 
+    @Override
+    public MqttMessageKind getMessageKind(String topic) {
+        return topic.endsWith("/LWT") ? MqttMessageKind.ONLINE : MqttMessageKind.STATUS;
+    }
+
     @Override
     public Message<String> createToggleCommand(ObjectMapper objectMapper, String deviceMqttPrefix, boolean on) {
         String payload = on ? "ON" : "OFF";
@@ -63,50 +73,21 @@ public class TasmotaMqttStrategy implements MqttProviderStrategy {
     }
 
     @Override
-    public boolean handleDeviceStatus(String topic, JsonNode payload, DeviceDto device, ShellyService service) {
+    public boolean handleDeviceStatus(String topic, String payload, DeviceDto device, ShellyService service) {
         try {
-            JsonNode energyNode = null;
-            if (topic.endsWith("/SENSOR") && payload.has("ENERGY")) {
-                energyNode = payload.get("ENERGY");
-            } else if (topic.endsWith("/STATE") && payload.has("ENERGY")) {
-                energyNode = payload.get("ENERGY");
-            }
-
             // Tasmota JSON: { "ENERGY": { "Power": 15.0, "Voltage": 230.0, ... } }
             // Or { "POWER": "ON" }
-            ObjectNode shellyLikeStatus = new ObjectMapper().createObjectNode();
-            boolean statusChanged = false;
-
-            if (energyNode != null) {
-                if (energyNode.has("Power")) {
-                    shellyLikeStatus.put("apower", energyNode.get("Power").asDouble());
-                    statusChanged = true;
-                }
-                if (energyNode.has("Voltage")) {
-                    shellyLikeStatus.put("voltage", energyNode.get("Voltage").asDouble());
-                    statusChanged = true;
-                }
-                if (energyNode.has("Current")) {
-                    shellyLikeStatus.put("current", energyNode.get("Current").asDouble());
-                    statusChanged = true;
-                }
-            }
-
+            boolean readEnergy = topic.endsWith("/SENSOR") || topic.endsWith("/STATE");
             // Status ON/OFF can come with STATE or RESULT
-            String powerState = null;
-            if (topic.endsWith("/STATE") && payload.has("POWER")) {
-                powerState = payload.get("POWER").asText();
-            } else if (topic.endsWith("/RESULT") && payload.has("POWER")) {
-                powerState = payload.get("POWER").asText();
-            }
-
-            if (powerState != null) {
-                shellyLikeStatus.put("output", "ON".equalsIgnoreCase(powerState));
-                statusChanged = true;
+            boolean readPower = topic.endsWith("/STATE") || topic.endsWith("/RESULT");
+            if (!readEnergy && !readPower) {
+                return false;
             }
 
-            if (statusChanged) {
-                service.handleDeviceStatusInternal(device, shellyLikeStatus);
+            DeviceTelemetry telemetry = telemetryExtractor.extractTasmota(payload, readEnergy, readPower);
+            if (telemetry != null && !telemetry.isEmpty()) {
+                // Tasmota has no Shelly-shaped status document, the merged telemetry is stored instead
+                service.handleDeviceStatusInternal(device, topic, telemetry, null);
                 return true;
             }
 
@@ -117,7 +98,7 @@ public class TasmotaMqttStrategy implements MqttProviderStrategy {
     }
 
     @Override
-    public boolean handleDeviceEvent(String topic, JsonNode payload, DeviceDto device, ShellyService service) {
+    public boolean handleDeviceEvent(String topic, String payload, DeviceDto device, ShellyService service) {
         return false;
     }
 }
\ No newline at end of file
@@ -0,0 +1,75 @@
+package com.yh.sbps.device.service;
+
+import com.yh.sbps.device.dto.DeviceTelemetry;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Decides which status changes are worth persisting and pushing to the API service. A plug reports
+ * apower with sub-watt jitter several times a minute; only relay flips, power or voltage moves of
+ * at least the configured deadband, or a state silent for longer than {@code max-silence-ms} are
+ * propagated. Balancing is not affected, it runs on every sample.
+ */
+@Component
+public class TelemetryDeadbandFilter {
+
+  private final double powerWatts;
+  private final double voltageVolts;
+  private final long maxSilenceMs;
+  // key - mqttPrefix of device, value - last propagated state
+  private final Map<String, DeviceTelemetry> lastPropagated = new ConcurrentHashMap<>();
+
+  public TelemetryDeadbandFilter(
+      @Value("${device.deadband.power-watts:5}") double powerWatts,
+      @Value("${device.deadband.voltage-volts:2}") double voltageVolts,
+      @Value("${device.deadband.max-silence-ms:60000}") long maxSilenceMs) {
+    this.powerWatts = powerWatts;
+    this.voltageVolts = voltageVolts;
+    this.maxSilenceMs = maxSilenceMs;
+  }
+
+  /**
+   * Records the state as propagated if it differs enough from the last propagated one.
+   *
+   * @param state merged device state, as held by {@link DeviceRealtimeStateCache}
+   * @return true if the state should be persisted and sent to the API service
+   */
+  public boolean shouldPropagate(String mqttPrefix, DeviceTelemetry state) {
+    if (mqttPrefix == null) {
+      return true;
+    }
+    boolean[] propagate = new boolean[1];
+    lastPropagated.compute(
+        mqttPrefix,
+        (prefix, last) -> {
+          if (last == null || changed(last, state)) {
+            propagate[0] = true;
+            return state;
+          }
+          return last;
+        });
+    return propagate[0];
+  }
+
+  public void forget(String mqttPrefix) {
+    lastPropagated.remove(mqttPrefix);
+  }
+
+  public void clear() {
+    lastPropagated.clear();
+  }
+
+  private boolean changed(DeviceTelemetry last, DeviceTelemetry state) {
+    if (state.timestamp() - last.timestamp() >= maxSilenceMs) {
+      return true;
+    }
+    if ((state.fields() & ~last.fields()) != 0) {
+      return true; // A field we have not reported yet
+    }
+    return (state.hasOutput() && state.output() != last.output())
+        || (state.hasApower() && Math.abs(state.apower() - last.apower()) >= powerWatts)
+        || (state.hasVoltage() && Math.abs(state.voltage() - last.voltage()) >= voltageVolts);
+  }
+}
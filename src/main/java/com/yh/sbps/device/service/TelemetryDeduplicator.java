@@ -0,0 +1,79 @@
+package com.yh.sbps.device.service;
+
+import com.yh.sbps.device.dto.DeviceTelemetry;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Drops the second copy of a Shelly switch change. Shelly Gen2 publishes every change twice: on
+ * {@code status/switch:0} and as {@code NotifyStatus} on {@code events/rpc}. Neither copy carries
+ * a timestamp we can rely on across firmwares, so a sample is the duplicate if it arrives within
+ * the window on the other topic of the pair and every field it carries equals the last accepted
+ * sample of the device. Consecutive samples on the same topic are never dropped, so steady
+ * readings still reach balancing, and each accepted sample pairs with at most one duplicate.
+ */
+@Component
+public class TelemetryDeduplicator {
+
+  private final long windowMs;
+  // key - mqttPrefix of device, value - last accepted sample
+  private final Map<String, Accepted> lastAccepted = new ConcurrentHashMap<>();
+
+  public TelemetryDeduplicator(@Value("${device.dedup.window-ms:2000}") long windowMs) {
+    this.windowMs = windowMs;
+  }
+
+  /**
+   * Records the sample unless it is the other delivery of the last accepted one.
+   *
+   * @param topic the topic the sample arrived on
+   * @return true if the sample is a duplicate and should not be processed
+   */
+  public boolean isDuplicate(String mqttPrefix, String topic, DeviceTelemetry telemetry) {
+    if (windowMs <= 0 || mqttPrefix == null) {
+      return false;
+    }
+    boolean[] duplicate = new boolean[1];
+    lastAccepted.compute(
+        mqttPrefix,
+        (prefix, last) -> {
+          if (last != null
+              && !last.paired()
+              && !last.topic().equals(topic)
+              && repeats(last.telemetry(), telemetry)) {
+            duplicate[0] = true;
+            return new Accepted(last.topic(), last.telemetry(), true);
+          }
+          return new Accepted(topic, telemetry, false);
+        });
+    return duplicate[0];
+  }
+
+  public void forget(String mqttPrefix) {
+    lastAccepted.remove(mqttPrefix);
+  }
+
+  public void clear() {
+    lastAccepted.clear();
+  }
+
+  private boolean repeats(DeviceTelemetry last, DeviceTelemetry sample) {
+    if (sample.timestamp() - last.timestamp() > windowMs) {
+      return false;
+    }
+    // NotifyStatus often carries only the changed fields, so compare what the sample has
+    if ((sample.fields() & ~last.fields()) != 0) {
+      return false;
+    }
+    return (!sample.hasApower() || Double.compare(sample.apower(), last.apower()) == 0)
+        && (!sample.hasVoltage() || Double.compare(sample.voltage(), last.voltage()) == 0)
+        && (!sample.hasCurrent() || Double.compare(sample.current(), last.current()) == 0)
+        && (!sample.hasEnergyTotal()
+            || Double.compare(sample.energyTotal(), last.energyTotal()) == 0)
+        && (!sample.hasOutput() || sample.output() == last.output());
+  }
+
+  private record Accepted(String topic, DeviceTelemetry telemetry, boolean paired) {}
+}
@@ -0,0 +1,267 @@
+package com.yh.sbps.device.service;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.yh.sbps.device.dto.DeviceTelemetry;
+import java.io.IOException;
+import java.io.StringWriter;
+import org.springframework.stereotype.Component;
+
+/**
+ * Pulls the handful of fields balancing needs straight off the token stream of Shelly and Tasmota
+ * payloads. Everything else is skipped without building a {@code JsonNode} tree; the full status
+ * document is left to callers that persist or publish it.
+ */
+@Component
+public class TelemetryExtractor {
+
+  private static final String NOTIFY_STATUS = "NotifyStatus";
+
+  private final JsonFactory jsonFactory;
+
+  public TelemetryExtractor(ObjectMapper objectMapper) {
+    this.jsonFactory = objectMapper.getFactory();
+  }
+
+  /**
+   * Reads a Shelly switch status object, e.g. the payload of {@code <prefix>/status/switch:0}.
+   *
+   * @return the sample, or null if the payload is not a JSON object
+   */
+  public DeviceTelemetry extractShellyStatus(String payload) throws IOException {
+    try (JsonParser parser = jsonFactory.createParser(payload)) {
+      if (parser.nextToken() != JsonToken.START_OBJECT) {
+        return null;
+      }
+      TelemetryBuilder builder = new TelemetryBuilder();
+      readShellySwitch(parser, builder);
+      return builder.build();
+    }
+  }
+
+  /**
+   * Reads {@code params."switch:0"} of a Shelly {@code NotifyStatus} RPC event.
+   *
+   * @return the sample, or null for any other event or a status without apower
+   */
+  public DeviceTelemetry extractShellyNotifyStatus(String payload) throws IOException {
+    try (JsonParser parser = jsonFactory.createParser(payload)) {
+      if (parser.nextToken() != JsonToken.START_OBJECT) {
+        return null;
+      }
+      String method = null;
+      TelemetryBuilder builder = null;
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String name = parser.currentName();
+        JsonToken token = parser.nextToken();
+        if ("method".equals(name)) {
+          method = token == JsonToken.VALUE_STRING ? parser.getText() : null;
+          if (!NOTIFY_STATUS.equals(method)) {
+            return null; // Not a status notification, no need to read the rest
+          }
+        } else if ("params".equals(name) && token == JsonToken.START_OBJECT) {
+          while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String param = parser.currentName();
+            if (parser.nextToken() == JsonToken.START_OBJECT && "switch:0".equals(param)) {
+              builder = new TelemetryBuilder();
+              readShellySwitch(parser, builder);
+            } else {
+              parser.skipChildren();
+            }
+          }
+        } else {
+          parser.skipChildren();
+        }
+      }
+      boolean hasPower = builder != null && builder.has(DeviceTelemetry.APOWER);
+      return NOTIFY_STATUS.equals(method) && hasPower ? builder.build() : null;
+    }
+  }
+
+  /**
+   * Copies {@code params."switch:0"} of a Shelly RPC event as it was sent, every field included.
+   *
+   * @return the switch status object, or null if the event has none
+   */
+  public String extractShellyNotifyStatusJson(String payload) throws IOException {
+    try (JsonParser parser = jsonFactory.createParser(payload)) {
+      if (parser.nextToken() != JsonToken.START_OBJECT) {
+        return null;
+      }
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String name = parser.currentName();
+        JsonToken token = parser.nextToken();
+        if (!"params".equals(name) || token != JsonToken.START_OBJECT) {
+          parser.skipChildren();
+          continue;
+        }
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+          String param = parser.currentName();
+          if (parser.nextToken() == JsonToken.START_OBJECT && "switch:0".equals(param)) {
+            StringWriter out = new StringWriter(payload.length());
+            try (JsonGenerator generator = jsonFactory.createGenerator(out)) {
+              generator.copyCurrentStructure(parser);
+            }
+            return out.toString();
+          }
+          parser.skipChildren();
+        }
+      }
+      return null;
+    }
+  }
+
+  /**
+   * Reads a Tasmota telemetry payload: {@code {"ENERGY":{"Power":15.0,...}}} and/or {@code
+   * {"POWER":"ON"}}.
+   *
+   * @return the sample, or null if the payload is not a JSON object
+   */
+  public DeviceTelemetry extractTasmota(String payload, boolean readEnergy, boolean readPower)
+      throws IOException {
+    try (JsonParser parser = jsonFactory.createParser(payload)) {
+      if (parser.nextToken() != JsonToken.START_OBJECT) {
+        return null;
+      }
+      TelemetryBuilder builder = new TelemetryBuilder();
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String name = parser.currentName();
+        JsonToken token = parser.nextToken();
+        if (readEnergy && "ENERGY".equals(name) && token == JsonToken.START_OBJECT) {
+          readTasmotaEnergy(parser, builder);
+        } else if (readPower && "POWER".equals(name) && token == JsonToken.VALUE_STRING) {
+          builder.output("ON".equalsIgnoreCase(parser.getText()));
+        } else {
+          parser.skipChildren();
+        }
+      }
+      return builder.build();
+    }
+  }
+
+  // Parser must be positioned on the START_OBJECT of the switch status
+  private void readShellySwitch(JsonParser parser, TelemetryBuilder builder) throws IOException {
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String name = parser.currentName();
+      JsonToken token = parser.nextToken();
+      if (token == JsonToken.START_ARRAY
+          || (token == JsonToken.START_OBJECT && !"aenergy".equals(name))) {
+        parser.skipChildren();
+        continue;
+      }
+      switch (name) {
+        case "apower" -> {
+          if (token.isNumeric()) {
+            builder.apower(parser.getDoubleValue());
+          }
+        }
+        case "power" -> {
+          // Older firmware reports "power" instead of "apower"
+          if (token.isNumeric() && !builder.has(DeviceTelemetry.APOWER)) {
+            builder.apower(parser.getDoubleValue());
+          }
+        }
+        case "voltage" -> {
+          if (token.isNumeric()) {
+            builder.voltage(parser.getDoubleValue());
+          }
+        }
+        case "current" -> {
+          if (token.isNumeric()) {
+            builder.current(parser.getDoubleValue());
+          }
+        }
+        case "output" -> {
+          if (token.isBoolean()) {
+            builder.output(token == JsonToken.VALUE_TRUE);
+          }
+        }
+        case "aenergy" -> {
+          if (token == JsonToken.START_OBJECT) {
+            readShellyEnergy(parser, builder);
+          }
+        }
+        default -> {
+          // Scalar we do not need
+        }
+      }
+    }
+  }
+
+  private void readShellyEnergy(JsonParser parser, TelemetryBuilder builder) throws IOException {
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String name = parser.currentName();
+      JsonToken token = parser.nextToken();
+      if ("total".equals(name) && token.isNumeric()) {
+        builder.energyTotal(parser.getDoubleValue());
+      } else {
+        parser.skipChildren();
+      }
+    }
+  }
+
+  private void readTasmotaEnergy(JsonParser parser, TelemetryBuilder builder) throws IOException {
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String name = parser.currentName();
+      JsonToken token = parser.nextToken();
+      if (!token.isNumeric()) {
+        parser.skipChildren();
+        continue;
+      }
+      switch (name) {
+        case "Power" -> builder.apower(parser.getDoubleValue());
+        case "Voltage" -> builder.voltage(parser.getDoubleValue());
+        case "Current" -> builder.current(parser.getDoubleValue());
+        default -> {
+          // Not used for balancing
+        }
+      }
+    }
+  }
+
+  private static final class TelemetryBuilder {
+    private double apower;
+    private double voltage;
+    private double current;
+    private double energyTotal;
+    private boolean output;
+    private int fields;
+
+    private boolean has(int field) {
+      return (fields & field) != 0;
+    }
+
+    private void apower(double value) {
+      apower = value;
+      fields |= DeviceTelemetry.APOWER;
+    }
+
+    private void voltage(double value) {
+      voltage = value;
+      fields |= DeviceTelemetry.VOLTAGE;
+    }
+
+    private void current(double value) {
+      current = value;
+      fields |= DeviceTelemetry.CURRENT;
+    }
+
+    private void energyTotal(double value) {
+      energyTotal = value;
+      fields |= DeviceTelemetry.ENERGY_TOTAL;
+    }
+
+    private void output(boolean value) {
+      output = value;
+      fields |= DeviceTelemetry.OUTPUT;
+    }
+
+    private DeviceTelemetry build() {
+      return new DeviceTelemetry(
+          apower, voltage, current, energyTotal, output, fields, System.currentTimeMillis());
+    }
+  }
+}
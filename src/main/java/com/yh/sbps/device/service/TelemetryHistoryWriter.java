@@ -0,0 +1,172 @@
+package com.yh.sbps.device.service;
+
+import com.yh.sbps.device.dto.DeviceTelemetry;
+import com.yh.sbps.device.repository.DeviceTelemetryRepository;
+import com.yh.sbps.device.repository.DeviceTelemetrySample;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Appends every telemetry state to the {@code device_telemetry} history table off the ingest path.
+ * {@link #record} only offers the sample to a bounded queue; a single writer thread drains it every
+ * {@code flush-interval-ms} and loads it in chunks of {@code batch-size} rows (one {@code COPY}
+ * each on PostgreSQL). When the database falls behind, samples are dropped and counted rather
+ * than slowing down balancing.
+ *
+ * <p>Daily partitions are created {@code partitions-ahead} days in advance, and partitions older
+ * than {@code retention-days} are dropped, by the {@code scheduling.leader} replica only.
+ */
+@Component
+public class TelemetryHistoryWriter {
+
+  private static final Logger logger = LoggerFactory.getLogger(TelemetryHistoryWriter.class);
+
+  private final DeviceTelemetryRepository telemetryRepository;
+  private final boolean enabled;
+  private final BlockingQueue<DeviceTelemetrySample> queue;
+  private final int batchSize;
+  private final long flushIntervalMs;
+  private final int retentionDays;
+  private final int partitionsAhead;
+  private final boolean leader;
+  private volatile boolean running;
+  private Thread writer;
+
+  private final LongAdder writtenSamples = new LongAdder();
+  private final LongAdder droppedSamples = new LongAdder();
+  private final LongAdder failedSamples = new LongAdder();
+
+  public TelemetryHistoryWriter(
+      DeviceTelemetryRepository telemetryRepository,
+      @Value("${device.telemetry.enabled:true}") boolean enabled,
+      @Value("${device.telemetry.queue-capacity:100000}") int queueCapacity,
+      @Value("${device.telemetry.batch-size:5000}") int batchSize,
+      @Value("${device.telemetry.flush-interval-ms:1000}") long flushIntervalMs,
+      @Value("${device.telemetry.retention-days:30}") int retentionDays,
+      @Value("${device.telemetry.partitions-ahead:3}") int partitionsAhead,
+      @Value("${scheduling.leader:true}") boolean leader) {
+    this.telemetryRepository = telemetryRepository;
+    this.enabled = enabled;
+    this.queue = new ArrayBlockingQueue<>(Math.max(1, queueCapacity));
+    this.batchSize = Math.max(1, batchSize);
+    this.flushIntervalMs = Math.max(1, flushIntervalMs);
+    this.retentionDays = retentionDays;
+    this.partitionsAhead = Math.max(1, partitionsAhead);
+    this.leader = leader;
+  }
+
+  @PostConstruct
+  public void start() {
+    if (!enabled || running) {
+      return;
+    }
+    running = true;
+    writer = new Thread(this::runWriter, "telemetry-history-writer");
+    writer.setDaemon(true);
+    writer.start();
+  }
+
+  @PreDestroy
+  public void stop() {
+    running = false;
+    if (writer != null) {
+      writer.interrupt();
+      try {
+        writer.join(TimeUnit.SECONDS.toMillis(5));
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  /** Queues the state for the history table; never blocks. */
+  public void record(Long deviceId, DeviceTelemetry state) {
+    if (!enabled || deviceId == null || state == null || state.isEmpty()) {
+      return;
+    }
+    if (!queue.offer(new DeviceTelemetrySample(deviceId, state))) {
+      droppedSamples.increment();
+      if (droppedSamples.sum() % 10_000 == 1) {
+        logger.warn(
+            "Telemetry history queue full, {} sample(s) dropped so far", droppedSamples.sum());
+      }
+    }
+  }
+
+  /** Writes everything queued so far. */
+  public void flush() {
+    List<DeviceTelemetrySample> batch = new ArrayList<>(Math.min(batchSize, queue.size() + 1));
+    while (queue.drainTo(batch, batchSize) > 0) {
+      try {
+        telemetryRepository.insertBatch(batch);
+        writtenSamples.add(batch.size());
+      } catch (Exception e) {
+        // History is best effort; retrying would only grow the backlog
+        failedSamples.add(batch.size());
+        logger.error("Failed to write {} telemetry sample(s)", batch.size(), e);
+      }
+      batch.clear();
+    }
+  }
+
+  @Scheduled(
+      fixedDelayString = "${device.telemetry.maintenance-interval-ms:3600000}",
+      initialDelayString = "${device.telemetry.maintenance-interval-ms:3600000}")
+  public void maintainPartitions() {
+    // One replica maintains partitions for all; batches still create any partition they miss
+    if (!enabled || !leader) {
+      return;
+    }
+    try {
+      LocalDate today = LocalDate.now(ZoneOffset.UTC);
+      telemetryRepository.ensurePartitions(today, partitionsAhead + 1);
+      if (retentionDays > 0) {
+        int removed = telemetryRepository.deleteBefore(today.minusDays(retentionDays));
+        if (removed > 0) {
+          logger.info("Telemetry retention removed {} partition(s) or row(s)", removed);
+        }
+      }
+    } catch (Exception e) {
+      logger.error("Telemetry partition maintenance failed", e);
+    }
+  }
+
+  public long getWrittenSamples() {
+    return writtenSamples.sum();
+  }
+
+  public long getDroppedSamples() {
+    return droppedSamples.sum();
+  }
+
+  public long getFailedSamples() {
+    return failedSamples.sum();
+  }
+
+  private void runWriter() {
+    // Creates the partitions ahead; a batch still creates any it finds missing
+    maintainPartitions();
+    while (running) {
+      try {
+        Thread.sleep(flushIntervalMs);
+      } catch (InterruptedException e) {
+        break;
+      }
+      flush();
+    }
+    flush();
+  }
+}
@@ -1,5 +1,6 @@
 package com.yh.sbps.device.controller;
 
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.ArgumentMatchers.*;
 import static org.mockito.Mockito.*;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
@@ -7,14 +8,24 @@ import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
 import com.yh.sbps.device.dto.DeviceDto;
 import com.yh.sbps.device.dto.DeviceProvider;
+import com.yh.sbps.device.dto.DeviceStatusDto;
 import com.yh.sbps.device.dto.DeviceType;
+import com.yh.sbps.device.dto.PowerBucketDto;
+import com.yh.sbps.device.dto.PowerSampleDto;
 import com.yh.sbps.device.entity.DeviceStatus.DeviceControlState;
+import com.yh.sbps.device.service.DeviceRealtimeStateCache;
 import com.yh.sbps.device.service.DeviceStatusService;
+import com.yh.sbps.device.service.DeviceStatusWriteBehind;
+import com.yh.sbps.device.service.MqttIngestPipeline;
 import com.yh.sbps.device.service.ShellyService;
 import com.yh.sbps.device.service.SystemStateCache;
 import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
@@ -22,8 +33,11 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
 import org.springframework.test.web.servlet.setup.MockMvcBuilders;
 
 @ExtendWith(MockitoExtension.class)
@@ -37,13 +51,24 @@ class DeviceControllerTest {
   @Mock private ShellyService shellyService;
   @Mock private DeviceStatusService deviceStatusService;
   @Mock private SystemStateCache systemStateCache;
+  @Mock private MqttIngestPipeline mqttIngestPipeline;
+  @Mock private DeviceRealtimeStateCache realtimeStateCache;
+  @Mock private DeviceStatusWriteBehind deviceStatusWriteBehind;
 
   private DeviceDto testDevice;
 
   @BeforeEach
   void setUp() {
     objectMapper = new ObjectMapper();
-    controller = new DeviceController(shellyService, deviceStatusService, systemStateCache);
+    controller =
+        new DeviceController(
+            shellyService,
+            deviceStatusService,
+            systemStateCache,
+            mqttIngestPipeline,
+            realtimeStateCache,
+            deviceStatusWriteBehind,
+            objectMapper);
     mockMvc = MockMvcBuilders.standaloneSetup(controller).build();
 
     testDevice =
@@ -194,4 +219,115 @@ class DeviceControllerTest {
     // Act & Assert
     mockMvc.perform(get("/api/device/plug/1/events")).andExpect(status().isNotFound());
   }
+
+  @Test
+  void testGetHistory_ReturnsRecentSamples() throws Exception {
+    // Arrange
+    when(realtimeStateCache.getHistory(eq(1L), anyLong()))
+        .thenReturn(
+            List.of(new PowerSampleDto(1000L, 150.5, 230.0), new PowerSampleDto(2000L, 0.0, null)));
+
+    // Act & Assert
+    mockMvc
+        .perform(get("/api/device/plug/1/history").param("minutes", "5"))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.length()").value(2))
+        .andExpect(jsonPath("$[0].apower").value(150.5))
+        .andExpect(jsonPath("$[1].timestamp").value(2000));
+  }
+
+  @Test
+  void testGetHistoryBuckets() throws Exception {
+    // Arrange
+    when(realtimeStateCache.getHistoryBuckets(eq(1L), anyLong(), eq(30_000L)))
+        .thenReturn(List.of(new PowerBucketDto(0L, 3, 100.0, 300.0, 200.0)));
+
+    // Act & Assert
+    mockMvc
+        .perform(get("/api/device/plug/1/history/buckets").param("bucketSeconds", "30"))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$[0].samples").value(3))
+        .andExpect(jsonPath("$[0].avgPower").value(200.0));
+
+    mockMvc
+        .perform(get("/api/device/plug/1/history/buckets").param("bucketSeconds", "0"))
+        .andExpect(status().isBadRequest());
+  }
+
+  @Test
+  void testGetAllStatuses_DefaultsToJsonObject() throws Exception {
+    stubStatuses();
+
+    mockMvc
+        .perform(asyncDispatch(requestAllStatuses(null)))
+        .andExpect(status().isOk())
+        .andExpect(content().contentType(MediaType.APPLICATION_JSON))
+        .andExpect(jsonPath("$['1'].online").value(true))
+        .andExpect(jsonPath("$['1'].statusJson.apower").value(150.5))
+        .andExpect(jsonPath("$['2'].online").value(false))
+        .andExpect(jsonPath("$['2'].statusJson").isEmpty());
+  }
+
+  @Test
+  void testGetAllStatuses_Ndjson() throws Exception {
+    stubStatuses();
+
+    mockMvc
+        .perform(asyncDispatch(requestAllStatuses(MediaType.APPLICATION_NDJSON_VALUE)))
+        .andExpect(status().isOk())
+        .andExpect(content().contentType(MediaType.APPLICATION_NDJSON))
+        .andExpect(
+            content()
+                .string(
+                    "{\"deviceId\":1,\"online\":true,\"statusJson\":{\"apower\":150.5}}\n"
+                        + "{\"deviceId\":2,\"online\":false,\"statusJson\":null}\n"));
+  }
+
+  @Test
+  void testGetAllStatuses_CborPreferredOverJson() throws Exception {
+    stubStatuses();
+
+    MvcResult result =
+        mockMvc
+            .perform(asyncDispatch(requestAllStatuses("application/json;q=0.5, application/cbor")))
+            .andExpect(status().isOk())
+            .andExpect(content().contentType(MediaType.APPLICATION_CBOR))
+            .andReturn();
+
+    JsonNode body = new CBORMapper().readTree(result.getResponse().getContentAsByteArray());
+    assertThat(body.get("1").get("statusJson").get("apower").asDouble()).isEqualTo(150.5);
+    assertThat(body.get("2").get("online").asBoolean()).isFalse();
+  }
+
+  @Test
+  void testGetAllStatuses_ErrorBeforeStreaming() throws Exception {
+    when(deviceStatusService.getAllStatusesByIds(List.of(1L, 2L)))
+        .thenThrow(new RuntimeException("DB down"));
+
+    mockMvc
+        .perform(
+            post("/api/device/internal/all-statuses")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("[1,2]"))
+        .andExpect(request().asyncNotStarted())
+        .andExpect(status().isInternalServerError());
+  }
+
+  private void stubStatuses() throws Exception {
+    Map<Long, DeviceStatusDto> statuses = new LinkedHashMap<>();
+    statuses.put(1L, new DeviceStatusDto(true, "{\"apower\":150.5}"));
+    statuses.put(2L, new DeviceStatusDto(false, null));
+    when(deviceStatusService.getAllStatusesByIds(List.of(1L, 2L))).thenReturn(statuses);
+  }
+
+  private MvcResult requestAllStatuses(String accept) throws Exception {
+    MockHttpServletRequestBuilder builder =
+        post("/api/device/internal/all-statuses")
+            .contentType(MediaType.APPLICATION_JSON)
+            .content("[1,2]");
+    if (accept != null) {
+      builder.header(HttpHeaders.ACCEPT, accept);
+    }
+    return mockMvc.perform(builder).andExpect(request().asyncStarted()).andReturn();
+  }
 }
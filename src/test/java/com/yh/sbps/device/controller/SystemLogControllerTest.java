@@ -0,0 +1,136 @@
+package com.yh.sbps.device.controller;
+
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.yh.sbps.device.dto.SystemLogDto;
+import com.yh.sbps.device.service.SystemLogService;
+import java.time.LocalDateTime;
+import java.util.function.Consumer;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+@ExtendWith(MockitoExtension.class)
+@DisplayName("SystemLogController Unit Tests")
+class SystemLogControllerTest {
+
+  private static final LocalDateTime FROM = LocalDateTime.of(2024, 6, 10, 10, 0);
+  private static final LocalDateTime TO = LocalDateTime.of(2024, 6, 10, 11, 0);
+
+  private MockMvc mockMvc;
+
+  @Mock private SystemLogService systemLogService;
+
+  @BeforeEach
+  void setUp() {
+    ObjectMapper objectMapper =
+        new ObjectMapper()
+            .registerModule(new JavaTimeModule())
+            .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+    mockMvc =
+        MockMvcBuilders.standaloneSetup(new SystemLogController(systemLogService, objectMapper))
+            .build();
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  void testGetHistoryStreamsNdjson() throws Exception {
+    when(systemLogService.getMaxHistoryLimit()).thenReturn(10000);
+    when(systemLogService.streamHistory(
+            eq("test/monitor"), eq(FROM), eq(TO), eq(FROM), eq(7L), eq(2), any()))
+        .thenAnswer(
+            invocation -> {
+              Consumer<SystemLogDto> consumer = invocation.getArgument(6);
+              consumer.accept(
+                  new SystemLogDto(
+                      8L,
+                      FROM.plusSeconds(30),
+                      "test/monitor",
+                      true,
+                      120.0,
+                      "{\"Heater\":\"ON\"}",
+                      null));
+              consumer.accept(
+                  new SystemLogDto(
+                      9L, FROM.plusSeconds(60), "test/monitor", false, 0.0, "{}", "Grid lost"));
+              return 2;
+            });
+
+    MvcResult result =
+        mockMvc
+            .perform(
+                get("/api/device/system-logs")
+                    .param("mqttPrefix", "test/monitor")
+                    .param("from", "2024-06-10T10:00:00")
+                    .param("to", "2024-06-10T11:00:00")
+                    .param("afterTimestamp", "2024-06-10T10:00:00")
+                    .param("afterId", "7")
+                    .param("limit", "2"))
+            .andExpect(request().asyncStarted())
+            .andReturn();
+
+    mockMvc
+        .perform(asyncDispatch(result))
+        .andExpect(status().isOk())
+        .andExpect(content().contentType("application/x-ndjson"))
+        .andExpect(
+            content()
+                .string(
+                    "{\"id\":8,\"timestamp\":\"2024-06-10T10:00:30\","
+                        + "\"mqttPrefix\":\"test/monitor\","
+                        + "\"gridOnline\":true,\"totalLoadWatts\":120.0,"
+                        + "\"deviceStatusesJson\":{\"Heater\":\"ON\"},\"decisionEvent\":null}\n"
+                        + "{\"id\":9,\"timestamp\":\"2024-06-10T10:01:00\","
+                        + "\"mqttPrefix\":\"test/monitor\","
+                        + "\"gridOnline\":false,\"totalLoadWatts\":0.0,"
+                        + "\"deviceStatusesJson\":{},\"decisionEvent\":\"Grid lost\"}\n"));
+  }
+
+  @Test
+  void testGetHistoryRejectsInvalidRange() throws Exception {
+    mockMvc
+        .perform(
+            get("/api/device/system-logs")
+                .param("mqttPrefix", "test/monitor")
+                .param("from", "2024-06-10T11:00:00")
+                .param("to", "2024-06-10T10:00:00"))
+        .andExpect(status().isBadRequest());
+
+    verify(systemLogService, never())
+        .streamHistory(any(), any(), any(), any(), any(), anyInt(), any());
+  }
+
+  @Test
+  void testGetHistoryRejectsLimitAboveMaximum() throws Exception {
+    when(systemLogService.getMaxHistoryLimit()).thenReturn(100);
+
+    mockMvc
+        .perform(
+            get("/api/device/system-logs")
+                .param("mqttPrefix", "test/monitor")
+                .param("limit", "101"))
+        .andExpect(status().isBadRequest());
+  }
+
+  @Test
+  void testGetHistoryRejectsIdWithoutTimestamp() throws Exception {
+    mockMvc
+        .perform(
+            get("/api/device/system-logs")
+                .param("mqttPrefix", "test/monitor")
+                .param("afterId", "5"))
+        .andExpect(status().isBadRequest());
+  }
+}
@@ -6,14 +6,12 @@ import static org.mockito.Mockito.*;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.yh.sbps.device.dto.*;
-import com.yh.sbps.device.entity.DeviceStatus;
 import com.yh.sbps.device.entity.DeviceStatus.DeviceControlState;
 import com.yh.sbps.device.integration.ApiServiceClient;
 import java.time.LocalDateTime;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
-import java.util.Locale;
 import java.util.Optional;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
@@ -522,19 +520,29 @@ class BalancingServiceTest {
 
   private void mockDeviceState(
       DeviceDto device, boolean isOn, DeviceControlState controlState, LocalDateTime disabledAt) {
-    DeviceStatus deviceStatus = new DeviceStatus();
-    deviceStatus.setDeviceId(device.getId());
-    deviceStatus.setLastOnline(true);
-
     double actualPower = (device.getWattage() != null) ? device.getWattage().doubleValue() : 0.0;
 
-    String statusJsonString =
-        String.format(Locale.US, "{\"output\": %b, \"apower\": %.1f}", isOn, actualPower);
-    deviceStatus.setLastStatusJson(statusJsonString);
-    deviceStatus.setControlState(controlState);
-    deviceStatus.setBalancerDisabledAt(disabledAt);
-
-    when(stateCache.get(device.getId())).thenReturn(Optional.of(deviceStatus));
+    DeviceTelemetry telemetry =
+        new DeviceTelemetry(
+            actualPower,
+            0,
+            0,
+            0,
+            isOn,
+            DeviceTelemetry.APOWER | DeviceTelemetry.OUTPUT,
+            System.currentTimeMillis());
+    DeviceStateSnapshot snapshot =
+        new DeviceStateSnapshot(
+            device.getId(),
+            device.getMqttPrefix(),
+            true,
+            telemetry,
+            null,
+            null,
+            controlState,
+            disabledAt);
+
+    when(stateCache.get(device.getId())).thenReturn(Optional.of(snapshot));
   }
 
   private DeviceDto createDeviceDto(
@@ -0,0 +1,90 @@
+package com.yh.sbps.device.service;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+import com.yh.sbps.device.dto.DeviceDto;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+@DisplayName("DeviceLivenessTracker Unit Tests")
+class DeviceLivenessTrackerTest {
+
+  private DeviceLivenessTracker tracker;
+  private ShellyService shellyService;
+  private MqttSubscriptionManager subscriptionManager;
+
+  @BeforeEach
+  void setUp() {
+    shellyService = mock(ShellyService.class);
+    subscriptionManager = mock(MqttSubscriptionManager.class);
+    when(subscriptionManager.owns(any())).thenReturn(true);
+    tracker = new DeviceLivenessTracker(subscriptionManager, 200, 10);
+    tracker.setShellyService(shellyService);
+    tracker.start();
+  }
+
+  @AfterEach
+  void tearDown() {
+    tracker.stop();
+  }
+
+  @Test
+  void testSilentDeviceExpiresAndComesBackOnNextMessage() {
+    DeviceDto plug = device("test/plug1");
+
+    tracker.touch(plug);
+
+    verify(shellyService, timeout(2000)).handleOnlineStatusInternal(plug, false);
+
+    tracker.touch(plug);
+
+    verify(shellyService).handleOnlineStatusInternal(plug, true);
+  }
+
+  @Test
+  void testReportingDeviceStaysOnline() throws Exception {
+    DeviceDto plug = device("test/plug2");
+
+    for (int i = 0; i < 10; i++) {
+      tracker.touch(plug);
+      Thread.sleep(50);
+    }
+
+    verify(shellyService, never()).handleOnlineStatusInternal(any(), anyBoolean());
+  }
+
+  @Test
+  void testDeviceReportedOfflineIsNotExpiredAgain() throws Exception {
+    DeviceDto plug = device("test/plug3");
+
+    tracker.touch(plug);
+    tracker.reportedOnline(plug, false);
+    Thread.sleep(400);
+
+    verify(shellyService, never()).handleOnlineStatusInternal(eq(plug), anyBoolean());
+  }
+
+  @Test
+  void testDeviceOfAnotherReplicaIsNotTracked() throws Exception {
+    // Its messages reach another replica, so this one hearing nothing says nothing
+    DeviceDto plug = device("test/plug4");
+    when(subscriptionManager.owns(plug)).thenReturn(false);
+
+    tracker.touch(plug);
+    Thread.sleep(400);
+
+    verify(shellyService, never()).handleOnlineStatusInternal(eq(plug), anyBoolean());
+  }
+
+  private DeviceDto device(String mqttPrefix) {
+    DeviceDto device = new DeviceDto();
+    device.setId((long) mqttPrefix.hashCode());
+    device.setMqttPrefix(mqttPrefix);
+    return device;
+  }
+}
@@ -0,0 +1,157 @@
+package com.yh.sbps.device.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.yh.sbps.device.dto.DeviceStateSnapshot;
+import com.yh.sbps.device.dto.DeviceTelemetry;
+import com.yh.sbps.device.dto.PowerSampleDto;
+import com.yh.sbps.device.entity.DeviceStatus;
+import com.yh.sbps.device.entity.DeviceStatus.DeviceControlState;
+import java.util.List;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+@DisplayName("DeviceRealtimeStateCache Unit Tests")
+class DeviceRealtimeStateCacheTest {
+
+  private DeviceRealtimeStateCache cache;
+
+  @BeforeEach
+  void setUp() {
+    cache = new DeviceRealtimeStateCache(new TelemetryExtractor(new ObjectMapper()), 3);
+  }
+
+  @Test
+  void testPartialUpdateKeepsPreviouslyKnownFields() {
+    cache.updateStatus(
+        1L,
+        new DeviceTelemetry(
+            150.0,
+            230.0,
+            0,
+            0,
+            true,
+            DeviceTelemetry.APOWER | DeviceTelemetry.VOLTAGE | DeviceTelemetry.OUTPUT,
+            1L),
+        "test/plug1");
+
+    DeviceTelemetry merged =
+        cache.updateStatus(
+            1L, new DeviceTelemetry(0, 0, 0, 0, false, DeviceTelemetry.OUTPUT, 2L), "test/plug1");
+
+    assertThat(merged.output()).isFalse();
+    assertThat(merged.hasApower()).isTrue();
+    assertThat(merged.apower()).isEqualTo(150.0);
+    assertThat(merged.voltage()).isEqualTo(230.0);
+    assertThat(merged.timestamp()).isEqualTo(2L);
+    assertThat(cache.getTelemetry(1L)).contains(merged);
+    assertThat(cache.get(1L)).map(DeviceStateSnapshot::mqttPrefix).contains("test/plug1");
+  }
+
+  @Test
+  void testInitCacheParsesStoredStatusOnce() {
+    DeviceStatus stored = new DeviceStatus();
+    stored.setDeviceId(7L);
+    stored.setLastStatusJson("{\"output\":true,\"apower\":42.5,\"aenergy\":{\"total\":12.0}}");
+    DeviceStatus empty = new DeviceStatus();
+    empty.setDeviceId(8L);
+
+    cache.initCache(List.of(stored, empty));
+
+    DeviceTelemetry telemetry = cache.getTelemetry(7L).orElseThrow();
+    assertThat(telemetry.output()).isTrue();
+    assertThat(telemetry.apower()).isEqualTo(42.5);
+    assertThat(telemetry.energyTotal()).isEqualTo(12.0);
+    assertThat(cache.getTelemetry(8L)).isEmpty();
+    assertThat(cache.get(8L)).isPresent();
+  }
+
+  @Test
+  void testUpdatesPublishNewSnapshotsAndLeaveReadOnesUntouched() {
+    cache.updateOnline(3L, true, "test/plug3");
+    DeviceStateSnapshot before = cache.get(3L).orElseThrow();
+
+    cache.updateControlState(3L, DeviceControlState.DISABLED_BY_BALANCER);
+    cache.updateOnline(3L, false, "test/plug3");
+
+    assertThat(before.online()).isTrue();
+    assertThat(before.controlState()).isEqualTo(DeviceControlState.ENABLED);
+    DeviceStateSnapshot after = cache.get(3L).orElseThrow();
+    assertThat(after.online()).isFalse();
+    assertThat(after.controlState()).isEqualTo(DeviceControlState.DISABLED_BY_BALANCER);
+    assertThat(after.balancerDisabledAt()).isNotNull();
+  }
+
+  @Test
+  void testConcurrentWritersDoNotLoseEachOthersFields() throws Exception {
+    Thread online = new Thread(() -> repeat(() -> cache.updateOnline(5L, true, "test/plug5")));
+    Thread status =
+        new Thread(
+            () ->
+                repeat(
+                    () ->
+                        cache.updateStatus(
+                            5L,
+                            new DeviceTelemetry(10.0, 0, 0, 0, true, DeviceTelemetry.APOWER, 1L),
+                            "test/plug5")));
+    Thread control =
+        new Thread(
+            () -> repeat(() -> cache.updateControlState(5L, DeviceControlState.DISABLED_BY_USER)));
+    online.start();
+    status.start();
+    control.start();
+    online.join();
+    status.join();
+    control.join();
+
+    DeviceStateSnapshot snapshot = cache.get(5L).orElseThrow();
+    assertThat(snapshot.isOnline()).isTrue();
+    assertThat(snapshot.telemetry().apower()).isEqualTo(10.0);
+    assertThat(snapshot.controlState()).isEqualTo(DeviceControlState.DISABLED_BY_USER);
+  }
+
+  private static void repeat(Runnable update) {
+    for (int i = 0; i < 10_000; i++) {
+      update.run();
+    }
+  }
+
+  @Test
+  void testPowerHistoryIsBoundedAndSkipsSamplesWithoutPower() {
+    for (int i = 1; i <= 5; i++) {
+      cache.updateStatus(
+          9L,
+          new DeviceTelemetry(i * 10.0, 0, 0, 0, true, DeviceTelemetry.APOWER, i * 1000L),
+          "test/plug9");
+    }
+    cache.updateStatus(
+        9L, new DeviceTelemetry(0, 0, 0, 0, false, DeviceTelemetry.OUTPUT, 6000L), "test/plug9");
+
+    assertThat(cache.getHistory(9L, 0))
+        .extracting(PowerSampleDto::getApower)
+        .containsExactly(30.0, 40.0, 50.0);
+    assertThat(cache.getHistory(9L, 4000L)).hasSize(2);
+    assertThat(cache.getHistory(9L, 0).get(0).getVoltage()).isNull();
+
+    cache.forgetHistory(9L);
+    assertThat(cache.getHistory(9L, 0)).isEmpty();
+  }
+
+  @Test
+  void testPowerHistoryDoesNotCarryVoltageOverFromOlderSamples() {
+    cache.updateStatus(
+        9L,
+        new DeviceTelemetry(
+            10.0, 230.0, 0, 0, true, DeviceTelemetry.APOWER | DeviceTelemetry.VOLTAGE, 1000L),
+        "test/plug9");
+    cache.updateStatus(
+        9L, new DeviceTelemetry(20.0, 0, 0, 0, true, DeviceTelemetry.APOWER, 2000L), "test/plug9");
+
+    assertThat(cache.getHistory(9L, 0))
+        .extracting(PowerSampleDto::getVoltage)
+        .containsExactly(230.0, null);
+    assertThat(cache.get(9L).orElseThrow().telemetry().voltage()).isEqualTo(230.0);
+  }
+}
@@ -0,0 +1,161 @@
+package com.yh.sbps.device.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.Mockito.*;
+
+import com.yh.sbps.device.dto.PersistenceStatsDto;
+import com.yh.sbps.device.entity.DeviceStatus;
+import com.yh.sbps.device.entity.DeviceStatus.DeviceControlState;
+import com.yh.sbps.device.repository.DeviceStatusPatch;
+import com.yh.sbps.device.repository.DeviceStatusRepository;
+import java.util.Collection;
+import java.util.Optional;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.transaction.PlatformTransactionManager;
+
+@DisplayName("DeviceStatusWriteBehind Unit Tests")
+class DeviceStatusWriteBehindTest {
+
+  private DeviceStatusRepository repository;
+  private DeviceStatusWriteBehind writeBehind;
+
+  @BeforeEach
+  void setUp() {
+    repository = mock(DeviceStatusRepository.class);
+    // The flusher thread is not started, tests call flush() themselves
+    writeBehind =
+        new DeviceStatusWriteBehind(
+            repository, mock(PlatformTransactionManager.class), 2, 60000, 3);
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  void testChangesOfOneDeviceAreMergedIntoOneRow() {
+    writeBehind.updateStatus(1L, "{\"apower\":10.0}", "test/plug1");
+    writeBehind.updateStatus(1L, "{\"apower\":20.0}", "test/plug1");
+    writeBehind.updateOnline(1L, true, "test/plug1");
+
+    writeBehind.flush();
+
+    ArgumentCaptor<Collection<DeviceStatusPatch>> saved = ArgumentCaptor.forClass(Collection.class);
+    verify(repository).upsertAll(saved.capture());
+    assertThat(saved.getValue())
+        .containsExactly(
+            new DeviceStatusPatch(1L, "test/plug1", "{\"apower\":20.0}", true, null, null, null));
+
+    PersistenceStatsDto stats = writeBehind.getStats();
+    assertThat(stats.getEnqueuedWrites()).isEqualTo(3);
+    assertThat(stats.getMergedWrites()).isEqualTo(2);
+    assertThat(stats.getFlushedRows()).isEqualTo(1);
+    assertThat(stats.getPendingDevices()).isZero();
+  }
+
+  @Test
+  void testFlushWritesInBatchesAndDropsBeyondCapacity() {
+    for (long id = 1; id <= 4; id++) {
+      writeBehind.updateOnline(id, true, "test/plug" + id);
+    }
+
+    writeBehind.flush();
+
+    verify(repository, times(2)).upsertAll(anyCollection());
+    PersistenceStatsDto stats = writeBehind.getStats();
+    assertThat(stats.getDroppedWrites()).isEqualTo(1);
+    assertThat(stats.getFlushes()).isEqualTo(2);
+    assertThat(stats.getMaxBatchSize()).isEqualTo(2);
+  }
+
+  @Test
+  void testOverlayShowsPendingChangesWithoutTouchingEntity() {
+    DeviceStatus persisted = new DeviceStatus();
+    persisted.setDeviceId(1L);
+    persisted.setLastOnline(false);
+    persisted.setLastStatusJson("{\"apower\":5.0}");
+
+    writeBehind.updateOnline(1L, true, "test/plug1");
+    writeBehind.updateControlState(1L, DeviceControlState.DISABLED_BY_USER, null);
+
+    DeviceStatus seen = writeBehind.overlay(1L, Optional.of(persisted)).orElseThrow();
+    assertThat(seen.getLastOnline()).isTrue();
+    assertThat(seen.getLastStatusJson()).isEqualTo("{\"apower\":5.0}");
+    assertThat(seen.getControlState()).isEqualTo(DeviceControlState.DISABLED_BY_USER);
+    assertThat(persisted.getLastOnline()).isFalse();
+
+    assertThat(writeBehind.overlay(2L, Optional.empty())).isEmpty();
+  }
+
+  @Test
+  void testFailedFlushKeepsChangesForRetry() {
+    // Once for the batch, once for the row-by-row attempt
+    doThrow(new RuntimeException("db down"))
+        .doThrow(new RuntimeException("db down"))
+        .doNothing()
+        .when(repository)
+        .upsertAll(anyCollection());
+
+    writeBehind.updateStatus(1L, "{\"apower\":10.0}", "test/plug1");
+    assertThat(writeBehind.flush()).isFalse();
+    writeBehind.updateOnline(1L, true, "test/plug1");
+
+    assertThat(writeBehind.getStats().getFailedFlushes()).isEqualTo(1);
+    DeviceStatus seen = writeBehind.overlay(1L, Optional.empty()).orElseThrow();
+    assertThat(seen.getLastStatusJson()).isEqualTo("{\"apower\":10.0}");
+    assertThat(seen.getLastOnline()).isTrue();
+
+    assertThat(writeBehind.flush()).isTrue();
+    assertThat(writeBehind.getStats().getFlushedRows()).isEqualTo(1);
+    assertThat(writeBehind.getStats().getRejectedRows()).isZero();
+    verify(repository, times(3)).upsertAll(any());
+  }
+
+  @Test
+  void testFlusherBacksOffWhileWritesFail() throws Exception {
+    doThrow(new RuntimeException("read-only transaction")).when(repository).upsertAll(any());
+    DeviceStatusWriteBehind flushing =
+        new DeviceStatusWriteBehind(repository, mock(PlatformTransactionManager.class), 2, 10, 3);
+    flushing.updateOnline(1L, true, "test/plug1");
+
+    flushing.start();
+    Thread.sleep(400);
+    int attempts = mockingDetails(repository).getInvocations().size() / 2;
+    flushing.stop();
+
+    // Waits of 10, 10, 20, 40, 80 and 160 ms; without backing off this would be thousands
+    assertThat(attempts).isBetween(2, 8);
+    assertThat(flushing.getStats().getPendingDevices()).isEqualTo(1);
+  }
+
+  @Test
+  void testRowRejectedByDatabaseIsDroppedAndOthersAreWritten() {
+    doAnswer(
+            invocation -> {
+              Collection<DeviceStatusPatch> patches = invocation.getArgument(0);
+              if (patches.stream().anyMatch(patch -> "not json".equals(patch.lastEventJson()))) {
+                throw new DataIntegrityViolationException("invalid input syntax for type json");
+              }
+              return null;
+            })
+        .when(repository)
+        .upsertAll(anyCollection());
+
+    writeBehind.updateEvent(1L, "not json", "test/plug1");
+    writeBehind.updateOnline(2L, true, "test/plug2");
+    writeBehind.flush();
+    writeBehind.flush();
+
+    PersistenceStatsDto stats = writeBehind.getStats();
+    assertThat(stats.getFailedFlushes()).isEqualTo(1);
+    assertThat(stats.getRejectedRows()).isEqualTo(1);
+    assertThat(stats.getFlushedRows()).isEqualTo(1);
+    assertThat(stats.getPendingDevices()).isZero();
+    assertThat(writeBehind.overlay(1L, Optional.empty())).isEmpty();
+    // The batch, then each row once; nothing is retried afterwards
+    verify(repository, times(3)).upsertAll(anyCollection());
+  }
+}
@@ -0,0 +1,230 @@
+package com.yh.sbps.device.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.yh.sbps.device.dto.DeviceDto;
+import com.yh.sbps.device.dto.DeviceProvider;
+import com.yh.sbps.device.dto.DeviceType;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.integration.mqtt.support.MqttHeaders;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.MessageBuilder;
+
+@DisplayName("MqttIngestPipeline Unit Tests")
+class MqttIngestPipelineTest {
+
+  private final TelemetryExtractor telemetryExtractor = new TelemetryExtractor(new ObjectMapper());
+  private final List<String> handledPayloads = new CopyOnWriteArrayList<>();
+  private final CountDownLatch firstMessageStarted = new CountDownLatch(1);
+  private final CountDownLatch releaseWorker = new CountDownLatch(1);
+
+  private MqttIngestPipeline pipeline;
+
+  @BeforeEach
+  void setUp() {
+    ShellyService shellyService = mock(ShellyService.class);
+    doAnswer(
+            invocation -> {
+              Message<?> message = invocation.getArgument(0);
+              handledPayloads.add(String.valueOf(message.getPayload()));
+              firstMessageStarted.countDown();
+              releaseWorker.await(5, TimeUnit.SECONDS);
+              return null;
+            })
+        .when(shellyService)
+        .handleMqttMessage(any());
+
+    MqttTopicRoutingIndex routingIndex = new MqttTopicRoutingIndex();
+    DeviceDto device =
+        new DeviceDto(
+            1L,
+            "Plug",
+            "test/plug1",
+            DeviceType.SWITCHABLE_APPLIANCE,
+            DeviceProvider.SHELLY,
+            1,
+            100,
+            false,
+            false,
+            0,
+            0,
+            "user");
+    routingIndex.register(device, new ShellyMqttStrategy(telemetryExtractor));
+
+    pipeline =
+        new MqttIngestPipeline(
+            shellyService, routingIndex, new MqttTrafficRecorder(""), 1, 100, false);
+  }
+
+  @AfterEach
+  void tearDown() {
+    releaseWorker.countDown();
+    pipeline.shutdown();
+  }
+
+  @Test
+  void testStaleStatusIsCoalescedButOnlineTransitionsAreKept() throws Exception {
+    pipeline.dispatch(message("test/plug1/status/switch:0", "status-1"));
+    assertThat(firstMessageStarted.await(5, TimeUnit.SECONDS)).isTrue();
+
+    // Worker is busy with status-1: these pile up in the partition
+    pipeline.dispatch(message("test/plug1/status/switch:0", "status-2"));
+    pipeline.dispatch(message("test/plug1/status/switch:0", "status-3"));
+    pipeline.dispatch(message("test/plug1/status/switch:0", "status-4"));
+    pipeline.dispatch(message("test/plug1/online", "false"));
+    pipeline.dispatch(message("test/plug1/status/switch:0", "status-5"));
+
+    assertThat(pipeline.getStats().getQueuedMessages()).isEqualTo(3);
+    assertThat(pipeline.getStats().getDroppedMessages()).isEqualTo(2);
+
+    releaseWorker.countDown();
+    for (int i = 0; i < 100 && handledPayloads.size() < 4; i++) {
+      Thread.sleep(20);
+    }
+
+    assertThat(handledPayloads).containsExactly("status-1", "status-4", "false", "status-5");
+  }
+
+  @Test
+  void testNotifyStatusEventsAreCoalescedPerTopicInArrivalOrder() throws Exception {
+    pipeline.dispatch(message("test/plug1/status/switch:0", "status-1"));
+    assertThat(firstMessageStarted.await(5, TimeUnit.SECONDS)).isTrue();
+
+    String notify1 = notifyStatus(10);
+    String notify2 = notifyStatus(20);
+    String notify3 = notifyStatus(30);
+    String otherEvent = "{\"method\":\"NotifyEvent\",\"params\":{}}";
+    pipeline.dispatch(message("test/plug1/status/switch:0", "status-2"));
+    pipeline.dispatch(message("test/plug1/events/rpc", notify1));
+    pipeline.dispatch(message("test/plug1/status/switch:0", "status-3"));
+    pipeline.dispatch(message("test/plug1/events/rpc", notify2));
+    pipeline.dispatch(message("test/plug1/events/rpc", otherEvent));
+    pipeline.dispatch(message("test/plug1/online", "false"));
+    pipeline.dispatch(message("test/plug1/events/rpc", notify3));
+
+    assertThat(pipeline.getStats().getQueuedMessages()).isEqualTo(5);
+    assertThat(pipeline.getStats().getDroppedMessages()).isEqualTo(2);
+
+    releaseWorker.countDown();
+    for (int i = 0; i < 100 && handledPayloads.size() < 6; i++) {
+      Thread.sleep(20);
+    }
+
+    // A replaced sample moves behind the device's other topic, so status-3 stays ahead of notify2
+    assertThat(handledPayloads)
+        .containsExactly("status-1", "status-3", notify2, otherEvent, "false", notify3);
+  }
+
+  @Test
+  void testKeepsPerDeviceOrderAcrossPartitionsWhileRoutesChange() throws Exception {
+    Map<String, List<Integer>> handled = new ConcurrentHashMap<>();
+    ShellyService shellyService = mock(ShellyService.class);
+    doAnswer(
+            invocation -> {
+              Message<?> message = invocation.getArgument(0);
+              String topic = (String) message.getHeaders().get(MqttHeaders.RECEIVED_TOPIC);
+              handled
+                  .computeIfAbsent(
+                      MqttTopicRoutingIndex.devicePrefixOf(topic),
+                      p -> new CopyOnWriteArrayList<>())
+                  .add(Integer.parseInt((String) message.getPayload()));
+              LockSupport.parkNanos(ThreadLocalRandom.current().nextInt(20_000));
+              return null;
+            })
+        .when(shellyService)
+        .handleMqttMessage(any());
+
+    MqttTopicRoutingIndex routingIndex = new MqttTopicRoutingIndex();
+    TasmotaMqttStrategy strategy = new TasmotaMqttStrategy(telemetryExtractor);
+    int devices = 8;
+    int messages = 200;
+    for (int d = 0; d < devices; d += 2) {
+      routingIndex.register(tasmota("plug" + d), strategy);
+    }
+    MqttIngestPipeline partitioned =
+        new MqttIngestPipeline(
+            shellyService, routingIndex, new MqttTrafficRecorder(""), 4, 1000, false);
+
+    for (int i = 0; i < messages; i++) {
+      if (i == messages / 2) {
+        // Odd devices were unrouted so far; from here on their topics hit the index
+        for (int d = 1; d < devices; d += 2) {
+          routingIndex.register(tasmota("plug" + d), strategy);
+        }
+      }
+      for (int d = 0; d < devices; d++) {
+        // LWT transitions are never coalesced, so every message has to arrive
+        partitioned.dispatch(message("tele/plug" + d + "/LWT", String.valueOf(i)));
+      }
+    }
+    partitioned.shutdown();
+
+    List<Integer> expected = IntStream.range(0, messages).boxed().toList();
+    assertThat(handled).hasSize(devices);
+    handled.forEach((prefix, sequence) -> assertThat(sequence).as(prefix).isEqualTo(expected));
+  }
+
+  @Test
+  void testShutdownDrainsQueuedMessagesAndRejectsNewOnes() throws Exception {
+    pipeline.dispatch(message("test/plug1/status/switch:0", "status-1"));
+    assertThat(firstMessageStarted.await(5, TimeUnit.SECONDS)).isTrue();
+    pipeline.dispatch(message("test/plug1/online", "true"));
+    pipeline.dispatch(message("test/plug1/status/switch:0", "status-2"));
+
+    Thread release =
+        new Thread(
+            () -> {
+              LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(100));
+              releaseWorker.countDown();
+            });
+    release.start();
+    pipeline.shutdown();
+
+    assertThat(handledPayloads).containsExactly("status-1", "true", "status-2");
+
+    pipeline.dispatch(message("test/plug1/online", "false"));
+    assertThat(pipeline.getStats().getQueuedMessages()).isZero();
+    assertThat(handledPayloads).hasSize(3);
+  }
+
+  private static DeviceDto tasmota(String mqttPrefix) {
+    return new DeviceDto(
+        1L,
+        "Plug",
+        mqttPrefix,
+        DeviceType.SWITCHABLE_APPLIANCE,
+        DeviceProvider.TASMOTA,
+        1,
+        100,
+        false,
+        false,
+        0,
+        0,
+        "user");
+  }
+
+  private static String notifyStatus(double apower) {
+    return "{\"method\":\"NotifyStatus\",\"params\":{\"switch:0\":{\"apower\":"
+        + apower
+        + "}}}";
+  }
+
+  private Message<String> message(String topic, String payload) {
+    return MessageBuilder.withPayload(payload).setHeader(MqttHeaders.RECEIVED_TOPIC, topic).build();
+  }
+}
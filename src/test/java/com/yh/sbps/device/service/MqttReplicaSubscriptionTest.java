@@ -0,0 +1,195 @@
+package com.yh.sbps.device.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+
+import com.yh.sbps.device.dto.DeviceDto;
+import com.yh.sbps.device.dto.DeviceProvider;
+import com.yh.sbps.device.dto.DeviceType;
+import com.yh.sbps.device.support.EmbeddedMqttBroker;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import org.eclipse.paho.mqttv5.client.MqttClient;
+import org.eclipse.paho.mqttv5.client.MqttConnectionOptions;
+import org.eclipse.paho.mqttv5.client.persist.MemoryPersistence;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.integration.channel.DirectChannel;
+import org.springframework.integration.config.EnableIntegration;
+import org.springframework.integration.mqtt.core.MqttPahoClientFactory;
+
+@DisplayName("MqttSubscriptionManager Replica Subscription Tests")
+class MqttReplicaSubscriptionTest {
+
+  private static final int MESSAGES = 20;
+  // "alice" hashes to replica 0 of 2, "bob" to replica 1
+  private static final DeviceDto ALICE_PLUG = device("alice/plug1", "alice");
+  private static final DeviceDto BOB_PLUG = device("bob/plug1", "bob");
+
+  @TempDir static Path brokerDir;
+
+  private static EmbeddedMqttBroker broker;
+  private static String brokerUri;
+  // Provides the infrastructure beans the adapters look up on init
+  private static AnnotationConfigApplicationContext integrationContext;
+
+  private final List<MqttSubscriptionManager> managers = new ArrayList<>();
+
+  @BeforeAll
+  static void startBroker() throws Exception {
+    broker = EmbeddedMqttBroker.start(brokerDir);
+    brokerUri = broker.getUri();
+    integrationContext = new AnnotationConfigApplicationContext(IntegrationConfig.class);
+  }
+
+  @AfterAll
+  static void stopBroker() throws Exception {
+    integrationContext.close();
+    broker.close();
+  }
+
+  @AfterEach
+  void tearDown() {
+    managers.forEach(MqttSubscriptionManager::shutdown);
+  }
+
+  @Test
+  void testEachHouseholdIsDeliveredToExactlyOneReplica() throws Exception {
+    Queue<String> first = new ConcurrentLinkedQueue<>();
+    Queue<String> second = new ConcurrentLinkedQueue<>();
+    startInstance(2, 0, first);
+    startInstance(2, 1, second);
+
+    publish(ALICE_PLUG);
+    publish(BOB_PLUG);
+    awaitTotal(first, second, 2 * MESSAGES);
+    Thread.sleep(300); // give duplicates, if any, a chance to arrive
+
+    assertThat(first).hasSize(MESSAGES).allMatch(payload -> payload.startsWith("alice/"));
+    assertThat(second).hasSize(MESSAGES).allMatch(payload -> payload.startsWith("bob/"));
+  }
+
+  @Test
+  void testSingleReplicaReceivesEverything() throws Exception {
+    Queue<String> received = new ConcurrentLinkedQueue<>();
+    startInstance(1, 0, received);
+
+    publish(ALICE_PLUG);
+    publish(BOB_PLUG);
+    awaitTotal(received, new ConcurrentLinkedQueue<>(), 2 * MESSAGES);
+
+    assertThat(received).hasSize(2 * MESSAGES);
+  }
+
+  @Test
+  void testSharedGroupIsRejected() {
+    assertThatThrownBy(
+            () ->
+                new MqttSubscriptionManager(
+                    mock(MqttPahoClientFactory.class),
+                    new MqttConnectionOptions(),
+                    new DirectChannel(),
+                    1,
+                    false,
+                    5,
+                    "sbps-device",
+                    1,
+                    0,
+                    true))
+        .isInstanceOf(IllegalStateException.class);
+  }
+
+  private void startInstance(int replicas, int replicaIndex, Queue<String> received)
+      throws Exception {
+    MqttConnectionOptions options = new MqttConnectionOptions();
+    options.setServerURIs(new String[] {brokerUri});
+    options.setCleanStart(true);
+
+    DirectChannel channel = new DirectChannel();
+    channel.subscribe(
+        message ->
+            received.add(
+                message.getPayload() instanceof byte[] bytes
+                    ? new String(bytes, StandardCharsets.UTF_8)
+                    : (String) message.getPayload()));
+
+    MqttSubscriptionManager manager =
+        new MqttSubscriptionManager(
+            mock(MqttPahoClientFactory.class),
+            options,
+            channel,
+            1,
+            false,
+            5,
+            "",
+            replicas,
+            replicaIndex,
+            true);
+    manager.setBeanFactory(integrationContext.getBeanFactory());
+    managers.add(manager);
+    // As ShellyService.subscribeForDevice: only the owner subscribes a device. The adapter connects
+    // on start and addTopic then waits for the broker's SUBACK
+    for (DeviceDto device : List.of(ALICE_PLUG, BOB_PLUG)) {
+      if (manager.owns(device)) {
+        assertThat(manager.subscribe(device.getMqttPrefix(), new String[] {topic(device)}))
+            .isTrue();
+      }
+    }
+  }
+
+  @Configuration
+  @EnableIntegration
+  static class IntegrationConfig {}
+
+  private void publish(DeviceDto device) throws Exception {
+    MqttClient publisher = new MqttClient(brokerUri, "publisher", new MemoryPersistence());
+    publisher.connect();
+    try {
+      for (int i = 0; i < MESSAGES; i++) {
+        byte[] payload = (device.getMqttPrefix() + "/" + i).getBytes(StandardCharsets.UTF_8);
+        publisher.publish(topic(device), payload, 1, false);
+      }
+    } finally {
+      publisher.disconnect();
+      publisher.close();
+    }
+  }
+
+  private void awaitTotal(Queue<String> first, Queue<String> second, int expected)
+      throws InterruptedException {
+    for (int i = 0; i < 100 && first.size() + second.size() < expected; i++) {
+      Thread.sleep(50);
+    }
+  }
+
+  private static String topic(DeviceDto device) {
+    return device.getMqttPrefix() + "/status/switch:0";
+  }
+
+  private static DeviceDto device(String mqttPrefix, String username) {
+    return new DeviceDto(
+        1L,
+        "Plug",
+        mqttPrefix,
+        DeviceType.SWITCHABLE_APPLIANCE,
+        DeviceProvider.SHELLY,
+        1,
+        100,
+        false,
+        false,
+        0,
+        0,
+        username);
+  }
+}
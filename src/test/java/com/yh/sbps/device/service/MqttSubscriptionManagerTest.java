@@ -0,0 +1,116 @@
+package com.yh.sbps.device.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.*;
+
+import org.eclipse.paho.mqttv5.client.MqttConnectionOptions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.integration.channel.DirectChannel;
+import org.springframework.integration.mqtt.core.MqttPahoClientFactory;
+import org.springframework.integration.mqtt.inbound.AbstractMqttMessageDrivenChannelAdapter;
+import org.springframework.integration.mqtt.inbound.MqttPahoMessageDrivenChannelAdapter;
+
+@DisplayName("MqttSubscriptionManager Unit Tests")
+class MqttSubscriptionManagerTest {
+
+  private final MqttPahoMessageDrivenChannelAdapter adapter =
+      mock(MqttPahoMessageDrivenChannelAdapter.class);
+
+  private MqttSubscriptionManager manager;
+
+  @BeforeEach
+  void setUp() {
+    manager =
+        new MqttSubscriptionManager(
+            mock(MqttPahoClientFactory.class),
+            new MqttConnectionOptions(),
+            new DirectChannel(),
+            1,
+            true,
+            3,
+            "",
+            1,
+            0,
+            true) {
+          @Override
+          AbstractMqttMessageDrivenChannelAdapter<?, ?> createAdapter(String clientId) {
+            return adapter;
+          }
+        };
+  }
+
+  @Test
+  void testSharedFilterIsKeptUntilLastDeviceUnsubscribes() {
+    assertThat(manager.subscribe("plug1", tasmotaTopics("plug1"))).isTrue();
+    assertThat(manager.subscribe("plug2", tasmotaTopics("plug2"))).isTrue();
+
+    // Both devices map onto the same '+' filters, so the broker is asked only once per filter
+    verify(adapter).addTopic("tele/+/LWT", 1);
+    verify(adapter).addTopic("tele/+/STATE", 1);
+    verify(adapter, times(2)).addTopic(any(String.class), anyInt());
+
+    assertThat(manager.unsubscribe("plug1")).isTrue();
+    verify(adapter, never()).removeTopic(any(String[].class));
+    assertThat(manager.getSubscribedPrefixes()).containsExactly("plug2");
+
+    assertThat(manager.unsubscribe("plug2")).isTrue();
+    verify(adapter).removeTopic("tele/+/LWT");
+    verify(adapter).removeTopic("tele/+/STATE");
+    assertThat(manager.getSubscribedPrefixes()).isEmpty();
+  }
+
+  @Test
+  void testSubscribeAndUnsubscribeAreIdempotent() {
+    assertThat(manager.subscribe("plug1", tasmotaTopics("plug1"))).isTrue();
+    assertThat(manager.subscribe("plug1", tasmotaTopics("plug1"))).isFalse();
+    verify(adapter, times(2)).addTopic(any(String.class), anyInt());
+
+    assertThat(manager.unsubscribe("plug1")).isTrue();
+    assertThat(manager.unsubscribe("plug1")).isFalse();
+    verify(adapter, times(2)).removeTopic(any(String[].class));
+  }
+
+  @Test
+  void testMultiLevelPrefixKeepsExactFilters() {
+    manager.subscribe("home/plug1", new String[] {"home/plug1/online"});
+    manager.subscribe("home/plug2", new String[] {"home/plug2/online"});
+
+    verify(adapter).addTopic("home/plug1/online", 1);
+    verify(adapter).addTopic("home/plug2/online", 1);
+
+    manager.unsubscribe("home/plug1");
+    verify(adapter).removeTopic("home/plug1/online");
+    verify(adapter, never()).removeTopic("home/plug2/online");
+  }
+
+  @Test
+  void testDisabledInboundRegistersDevicesWithoutConnecting() {
+    MqttSubscriptionManager offline =
+        spy(
+            new MqttSubscriptionManager(
+                mock(MqttPahoClientFactory.class),
+                new MqttConnectionOptions(),
+                new DirectChannel(),
+                1,
+                true,
+                3,
+                "",
+                1,
+                0,
+                false));
+
+    assertThat(offline.subscribe("plug1", tasmotaTopics("plug1"))).isTrue();
+    assertThat(offline.isSubscribed("plug1")).isTrue();
+    assertThat(offline.unsubscribe("plug1")).isTrue();
+
+    verify(offline, never()).createAdapter(any());
+  }
+
+  private static String[] tasmotaTopics(String prefix) {
+    return new String[] {"tele/" + prefix + "/LWT", "tele/" + prefix + "/STATE"};
+  }
+}
@@ -0,0 +1,90 @@
+package com.yh.sbps.device.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.yh.sbps.device.dto.DeviceDto;
+import com.yh.sbps.device.dto.DeviceProvider;
+import com.yh.sbps.device.dto.DeviceType;
+import com.yh.sbps.device.service.MqttTopicRoutingIndex.Route;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+@DisplayName("MqttTopicRoutingIndex Unit Tests")
+class MqttTopicRoutingIndexTest {
+
+  private final TelemetryExtractor telemetryExtractor = new TelemetryExtractor(new ObjectMapper());
+  private final ShellyMqttStrategy shellyStrategy = new ShellyMqttStrategy(telemetryExtractor);
+  private final TasmotaMqttStrategy tasmotaStrategy = new TasmotaMqttStrategy(telemetryExtractor);
+  private final MqttTopicRoutingIndex index = new MqttTopicRoutingIndex();
+
+  @Test
+  void testResolvesDeviceAndKindPerTopic() {
+    DeviceDto shelly = device("test/plug1", DeviceProvider.SHELLY);
+    DeviceDto tasmota = device("plug2", DeviceProvider.TASMOTA);
+    index.register(shelly, shellyStrategy);
+    index.register(tasmota, tasmotaStrategy);
+
+    assertRoute("test/plug1/online", shelly, MqttMessageKind.ONLINE);
+    assertRoute("test/plug1/events/rpc", shelly, MqttMessageKind.EVENT);
+    assertRoute("test/plug1/status/switch:0", shelly, MqttMessageKind.STATUS);
+    assertRoute("tele/plug2/LWT", tasmota, MqttMessageKind.ONLINE);
+    assertRoute("tele/plug2/STATE", tasmota, MqttMessageKind.STATUS);
+    assertRoute("stat/plug2/RESULT", tasmota, MqttMessageKind.STATUS);
+    assertThat(index.resolve("tele/plug2/RESULT")).isNull();
+    assertThat(index.resolve(null)).isNull();
+  }
+
+  @Test
+  void testTopicsFromWildcardFiltersResolveOnlyToRegisteredDevices() {
+    DeviceDto plug1 = device("plug1", DeviceProvider.TASMOTA);
+    DeviceDto plug2 = device("plug2", DeviceProvider.TASMOTA);
+    index.register(plug1, tasmotaStrategy);
+    index.register(plug2, tasmotaStrategy);
+
+    // A "tele/+/STATE" subscription also delivers devices this service does not know
+    assertRoute("tele/plug1/STATE", plug1, MqttMessageKind.STATUS);
+    assertRoute("tele/plug2/STATE", plug2, MqttMessageKind.STATUS);
+    assertThat(index.resolve("tele/plug3/STATE")).isNull();
+    assertThat(index.resolve("tele/+/STATE")).isNull();
+  }
+
+  @Test
+  void testReRegisterAndRemoveDropOldRoutes() {
+    DeviceDto plug = device("plug1", DeviceProvider.TASMOTA);
+    index.register(plug, tasmotaStrategy);
+
+    DeviceDto asShelly = device("plug1", DeviceProvider.SHELLY);
+    index.register(asShelly, shellyStrategy);
+
+    assertThat(index.resolve("tele/plug1/STATE")).isNull();
+    assertRoute("plug1/online", asShelly, MqttMessageKind.ONLINE);
+
+    index.remove("plug1");
+
+    assertThat(index.resolve("plug1/online")).isNull();
+  }
+
+  private void assertRoute(String topic, DeviceDto device, MqttMessageKind kind) {
+    Route route = index.resolve(topic);
+    assertThat(route).as(topic).isNotNull();
+    assertThat(route.device()).isSameAs(device);
+    assertThat(route.kind()).isEqualTo(kind);
+  }
+
+  private static DeviceDto device(String mqttPrefix, DeviceProvider provider) {
+    return new DeviceDto(
+        1L,
+        "Plug",
+        mqttPrefix,
+        DeviceType.SWITCHABLE_APPLIANCE,
+        provider,
+        1,
+        100,
+        false,
+        false,
+        0,
+        0,
+        "user");
+  }
+}
@@ -0,0 +1,142 @@
+package com.yh.sbps.device.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+import com.yh.sbps.device.dto.ReplayReportDto;
+import com.yh.sbps.device.service.MqttTrafficRecorder.RecordedMessage;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.integration.mqtt.support.MqttHeaders;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.MessageBuilder;
+
+@DisplayName("MqttTrafficRecorder / MqttTrafficReplayer Unit Tests")
+class MqttTrafficReplayerTest {
+
+  @TempDir Path tempDir;
+
+  @Test
+  void testRecordingIsReplayedInOrder() throws Exception {
+    Path file = tempDir.resolve("traffic.bin");
+    MqttTrafficRecorder recorder = new MqttTrafficRecorder(file.toString());
+    recorder.record(message("test/plug1/online", "true"));
+    recorder.record(message("test/plug1/status/switch:0", "{\"apower\":10.0}"));
+    recorder.record(
+        MessageBuilder.withPayload("{\"apower\":20.0}".getBytes(StandardCharsets.UTF_8))
+            .setHeader(MqttHeaders.RECEIVED_TOPIC, "test/plug1/status/switch:0")
+            .build());
+    recorder.close();
+
+    List<RecordedMessage> recorded = MqttTrafficRecorder.read(file);
+    assertThat(recorded).extracting(RecordedMessage::topic).hasSize(3);
+
+    ShellyService shellyService = mock(ShellyService.class);
+    List<String> handled = new CopyOnWriteArrayList<>();
+    doAnswer(
+            invocation -> {
+              Message<?> message = invocation.getArgument(0);
+              String topic = (String) message.getHeaders().get(MqttHeaders.RECEIVED_TOPIC);
+              handled.add(topic + " " + new String((byte[]) message.getPayload()));
+              return null;
+            })
+        .when(shellyService)
+        .handleMqttMessage(any());
+
+    MqttIngestPipeline pipeline = pipeline(shellyService);
+    MqttTrafficReplayer replayer = replayer(pipeline);
+    ReplayReportDto report = replayer.replay(file, 0);
+    pipeline.shutdown();
+
+    assertThat(handled)
+        .containsExactly(
+            "test/plug1/online true",
+            "test/plug1/status/switch:0 {\"apower\":10.0}",
+            "test/plug1/status/switch:0 {\"apower\":20.0}");
+    assertThat(report.getMessages()).isEqualTo(3);
+    assertThat(report.getHandledMessages()).isEqualTo(3);
+    assertThat(report.isComplete()).isTrue();
+    assertThat(report.getP99LatencyMicros()).isGreaterThanOrEqualTo(report.getP50LatencyMicros());
+  }
+
+  @Test
+  void testLatencyRunsUntilTheMessageIsProcessed() {
+    ShellyService shellyService = mock(ShellyService.class);
+    doAnswer(
+            invocation -> {
+              Thread.sleep(50);
+              return null;
+            })
+        .when(shellyService)
+        .handleMqttMessage(any());
+    MqttIngestPipeline pipeline = pipeline(shellyService);
+    MqttTrafficReplayer replayer = replayer(pipeline);
+    // A live message in between is neither waited for nor counted
+    pipeline.dispatch(message("test/plug2/online", "true"));
+    List<RecordedMessage> messages =
+        List.of(
+            new RecordedMessage(0, "test/plug1/online", "true".getBytes(StandardCharsets.UTF_8)));
+
+    ReplayReportDto report = replayer.replay(messages, 0);
+    pipeline.shutdown();
+
+    assertThat(report.getHandledMessages()).isEqualTo(1);
+    assertThat(report.isComplete()).isTrue();
+    assertThat(report.getMaxLatencyMicros()).isGreaterThanOrEqualTo(50_000);
+  }
+
+  @Test
+  void testReplayKeepsRecordedGapsScaledBySpeed() {
+    ShellyService shellyService = mock(ShellyService.class);
+    MqttIngestPipeline pipeline = pipeline(shellyService);
+    MqttTrafficReplayer replayer = replayer(pipeline);
+    byte[] payload = "{}".getBytes(StandardCharsets.UTF_8);
+    List<RecordedMessage> messages =
+        List.of(
+            new RecordedMessage(0, "test/plug1/status/switch:0", payload),
+            new RecordedMessage(1_000_000, "test/plug1/status/switch:0", payload));
+
+    ReplayReportDto report = replayer.replay(messages, 10);
+    pipeline.shutdown();
+
+    // One second of recorded traffic at 10x
+    assertThat(report.getDurationMs()).isBetween(90L, 1000L);
+    // The replay only returns once the pipeline has processed what it was fed
+    verify(shellyService, times(2)).handleMqttMessage(any());
+  }
+
+  @Test
+  void testReplayRefusesToRunAgainstLiveSystems() {
+    MqttIngestPipeline pipeline = pipeline(mock(ShellyService.class));
+    try {
+      assertThatThrownBy(
+              () -> new MqttTrafficReplayer(pipeline, "", 1, true, false, true, "traffic.bin"))
+          .isInstanceOf(IllegalStateException.class)
+          .hasMessageContaining("mqtt.inbound.enabled")
+          .hasMessageContaining("api.notifications.enabled")
+          .hasMessageContaining("mqtt.recorder.file");
+    } finally {
+      pipeline.shutdown();
+    }
+  }
+
+  private static MqttTrafficReplayer replayer(MqttIngestPipeline pipeline) {
+    return new MqttTrafficReplayer(pipeline, "", 1, false, false, false, "");
+  }
+
+  private static MqttIngestPipeline pipeline(ShellyService shellyService) {
+    return new MqttIngestPipeline(
+        shellyService, new MqttTopicRoutingIndex(), new MqttTrafficRecorder(""), 2, 100, false);
+  }
+
+  private Message<String> message(String topic, String payload) {
+    return MessageBuilder.withPayload(payload).setHeader(MqttHeaders.RECEIVED_TOPIC, topic).build();
+  }
+}
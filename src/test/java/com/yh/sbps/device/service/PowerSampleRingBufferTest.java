@@ -0,0 +1,46 @@
+package com.yh.sbps.device.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.yh.sbps.device.dto.PowerBucketDto;
+import com.yh.sbps.device.dto.PowerSampleDto;
+import java.util.List;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+@DisplayName("PowerSampleRingBuffer Unit Tests")
+class PowerSampleRingBufferTest {
+
+  @Test
+  void testBucketsAggregateMinMaxAvg() {
+    PowerSampleRingBuffer buffer = new PowerSampleRingBuffer(10);
+    buffer.append(60_000L, 100.0, 230.0);
+    buffer.append(80_000L, 300.0, 231.0);
+    buffer.append(110_000L, 200.0, 229.0);
+    buffer.append(125_000L, 50.0, Double.NaN);
+
+    List<PowerBucketDto> buckets = buffer.bucketsSince(0, 60_000L);
+
+    assertThat(buckets).hasSize(2);
+    assertThat(buckets.get(0).getStart()).isEqualTo(60_000L);
+    assertThat(buckets.get(0).getSamples()).isEqualTo(3);
+    assertThat(buckets.get(0).getMinPower()).isEqualTo(100.0);
+    assertThat(buckets.get(0).getMaxPower()).isEqualTo(300.0);
+    assertThat(buckets.get(0).getAvgPower()).isEqualTo(200.0);
+    assertThat(buckets.get(1).getStart()).isEqualTo(120_000L);
+    assertThat(buckets.get(1).getAvgPower()).isEqualTo(50.0);
+  }
+
+  @Test
+  void testOverwritesOldestWhenFull() {
+    PowerSampleRingBuffer buffer = new PowerSampleRingBuffer(2);
+    buffer.append(1L, 1.0, Double.NaN);
+    buffer.append(2L, 2.0, Double.NaN);
+    buffer.append(3L, 3.0, Double.NaN);
+
+    assertThat(buffer.size()).isEqualTo(2);
+    assertThat(buffer.samplesSince(0))
+        .extracting(PowerSampleDto::getTimestamp)
+        .containsExactly(2L, 3L);
+  }
+}
@@ -8,12 +8,18 @@ import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.yh.sbps.device.dto.DeviceDto;
 import com.yh.sbps.device.dto.DeviceProvider;
+import com.yh.sbps.device.dto.DeviceStateSnapshot;
+import com.yh.sbps.device.dto.DeviceStatusDto;
 import com.yh.sbps.device.dto.DeviceType;
+import com.yh.sbps.device.dto.PowerSampleDto;
 import com.yh.sbps.device.entity.DeviceStatus;
+import com.yh.sbps.device.entity.DeviceStatus.DeviceControlState;
 import com.yh.sbps.device.integration.ApiServiceClient;
+import com.yh.sbps.device.repository.DeviceStatusPatch;
 import com.yh.sbps.device.repository.DeviceStatusRepository;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
@@ -36,6 +42,14 @@ class ShellyServiceIntegrationTest {
 
   @Autowired private DeviceStatusRepository deviceStatusRepository;
 
+  @Autowired private DeviceStatusWriteBehind deviceStatusWriteBehind;
+
+  @Autowired private TelemetryDeduplicator telemetryDeduplicator;
+
+  @Autowired private TelemetryDeadbandFilter telemetryDeadbandFilter;
+
+  @Autowired private DeviceRealtimeStateCache realtimeStateCache;
+
   @MockitoBean private ApiServiceClient apiServiceClient;
 
   @MockitoBean private BalancingService balancingService;
@@ -54,8 +68,11 @@ class ShellyServiceIntegrationTest {
 
   @BeforeEach
   void setUp() {
-    // Clear database before each test
+    // Clear database before each test, writes queued by the previous test first
+    deviceStatusWriteBehind.flush();
     deviceStatusRepository.deleteAll();
+    telemetryDeduplicator.clear();
+    telemetryDeadbandFilter.clear();
 
     // Setup test devices
     DeviceDto testDevice1 =
@@ -167,7 +184,9 @@ class ShellyServiceIntegrationTest {
   void testHandleMqttMessage_SwitchStatus() throws Exception {
     // Arrange
     String topic = "test/device1/status/switch:0";
-    String payload = "{\"id\":0,\"output\":true,\"apower\":150.5,\"voltage\":230.0}";
+    String payload =
+        "{\"id\":0,\"output\":true,\"apower\":150.5,\"voltage\":230.0,"
+            + "\"temperature\":{\"tC\":40.1}}";
 
     Message<String> message =
         MessageBuilder.withPayload(payload).setHeader(MqttHeaders.RECEIVED_TOPIC, topic).build();
@@ -183,6 +202,9 @@ class ShellyServiceIntegrationTest {
     JsonNode statusJson = objectMapper.readTree(deviceStatus.get().getLastStatusJson());
     assertThat(statusJson.get("output").asBoolean()).isTrue();
     assertThat(statusJson.get("apower").asDouble()).isEqualTo(150.5);
+    // Fields balancing does not read are still stored and served as the device sent them
+    assertThat(statusJson.path("temperature").path("tC").asDouble()).isEqualTo(40.1);
+    assertThat(deviceStatusService.getStatusAsJsonNode(1L)).isEqualTo(statusJson);
   }
 
   @Test
@@ -199,7 +221,7 @@ class ShellyServiceIntegrationTest {
 
     // Assert
     // Verify that balancePower was called
-    verify(balancingService, times(1)).balancePower(eq("test/monitor"), any(JsonNode.class));
+    verify(balancingService, times(1)).balancePower(eq("test/monitor"), eq(1200.0));
 
     // Verify that device status was updated
     Optional<DeviceStatus> deviceStatus = awaitDevice(3L);
@@ -207,6 +229,82 @@ class ShellyServiceIntegrationTest {
     assertThat(deviceStatus.get().getLastStatusJson()).isNotNull();
   }
 
+  @Test
+  void testHandleMqttMessage_DuplicateNotifyStatus_BalancesOnce() {
+    // Arrange
+    String statusPayload = "{\"id\":0,\"apower\":1200.0,\"voltage\":230.0}";
+    String notifyPayload =
+        "{\"method\":\"NotifyStatus\",\"params\":{\"switch:0\":{\"id\":0,\"apower\":1200.0}}}";
+
+    Message<String> status =
+        MessageBuilder.withPayload(statusPayload)
+            .setHeader(MqttHeaders.RECEIVED_TOPIC, "test/monitor/status/switch:0")
+            .build();
+    Message<String> notify =
+        MessageBuilder.withPayload(notifyPayload)
+            .setHeader(MqttHeaders.RECEIVED_TOPIC, "test/monitor/events/rpc")
+            .build();
+
+    // Act
+    shellyService.handleMqttMessage(status);
+    shellyService.handleMqttMessage(notify);
+
+    // Assert
+    verify(balancingService, times(1)).balancePower(eq("test/monitor"), eq(1200.0));
+    Optional<DeviceStatus> deviceStatus = awaitDevice(3L);
+    assertThat(deviceStatus).isPresent();
+    assertThat(deviceStatus.get().getLastEventJson()).isNull();
+  }
+
+  @Test
+  void testHandleMqttMessage_SteadyPowerMonitorReadings_BalanceEveryTime() {
+    Message<String> reading =
+        MessageBuilder.withPayload("{\"id\":0,\"apower\":1200.0,\"voltage\":230.0}")
+            .setHeader(MqttHeaders.RECEIVED_TOPIC, "test/monitor/status/switch:0")
+            .build();
+    Message<String> notify =
+        MessageBuilder.withPayload(
+                "{\"method\":\"NotifyStatus\",\"params\":{\"switch:0\":{\"apower\":1200.0}}}")
+            .setHeader(MqttHeaders.RECEIVED_TOPIC, "test/monitor/events/rpc")
+            .build();
+
+    // Equal values on the same topic are new readings, not the second copy of one
+    shellyService.handleMqttMessage(reading);
+    shellyService.handleMqttMessage(reading);
+    shellyService.handleMqttMessage(notify);
+    shellyService.handleMqttMessage(notify);
+
+    verify(balancingService, times(3)).balancePower(eq("test/monitor"), eq(1200.0));
+  }
+
+  @Test
+  void testHandleMqttMessage_ChangeWithinDeadband_NotPropagated() {
+    // Arrange
+    String topic = "test/device2/status/switch:0";
+    List<String> payloads =
+        List.of(
+            "{\"id\":0,\"output\":true,\"apower\":100.0}",
+            "{\"id\":0,\"output\":true,\"apower\":101.5}",
+            "{\"id\":0,\"output\":false,\"apower\":0.0}");
+
+    // Act
+    payloads.forEach(
+        payload ->
+            shellyService.handleMqttMessage(
+                MessageBuilder.withPayload(payload)
+                    .setHeader(MqttHeaders.RECEIVED_TOPIC, topic)
+                    .build()));
+
+    // Assert - the 1.5 W move is skipped downstream, but the realtime cache saw every sample
+    verify(apiServiceClient, times(2))
+        .notifyApiOfDeviceUpdate(argThat(update -> update.getStatusJson() != null));
+    assertThat(realtimeStateCache.getTelemetry(2L))
+        .hasValueSatisfying(telemetry -> assertThat(telemetry.output()).isFalse());
+    assertThat(realtimeStateCache.getHistory(2L, 0))
+        .extracting(PowerSampleDto::getApower)
+        .endsWith(100.0, 101.5, 0.0);
+  }
+
   @Test
   void testHandleMqttMessage_EventsRpc() throws Exception {
     // Arrange
@@ -228,6 +326,25 @@ class ShellyServiceIntegrationTest {
     assertThat(eventJson.get("method").asText()).isEqualTo("Switch.Toggle");
   }
 
+  @Test
+  void testHandleMqttMessage_EventsRpcNotJson_Dropped() {
+    Optional<String> cachedBefore =
+        realtimeStateCache.get(1L).map(DeviceStateSnapshot::lastEventJson);
+
+    for (String payload : List.of("not json", "{\"method\":", "{} {}")) {
+      shellyService.handleMqttMessage(
+          MessageBuilder.withPayload(payload)
+              .setHeader(MqttHeaders.RECEIVED_TOPIC, "test/device1/events/rpc")
+              .build());
+    }
+    deviceStatusWriteBehind.flush();
+
+    assertThat(realtimeStateCache.get(1L).map(DeviceStateSnapshot::lastEventJson))
+        .isEqualTo(cachedBefore);
+    assertThat(deviceStatusRepository.findByDeviceId(1L).map(DeviceStatus::getLastEventJson))
+        .isEmpty();
+  }
+
   @Test
   void testMultipleMessagesFromSameDevice() throws Exception {
     // Arrange
@@ -324,4 +441,88 @@ class ShellyServiceIntegrationTest {
     Boolean onlineStatus = deviceStatus.get().getLastOnline();
     assertThat(onlineStatus).isTrue();
   }
+
+  @Test
+  void testUpsertWritesOnlyTouchedColumns() throws Exception {
+    deviceStatusRepository.upsert(
+        new DeviceStatusPatch(7L, "test/device7", "{\"apower\":1.0}", null, "{}", null, null));
+    deviceStatusRepository.upsert(
+        new DeviceStatusPatch(7L, null, null, true, null, null, null));
+    deviceStatusRepository.upsert(
+        new DeviceStatusPatch(
+            7L, null, null, null, null, DeviceControlState.DISABLED_BY_USER, null));
+
+    DeviceStatus stored = deviceStatusRepository.findByDeviceId(7L).orElseThrow();
+    assertThat(stored.getMqttPrefix()).isEqualTo("test/device7");
+    assertThat(objectMapper.readTree(stored.getLastStatusJson()).get("apower").asDouble())
+        .isEqualTo(1.0);
+    assertThat(objectMapper.readTree(stored.getLastEventJson()).isEmpty()).isTrue();
+    assertThat(stored.getLastOnline()).isTrue();
+    assertThat(stored.getControlState()).isEqualTo(DeviceControlState.DISABLED_BY_USER);
+    assertThat(stored.getUpdatedAt()).isNotNull();
+  }
+
+  @Test
+  void testStatusReadsAreServedFromRealtimeCache() throws Exception {
+    shellyService.handleMqttMessage(
+        MessageBuilder.withPayload("{\"id\":0,\"output\":true,\"apower\":612.5}")
+            .setHeader(MqttHeaders.RECEIVED_TOPIC, "test/device2/status/switch:0")
+            .build());
+    shellyService.handleMqttMessage(
+        MessageBuilder.withPayload("{\"method\":\"Switch.Set\",\"params\":{\"id\":0}}")
+            .setHeader(MqttHeaders.RECEIVED_TOPIC, "test/device2/events/rpc")
+            .build());
+    realtimeStateCache.updateOnline(2L, true, "test/device2");
+    // Make the database disagree, so only the cache can give the values below
+    deviceStatusWriteBehind.flush();
+    deviceStatusRepository.upsert(
+        new DeviceStatusPatch(2L, null, "{\"apower\":1.0}", false, "{}", null, null));
+
+    assertThat(deviceStatusService.getStatusAsJsonNode(2L).get("apower").asDouble())
+        .isEqualTo(612.5);
+    assertThat(deviceStatusService.getEventAsJsonNode(2L).get("method").asText())
+        .isEqualTo("Switch.Set");
+    assertThat(deviceStatusService.getOnlineStatus(2L)).isTrue();
+    String cachedStatusJson =
+        deviceStatusService.getAllStatusesByIds(List.of(2L)).get(2L).getStatusJson();
+    assertThat(objectMapper.readTree(cachedStatusJson))
+        .isEqualTo(deviceStatusService.getStatusAsJsonNode(2L));
+  }
+
+  @Test
+  void testStatusReadsFallBackToDatabaseOnCacheMiss() {
+    deviceStatusRepository.upsert(
+        new DeviceStatusPatch(
+            9L, "test/device9", "{\"apower\":42.0}", false, "{\"method\":\"x\"}", null, null));
+    assertThat(realtimeStateCache.get(9L)).isEmpty();
+
+    assertThat(deviceStatusService.getStatusAsJsonNode(9L).get("apower").asDouble())
+        .isEqualTo(42.0);
+    assertThat(deviceStatusService.getEventAsJsonNode(9L).get("method").asText()).isEqualTo("x");
+    assertThat(deviceStatusService.getOnlineStatus(9L)).isFalse();
+    assertThat(deviceStatusService.getAllStatusesByIds(List.of(9L)).get(9L).isOnline()).isFalse();
+    assertThat(deviceStatusService.getStatusAsJsonNode(10L)).isNull();
+  }
+
+  @Test
+  void testAllStatusesMixCacheHitsAndOneDatabaseQuery() throws Exception {
+    shellyService.handleMqttMessage(
+        MessageBuilder.withPayload("{\"id\":0,\"output\":false,\"apower\":0.0}")
+            .setHeader(MqttHeaders.RECEIVED_TOPIC, "test/device1/status/switch:0")
+            .build());
+    deviceStatusRepository.upsert(
+        new DeviceStatusPatch(11L, "test/device11", "{\"apower\":7.0}", true, null, null, null));
+
+    Map<Long, DeviceStatusDto> statuses =
+        deviceStatusService.getAllStatusesByIds(Arrays.asList(11L, 1L, 11L, null, 12L));
+
+    assertThat(statuses).containsOnlyKeys(1L, 11L, 12L);
+    assertThat(objectMapper.readTree(statuses.get(1L).getStatusJson()).get("output").asBoolean())
+        .isFalse();
+    assertThat(statuses.get(11L).isOnline()).isTrue();
+    assertThat(objectMapper.readTree(statuses.get(11L).getStatusJson()).get("apower").asDouble())
+        .isEqualTo(7.0);
+    assertThat(statuses.get(12L).isOnline()).isFalse();
+    assertThat(statuses.get(12L).getStatusJson()).isNull();
+  }
 }
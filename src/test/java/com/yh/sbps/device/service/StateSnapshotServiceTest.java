@@ -0,0 +1,130 @@
+package com.yh.sbps.device.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.yh.sbps.device.dto.DeviceDto;
+import com.yh.sbps.device.dto.DeviceProvider;
+import com.yh.sbps.device.dto.DeviceStateSnapshot;
+import com.yh.sbps.device.dto.DeviceTelemetry;
+import com.yh.sbps.device.dto.DeviceType;
+import com.yh.sbps.device.dto.SystemSettingsDto;
+import com.yh.sbps.device.dto.SystemStateDto;
+import com.yh.sbps.device.entity.DeviceStatus.DeviceControlState;
+import com.yh.sbps.device.integration.ApiServiceClient;
+import com.yh.sbps.device.service.SystemStateCache.BlackoutSession;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+@DisplayName("StateSnapshotService Unit Tests")
+class StateSnapshotServiceTest {
+
+  private final ObjectMapper objectMapper = new ObjectMapper();
+
+  @TempDir Path tempDir;
+
+  @Test
+  void testSnapshotRoundTrip() {
+    Path file = tempDir.resolve("state.bin");
+    Node before = new Node(file, 3600000);
+    DeviceDto plug =
+        new DeviceDto(
+            1L,
+            "Plug",
+            "test/plug1",
+            DeviceType.SWITCHABLE_APPLIANCE,
+            DeviceProvider.SHELLY,
+            1,
+            300,
+            false,
+            false,
+            0,
+            0,
+            "user");
+    SystemSettingsDto settings = new SystemSettingsDto(1000, 100, 30, null, false);
+    before.systemStateCache.restoreSnapshot(
+        Map.of("test/monitor", new SystemStateDto(settings, List.of(plug), false)),
+        Map.of("test/monitor", false),
+        Map.of("test/monitor", new BlackoutSession(3L, 12.5, LocalDateTime.now().withNano(0))));
+    before.realtimeStateCache.updateOnline(1L, true, "test/plug1");
+    before.realtimeStateCache.updateStatus(
+        1L,
+        new DeviceTelemetry(
+            250.0, 0, 0, 0, true, DeviceTelemetry.APOWER | DeviceTelemetry.OUTPUT, 42L),
+        "test/plug1");
+    before.realtimeStateCache.updateControlState(1L, DeviceControlState.DISABLED_BY_BALANCER);
+    LocalDateTime cooldown = LocalDateTime.now().withNano(0);
+    before.balancingService.restoreOverloadCooldowns(Map.of("test/monitor", cooldown));
+
+    before.snapshotService.writeSnapshot();
+    assertThat(Files.exists(file)).isTrue();
+
+    Node after = new Node(file, 3600000);
+    List<DeviceDto> devices = after.snapshotService.restore();
+
+    assertThat(devices).extracting(DeviceDto::getMqttPrefix).containsExactly("test/plug1");
+    DeviceStateSnapshot restored = after.realtimeStateCache.get(1L).orElseThrow();
+    // Readings are up to max-age old, so they come back unknown until the device reports
+    assertThat(restored.online()).isNull();
+    assertThat(restored.telemetry()).isNull();
+    assertThat(restored.mqttPrefix()).isEqualTo("test/plug1");
+    assertThat(restored.controlState()).isEqualTo(DeviceControlState.DISABLED_BY_BALANCER);
+    assertThat(restored.balancerDisabledAt()).isNotNull();
+    assertThat(after.systemStateCache.getState("test/monitor"))
+        .hasValueSatisfying(
+            state -> assertThat(state.getSystemSettings().getPowerLimitWatts()).isEqualTo(1000));
+    assertThat(after.systemStateCache.getDeviceToMonitorMap())
+        .containsEntry("test/plug1", "test/monitor");
+    assertThat(after.systemStateCache.isGridAvailable("test/monitor")).isFalse();
+    assertThat(after.systemStateCache.getBlackoutSessions()).containsKey("test/monitor");
+    assertThat(after.balancingService.getOverloadCooldowns())
+        .containsEntry("test/monitor", cooldown);
+  }
+
+  @Test
+  void testStaleSnapshotIsIgnored() throws Exception {
+    Path file = tempDir.resolve("state.bin");
+    Node before = new Node(file, 3600000);
+    before.realtimeStateCache.updateOnline(1L, true, "test/plug1");
+    before.snapshotService.writeSnapshot();
+    Thread.sleep(20);
+
+    Node after = new Node(file, 1);
+    assertThat(after.snapshotService.restore()).isEmpty();
+    assertThat(after.realtimeStateCache.get(1L)).isEmpty();
+  }
+
+  /** One service instance's worth of caches. */
+  private class Node {
+    final DeviceRealtimeStateCache realtimeStateCache =
+        new DeviceRealtimeStateCache(new TelemetryExtractor(objectMapper), 10);
+    final SystemStateCache systemStateCache =
+        new SystemStateCache(mock(ApiServiceClient.class), realtimeStateCache);
+    final BalancingService balancingService =
+        new BalancingService(
+            realtimeStateCache,
+            mock(DeviceStatusService.class),
+            mock(ApiServiceClient.class),
+            systemStateCache,
+            mock(SystemLogService.class));
+    final StateSnapshotService snapshotService;
+
+    Node(Path file, long maxAgeMs) {
+      snapshotService =
+          new StateSnapshotService(
+              realtimeStateCache,
+              systemStateCache,
+              balancingService,
+              objectMapper,
+              file.toString(),
+              maxAgeMs);
+    }
+  }
+}
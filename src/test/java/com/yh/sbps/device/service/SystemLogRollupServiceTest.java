@@ -0,0 +1,142 @@
+package com.yh.sbps.device.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+import com.yh.sbps.device.entity.SystemLog;
+import com.yh.sbps.device.integration.ApiServiceClient;
+import com.yh.sbps.device.repository.SystemLogRepository;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+
+// The rollup tables only exist in the Liquibase schema, so this test gets its own database
+@SpringBootTest(
+    properties = {
+      "jwt.secret=01234567890123456789012345678901",
+      "spring.datasource.url=jdbc:h2:mem:rollup",
+      "spring.jpa.hibernate.ddl-auto=none",
+      "system-log.retention.purge-pause-ms=0"
+    })
+@DisplayName("SystemLogRollupService Integration Tests")
+class SystemLogRollupServiceTest {
+
+  private static final LocalDateTime NOW = LocalDateTime.of(2024, 6, 10, 12, 30, 20);
+
+  @Autowired private SystemLogRollupService rollupService;
+  @Autowired private SystemLogRepository logRepository;
+  @Autowired private JdbcTemplate jdbcTemplate;
+
+  @MockitoBean private ApiServiceClient apiServiceClient;
+
+  @MockitoBean private com.yh.sbps.device.config.security.JwtAuthFilter jwtAuthFilter;
+
+  @MockitoBean
+  private com.yh.sbps.device.config.security.DeviceUserDetailsService deviceUserDetailsService;
+
+  @MockitoBean private com.yh.sbps.device.config.security.JwtService jwtService;
+
+  @BeforeEach
+  void setUp() {
+    jdbcTemplate.update("DELETE FROM system_log_rollup_minute");
+    jdbcTemplate.update("DELETE FROM system_log_rollup_hour");
+    logRepository.deleteAll();
+  }
+
+  @Test
+  void testRollsUpCompletedMinutesAndHours() {
+    log("10:00:10", 100.0, true, null);
+    log("10:00:40", 300.0, false, "Turned OFF Heater");
+    log("10:01:05", 200.0, true, null);
+    log("11:15:00", 50.0, true, null);
+    log("12:29:30", 75.0, true, null); // minute not complete yet
+
+    rollupService.run(NOW);
+
+    List<Map<String, Object>> minutes =
+        jdbcTemplate.queryForList(
+            "SELECT * FROM system_log_rollup_minute ORDER BY bucket_start");
+    assertThat(minutes).hasSize(3);
+    Map<String, Object> first = minutes.get(0);
+    assertThat(first.get("SAMPLES")).isEqualTo(2);
+    assertThat((Double) first.get("AVG_LOAD_WATTS")).isCloseTo(200.0, within(1e-9));
+    assertThat((Double) first.get("MAX_LOAD_WATTS")).isCloseTo(300.0, within(1e-9));
+    assertThat((Double) first.get("GRID_ONLINE_RATIO")).isCloseTo(0.5, within(1e-9));
+    assertThat(first.get("SWITCH_ACTIONS")).isEqualTo(1);
+
+    List<Map<String, Object>> hours =
+        jdbcTemplate.queryForList("SELECT * FROM system_log_rollup_hour ORDER BY bucket_start");
+    assertThat(hours).hasSize(2);
+    Map<String, Object> tenOClock = hours.get(0);
+    assertThat(tenOClock.get("SAMPLES")).isEqualTo(3);
+    assertThat((Double) tenOClock.get("AVG_LOAD_WATTS")).isCloseTo(200.0, within(1e-9));
+    assertThat((Double) tenOClock.get("GRID_ONLINE_RATIO")).isCloseTo(2.0 / 3, within(1e-9));
+    assertThat(tenOClock.get("SWITCH_ACTIONS")).isEqualTo(1);
+
+    // A second run picks up where the first stopped and does not double count
+    log("12:29:50", 125.0, true, null);
+    rollupService.run(NOW.plusMinutes(1));
+
+    List<Map<String, Object>> late =
+        jdbcTemplate.queryForList(
+            "SELECT * FROM system_log_rollup_minute WHERE bucket_start = ?",
+            LocalDateTime.of(2024, 6, 10, 12, 29));
+    assertThat(late).hasSize(1);
+    assertThat(late.get(0).get("SAMPLES")).isEqualTo(2);
+    assertThat(
+            jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM system_log_rollup_minute", Integer.class))
+        .isEqualTo(4);
+  }
+
+  @Test
+  void testPurgesOnlyRolledUpRowsPastRetention() {
+    SystemLog old = log("10:00:00", 100.0, true, null);
+    old.setTimestamp(NOW.minusDays(40));
+    logRepository.save(old);
+    log("10:00:00", 100.0, true, null);
+
+    rollupService.run(NOW);
+
+    assertThat(logRepository.findAll())
+        .extracting(SystemLog::getTimestamp)
+        .containsExactly(LocalDateTime.of(2024, 6, 10, 10, 0));
+    assertThat(
+            jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM system_log_rollup_minute", Integer.class))
+        .isEqualTo(1);
+  }
+
+  @Test
+  void testSkipsGapsLongerThanTheWindow() {
+    SystemLog old = log("10:00:00", 100.0, true, null);
+    old.setTimestamp(NOW.minusDays(3));
+    logRepository.save(old);
+    log("10:00:00", 200.0, true, null);
+
+    rollupService.run(NOW); // the first window only reaches a day past the old row
+    rollupService.run(NOW);
+
+    assertThat(
+            jdbcTemplate.queryForList(
+                "SELECT bucket_start FROM system_log_rollup_minute ORDER BY bucket_start",
+                LocalDateTime.class))
+        .containsExactly(
+            NOW.minusDays(3).truncatedTo(ChronoUnit.MINUTES), LocalDateTime.of(2024, 6, 10, 10, 0));
+  }
+
+  private SystemLog log(String time, double load, boolean gridOnline, String event) {
+    SystemLog log = new SystemLog("test/monitor", gridOnline, load, "{}", event);
+    log.setTimestamp(LocalDateTime.of(NOW.toLocalDate(), LocalTime.parse(time)));
+    return logRepository.save(log);
+  }
+}
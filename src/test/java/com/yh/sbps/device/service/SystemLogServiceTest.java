@@ -0,0 +1,121 @@
+package com.yh.sbps.device.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.yh.sbps.device.dto.SystemLogDto;
+import com.yh.sbps.device.entity.SystemLog;
+import com.yh.sbps.device.integration.ApiServiceClient;
+import com.yh.sbps.device.repository.SystemLogRepository;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+
+@SpringBootTest(
+    properties = {"jwt.secret=01234567890123456789012345678901", "spring.liquibase.enabled=false"})
+@DisplayName("SystemLogService History Integration Tests")
+class SystemLogServiceTest {
+
+  private static final LocalDateTime T0 = LocalDateTime.of(2024, 6, 10, 10, 0);
+
+  @Autowired private SystemLogService systemLogService;
+  @Autowired private SystemLogRepository logRepository;
+
+  @MockitoBean private ApiServiceClient apiServiceClient;
+
+  @MockitoBean private com.yh.sbps.device.config.security.JwtAuthFilter jwtAuthFilter;
+
+  @MockitoBean
+  private com.yh.sbps.device.config.security.DeviceUserDetailsService deviceUserDetailsService;
+
+  @MockitoBean private com.yh.sbps.device.config.security.JwtService jwtService;
+
+  @BeforeEach
+  void setUp() {
+    logRepository.deleteAll();
+  }
+
+  @Test
+  void testStreamHistoryPagesByTimestampAndId() {
+    // Two entries share a timestamp, so the id has to break the tie
+    SystemLog first = log("test/monitor", T0, 100.0);
+    SystemLog second = log("test/monitor", T0.plusSeconds(30), 200.0);
+    SystemLog third = log("test/monitor", T0.plusSeconds(30), 300.0);
+    SystemLog fourth = log("test/monitor", T0.plusSeconds(60), 400.0);
+    log("other/monitor", T0.plusSeconds(30), 999.0);
+    log("test/monitor", T0.plusMinutes(10), 500.0); // outside the range
+
+    LocalDateTime from = T0;
+    LocalDateTime to = T0.plusMinutes(5);
+    List<SystemLogDto> page1 = history(from, to, null, null, 2);
+    assertThat(page1)
+        .extracting(SystemLogDto::getId)
+        .containsExactly(first.getId(), second.getId());
+
+    SystemLogDto last = page1.get(1);
+    List<SystemLogDto> page2 = history(from, to, last.getTimestamp(), last.getId(), 2);
+    assertThat(page2)
+        .extracting(SystemLogDto::getId)
+        .containsExactly(third.getId(), fourth.getId());
+
+    last = page2.get(1);
+    assertThat(history(from, to, last.getTimestamp(), last.getId(), 2)).isEmpty();
+  }
+
+  @Test
+  void testStreamHistoryContinuesAcrossChunks() {
+    // Pairs share a timestamp, so some chunk boundaries fall between rows with equal timestamps
+    List<SystemLog> logs = new ArrayList<>();
+    for (int i = 0; i < 1200; i++) {
+      SystemLog log = new SystemLog("test/monitor", true, (double) i, "{}", null);
+      log.setTimestamp(T0.plusSeconds(i / 2));
+      logs.add(log);
+    }
+    logRepository.saveAll(logs);
+    LocalDateTime to = T0.plusHours(1);
+
+    assertThat(history(T0, to, null, null, 1100))
+        .extracting(SystemLogDto::getTotalLoadWatts)
+        .containsExactlyElementsOf(
+            logs.subList(0, 1100).stream().map(SystemLog::getTotalLoadWatts).toList());
+    assertThat(history(T0, to, null, null, 10000)).hasSize(1200);
+  }
+
+  @Test
+  void testStreamHistoryReturnsAllColumns() {
+    log("test/monitor", T0, 150.0);
+
+    List<SystemLogDto> rows = history(T0, T0.plusMinutes(1), null, null, 10);
+
+    assertThat(rows).hasSize(1);
+    SystemLogDto row = rows.get(0);
+    assertThat(row.getMqttPrefix()).isEqualTo("test/monitor");
+    assertThat(row.getTimestamp()).isEqualTo(T0);
+    assertThat(row.getGridOnline()).isTrue();
+    assertThat(row.getTotalLoadWatts()).isEqualTo(150.0);
+    assertThat(row.getDeviceStatusesJson()).isEqualTo("{\"Heater\":\"ON\"}");
+    assertThat(row.getDecisionEvent()).isEqualTo("Turned ON Heater");
+  }
+
+  private List<SystemLogDto> history(
+      LocalDateTime from, LocalDateTime to, LocalDateTime afterTimestamp, Long afterId, int limit) {
+    List<SystemLogDto> rows = new ArrayList<>();
+    int count =
+        systemLogService.streamHistory(
+            "test/monitor", from, to, afterTimestamp, afterId, limit, rows::add);
+    assertThat(count).isEqualTo(rows.size());
+    return rows;
+  }
+
+  private SystemLog log(String mqttPrefix, LocalDateTime timestamp, double load) {
+    SystemLog log =
+        new SystemLog(mqttPrefix, true, load, "{\"Heater\":\"ON\"}", "Turned ON Heater");
+    log.setTimestamp(timestamp);
+    return logRepository.save(log);
+  }
+}
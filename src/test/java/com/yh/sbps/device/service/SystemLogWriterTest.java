@@ -0,0 +1,99 @@
+package com.yh.sbps.device.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
+
+import com.yh.sbps.device.entity.SystemLog;
+import com.yh.sbps.device.repository.SystemLogRepository;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.PlatformTransactionManager;
+
+@DisplayName("SystemLogWriter Unit Tests")
+class SystemLogWriterTest {
+
+  private SystemLogRepository repository;
+  private final List<Integer> batchSizes = new ArrayList<>();
+
+  @BeforeEach
+  void setUp() {
+    repository = mock(SystemLogRepository.class);
+    doAnswer(
+            invocation -> {
+              List<SystemLog> batch = invocation.getArgument(0);
+              batchSizes.add(batch.size());
+              return batch;
+            })
+        .when(repository)
+        .saveAll(anyList());
+  }
+
+  @Test
+  void testFlushSavesQueuedEntriesInBatches() {
+    SystemLogWriter writer = writer(10, 2);
+
+    for (int i = 0; i < 5; i++) {
+      writer.enqueue(log("Turned OFF plug" + i));
+    }
+    writer.flush();
+
+    assertThat(batchSizes).containsExactly(2, 2, 1);
+    assertThat(writer.getWrittenLogs()).isEqualTo(5);
+  }
+
+  @Test
+  void testFullQueueDropsEntryWithoutBlocking() {
+    SystemLogWriter writer = writer(1, 10);
+
+    writer.enqueue(log("first"));
+    writer.enqueue(log("second"));
+    writer.flush();
+
+    assertThat(writer.getDroppedLogs()).isEqualTo(1);
+    assertThat(batchSizes).containsExactly(1);
+  }
+
+  @Test
+  void testBackgroundWriterSavesWithoutCallerWaiting() {
+    SystemLogWriter writer = writer(10, 10);
+    writer.start();
+    try {
+      writer.enqueue(log("Turned ON heater"));
+
+      verify(repository, timeout(2000)).saveAll(anyList());
+    } finally {
+      writer.stop();
+    }
+    assertThat(writer.getWrittenLogs()).isEqualTo(1);
+  }
+
+  @Test
+  void testFailedBatchIsCountedAndWriterContinues() {
+    SystemLogWriter writer = writer(10, 10);
+    doThrow(new RuntimeException("db down"))
+        .doReturn(List.of())
+        .when(repository)
+        .saveAll(anyList());
+
+    writer.enqueue(log("a"));
+    writer.flush();
+    writer.enqueue(log("b"));
+    writer.flush();
+
+    assertThat(writer.getFailedLogs()).isEqualTo(1);
+    assertThat(writer.getWrittenLogs()).isEqualTo(1);
+  }
+
+  private SystemLogWriter writer(int capacity, int batchSize) {
+    return new SystemLogWriter(
+        repository, mock(PlatformTransactionManager.class), capacity, batchSize, 50);
+  }
+
+  private static SystemLog log(String event) {
+    return new SystemLog("test/monitor", true, 100.0, "{}", event);
+  }
+}
@@ -0,0 +1,74 @@
+package com.yh.sbps.device.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.yh.sbps.device.dto.DeviceTelemetry;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+@DisplayName("TelemetryExtractor Unit Tests")
+class TelemetryExtractorTest {
+
+  private final TelemetryExtractor extractor = new TelemetryExtractor(new ObjectMapper());
+
+  @Test
+  void testShellyStatusSkipsUnusedFields() throws Exception {
+    String payload =
+        "{\"id\":0,\"source\":\"init\",\"output\":true,\"apower\":150.5,\"voltage\":231.2,"
+            + "\"current\":0.7,\"aenergy\":{\"total\":12.3,\"by_minute\":[1.0,2.0,3.0]},"
+            + "\"temperature\":{\"tC\":40.1,\"tF\":104.2}}";
+
+    DeviceTelemetry telemetry = extractor.extractShellyStatus(payload);
+
+    assertThat(telemetry.output()).isTrue();
+    assertThat(telemetry.apower()).isEqualTo(150.5);
+    assertThat(telemetry.voltage()).isEqualTo(231.2);
+    assertThat(telemetry.current()).isEqualTo(0.7);
+    assertThat(telemetry.energyTotal()).isEqualTo(12.3);
+    assertThat(telemetry.toJson().has("temperature")).isFalse();
+  }
+
+  @Test
+  void testShellyNotifyStatusRequiresApower() throws Exception {
+    String withPower =
+        "{\"method\":\"NotifyStatus\","
+            + "\"params\":{\"ts\":1.0,\"switch:0\":{\"id\":0,\"apower\":42.0}}}";
+    String withoutPower =
+        "{\"method\":\"NotifyStatus\",\"params\":{\"switch:0\":{\"id\":0,\"output\":false}}}";
+    String otherMethod = "{\"method\":\"Switch.Toggle\",\"params\":{\"id\":0}}";
+
+    assertThat(extractor.extractShellyNotifyStatus(withPower).apower()).isEqualTo(42.0);
+    assertThat(extractor.extractShellyNotifyStatus(withoutPower)).isNull();
+    assertThat(extractor.extractShellyNotifyStatus(otherMethod)).isNull();
+  }
+
+  @Test
+  void testShellyNotifyStatusJsonKeepsEveryField() throws Exception {
+    String payload =
+        "{\"method\":\"NotifyStatus\",\"params\":{\"ts\":1.0,"
+            + "\"switch:0\":{\"id\":0,\"apower\":42.0,\"temperature\":{\"tC\":40.1}}}}";
+
+    String status = extractor.extractShellyNotifyStatusJson(payload);
+
+    assertThat(new ObjectMapper().readTree(status))
+        .isEqualTo(new ObjectMapper().readTree(payload).get("params").get("switch:0"));
+    assertThat(extractor.extractShellyNotifyStatusJson("{\"params\":{\"ts\":1.0}}")).isNull();
+  }
+
+  @Test
+  void testTasmotaStateReadsEnergyAndPower() throws Exception {
+    String payload =
+        "{\"Time\":\"2024-01-01T00:00:00\",\"POWER\":\"ON\","
+            + "\"ENERGY\":{\"Total\":5.1,\"Power\":15.0,\"Voltage\":230.0,\"Current\":0.1}}";
+
+    DeviceTelemetry state = extractor.extractTasmota(payload, true, true);
+    DeviceTelemetry result = extractor.extractTasmota(payload, false, true);
+
+    assertThat(state.apower()).isEqualTo(15.0);
+    assertThat(state.voltage()).isEqualTo(230.0);
+    assertThat(state.output()).isTrue();
+    assertThat(result.hasApower()).isFalse();
+    assertThat(result.hasOutput()).isTrue();
+  }
+}
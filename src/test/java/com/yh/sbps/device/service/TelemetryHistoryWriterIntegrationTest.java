@@ -0,0 +1,95 @@
+package com.yh.sbps.device.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.yh.sbps.device.dto.DeviceTelemetry;
+import com.yh.sbps.device.integration.ApiServiceClient;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+
+// Own database with the Liquibase schema, which is where device_telemetry comes from
+@SpringBootTest(
+    properties = {
+      "jwt.secret=01234567890123456789012345678901",
+      "spring.datasource.url=jdbc:h2:mem:telemetry",
+      "spring.jpa.hibernate.ddl-auto=none",
+      "device.telemetry.enabled=true",
+      "device.telemetry.retention-days=30"
+    })
+@DisplayName("TelemetryHistoryWriter Integration Tests")
+class TelemetryHistoryWriterIntegrationTest {
+
+  @Autowired private TelemetryHistoryWriter historyWriter;
+  @Autowired private JdbcTemplate jdbcTemplate;
+
+  @MockitoBean private ApiServiceClient apiServiceClient;
+
+  @MockitoBean private com.yh.sbps.device.config.security.JwtAuthFilter jwtAuthFilter;
+
+  @MockitoBean
+  private com.yh.sbps.device.config.security.DeviceUserDetailsService deviceUserDetailsService;
+
+  @MockitoBean private com.yh.sbps.device.config.security.JwtService jwtService;
+
+  @BeforeEach
+  void setUp() {
+    historyWriter.flush();
+    jdbcTemplate.update("DELETE FROM device_telemetry");
+  }
+
+  @Test
+  void testRecordedSamplesAreInserted() {
+    long now = System.currentTimeMillis();
+    historyWriter.record(1L, telemetry(120.5, now));
+    historyWriter.record(
+        2L,
+        new DeviceTelemetry(
+            0, 231.0, 0, 0, false, DeviceTelemetry.VOLTAGE | DeviceTelemetry.OUTPUT, now));
+    historyWriter.flush();
+
+    List<Map<String, Object>> rows =
+        jdbcTemplate.queryForList("SELECT * FROM device_telemetry ORDER BY device_id");
+    assertThat(rows).hasSize(2);
+    assertThat(rows.get(0).get("APOWER")).isEqualTo(120.5);
+    assertThat(rows.get(0).get("VOLTAGE")).isEqualTo(230.0);
+    assertThat(rows.get(0).get("OUTPUT")).isEqualTo(true);
+    assertThat(((Timestamp) rows.get(0).get("TS")).toInstant())
+        .isEqualTo(Instant.ofEpochMilli(now));
+    assertThat(rows.get(1).get("APOWER")).isNull();
+    assertThat(rows.get(1).get("OUTPUT")).isEqualTo(false);
+  }
+
+  @Test
+  void testMaintenanceDeletesRowsPastRetention() {
+    long now = System.currentTimeMillis();
+    historyWriter.record(1L, telemetry(10.0, now - Duration.ofDays(40).toMillis()));
+    historyWriter.record(1L, telemetry(20.0, now));
+    historyWriter.flush();
+
+    historyWriter.maintainPartitions();
+
+    assertThat(jdbcTemplate.queryForList("SELECT apower FROM device_telemetry", Double.class))
+        .containsExactly(20.0);
+  }
+
+  private static DeviceTelemetry telemetry(double apower, long timestamp) {
+    return new DeviceTelemetry(
+        apower,
+        230.0,
+        0,
+        0,
+        true,
+        DeviceTelemetry.APOWER | DeviceTelemetry.VOLTAGE | DeviceTelemetry.OUTPUT,
+        timestamp);
+  }
+}
@@ -0,0 +1,117 @@
+package com.yh.sbps.device.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
+
+import com.yh.sbps.device.dto.DeviceTelemetry;
+import com.yh.sbps.device.repository.DeviceTelemetryRepository;
+import com.yh.sbps.device.repository.DeviceTelemetrySample;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+@DisplayName("TelemetryHistoryWriter Unit Tests")
+class TelemetryHistoryWriterTest {
+
+  private DeviceTelemetryRepository repository;
+  private final List<List<DeviceTelemetrySample>> written = new ArrayList<>();
+
+  @BeforeEach
+  void setUp() {
+    repository = mock(DeviceTelemetryRepository.class);
+    // The writer reuses its batch list, so keep copies
+    doAnswer(invocation -> written.add(List.copyOf(invocation.getArgument(0))))
+        .when(repository)
+        .insertBatch(anyList());
+  }
+
+  @Test
+  void testFlushWritesQueuedSamplesInBatches() {
+    TelemetryHistoryWriter writer =
+        new TelemetryHistoryWriter(repository, true, 10, 2, 1000, 30, 3, true);
+
+    for (long id = 1; id <= 5; id++) {
+      writer.record(id, telemetry(100.0 * id));
+    }
+    writer.flush();
+
+    assertThat(written).extracting(List::size).containsExactly(2, 2, 1);
+    assertThat(written.get(0).get(0).deviceId()).isEqualTo(1L);
+    assertThat(written.get(2).get(0).telemetry().apower()).isEqualTo(500.0);
+    assertThat(writer.getWrittenSamples()).isEqualTo(5);
+  }
+
+  @Test
+  void testFullQueueDropsInsteadOfBlocking() {
+    TelemetryHistoryWriter writer =
+        new TelemetryHistoryWriter(repository, true, 2, 10, 1000, 30, 3, true);
+
+    writer.record(1L, telemetry(1.0));
+    writer.record(2L, telemetry(2.0));
+    writer.record(3L, telemetry(3.0));
+    writer.flush();
+
+    assertThat(writer.getDroppedSamples()).isEqualTo(1);
+    assertThat(written).hasSize(1);
+    assertThat(written.get(0))
+        .extracting(DeviceTelemetrySample::deviceId)
+        .containsExactly(1L, 2L);
+  }
+
+  @Test
+  void testDisabledWriterIgnoresSamples() {
+    TelemetryHistoryWriter writer =
+        new TelemetryHistoryWriter(repository, false, 10, 10, 1000, 30, 3, true);
+
+    writer.record(1L, telemetry(1.0));
+    writer.flush();
+    writer.maintainPartitions();
+
+    verifyNoInteractions(repository);
+  }
+
+  @Test
+  void testMaintenanceCreatesPartitionsAheadAndAppliesRetention() {
+    TelemetryHistoryWriter writer =
+        new TelemetryHistoryWriter(repository, true, 10, 10, 1000, 30, 3, true);
+    LocalDate today = LocalDate.now(ZoneOffset.UTC);
+
+    writer.maintainPartitions();
+
+    verify(repository).ensurePartitions(today, 4);
+    verify(repository).deleteBefore(today.minusDays(30));
+    verify(repository, never()).insertBatch(any());
+  }
+
+  @Test
+  void testOnlyLeaderMaintainsPartitions() {
+    TelemetryHistoryWriter writer =
+        new TelemetryHistoryWriter(repository, true, 10, 10, 1000, 30, 3, false);
+
+    writer.record(1L, telemetry(1.0));
+    writer.flush();
+    writer.maintainPartitions();
+
+    verify(repository).insertBatch(anyList());
+    verify(repository, never()).ensurePartitions(any(), anyInt());
+    verify(repository, never()).deleteBefore(any());
+  }
+
+  private static DeviceTelemetry telemetry(double apower) {
+    return new DeviceTelemetry(
+        apower,
+        230.0,
+        0,
+        0,
+        true,
+        DeviceTelemetry.APOWER | DeviceTelemetry.VOLTAGE | DeviceTelemetry.OUTPUT,
+        System.currentTimeMillis());
+  }
+}
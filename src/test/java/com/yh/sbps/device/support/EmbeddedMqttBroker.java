@@ -0,0 +1,62 @@
+package com.yh.sbps.device.support;
+
+import com.hivemq.embedded.EmbeddedHiveMQ;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/** In-process HiveMQ CE broker on a free local port, for tests and benchmarks. */
+public final class EmbeddedMqttBroker implements AutoCloseable {
+
+  private final EmbeddedHiveMQ hiveMQ;
+  private final int port;
+
+  private EmbeddedMqttBroker(EmbeddedHiveMQ hiveMQ, int port) {
+    this.hiveMQ = hiveMQ;
+    this.port = port;
+  }
+
+  public static EmbeddedMqttBroker start(Path workDir) throws IOException {
+    int port;
+    try (ServerSocket socket = new ServerSocket(0)) {
+      port = socket.getLocalPort();
+    }
+    Path conf = Files.createDirectories(workDir.resolve("conf"));
+    Files.writeString(
+        conf.resolve("config.xml"),
+        """
+        <hivemq>
+          <listeners>
+            <tcp-listener>
+              <port>%d</port>
+              <bind-address>127.0.0.1</bind-address>
+            </tcp-listener>
+          </listeners>
+        </hivemq>
+        """
+            .formatted(port));
+    EmbeddedHiveMQ hiveMQ =
+        EmbeddedHiveMQ.builder()
+            .withConfigurationFolder(conf)
+            .withDataFolder(Files.createDirectories(workDir.resolve("data")))
+            .withExtensionsFolder(Files.createDirectories(workDir.resolve("extensions")))
+            .build();
+    hiveMQ.start().join();
+    return new EmbeddedMqttBroker(hiveMQ, port);
+  }
+
+  public int getPort() {
+    return port;
+  }
+
+  public String getUri() {
+    return "tcp://127.0.0.1:" + port;
+  }
+
+  @Override
+  public void close() throws Exception {
+    hiveMQ.stop().join();
+    hiveMQ.close();
+  }
+}